@@ -13,6 +13,7 @@ import android.os.Build;
 import com.orgzly.R;
 import com.orgzly.android.data.DataRepository;
 import com.orgzly.android.data.DbRepoBookRepository;
+import com.orgzly.android.data.logs.DatabaseAppLogsRepository;
 import com.orgzly.android.db.OrgzlyDatabase;
 import com.orgzly.android.prefs.AppPreferences;
 import com.orgzly.android.prefs.AppPreferencesValues;
@@ -52,7 +53,7 @@ public class OrgzlyTest {
 
     protected DataRepository dataRepository;
 
-    private OrgzlyDatabase database;
+    protected OrgzlyDatabase database;
 
     @Rule
     public GrantPermissionRule grantPermissionRule;
@@ -84,7 +85,8 @@ public class OrgzlyTest {
         RepoFactory repoFactory = new RepoFactory(context, dbRepoBookRepository);
 
         dataRepository = new DataRepository(
-                context, database, repoFactory, context.getResources(), localStorage);
+                context, database, repoFactory, context.getResources(), localStorage,
+                new DatabaseAppLogsRepository(database));
 
         testUtils = new TestUtils(dataRepository, dbRepoBookRepository);
 
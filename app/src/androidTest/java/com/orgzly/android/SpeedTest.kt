@@ -0,0 +1,36 @@
+package com.orgzly.android
+
+import com.orgzly.android.db.entity.BookView
+import com.orgzly.android.util.MiscUtils
+import java.io.File
+
+/**
+ * Compares the speed of two ways of doing the same thing, on generated data.
+ *
+ * Speed tests are written as failing tests, so that the results are displayed,
+ * and are ignored by default.
+ */
+abstract class SpeedTest : OrgzlyTest() {
+
+    /**
+     * @return result of [block] and the time it took in milliseconds
+     */
+    protected fun <T> timed(block: () -> T): Pair<T, Long> {
+        val startedAt = System.currentTimeMillis()
+        val result = block()
+        return Pair(result, System.currentTimeMillis() - startedAt)
+    }
+
+    /**
+     * Loads the book from a file, the same way books are loaded when syncing.
+     */
+    protected fun loadBook(content: String, bookName: String = "book"): BookView {
+        val file = File(context.cacheDir, "speed-test.org")
+        try {
+            MiscUtils.writeStringToFile(content, file)
+            return dataRepository.loadBookFromFile(bookName, BookFormat.ORG, file)!!
+        } finally {
+            file.delete()
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.SpeedTest
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.db.entity.NoteAncestor
+import com.orgzly.android.db.entity.NotePosition
+import com.orgzly.android.db.entity.NoteProperty
+import com.orgzly.org.OrgFile
+import com.orgzly.org.parser.OrgNestedSetParserListener
+import com.orgzly.org.parser.OrgNodeInSet
+import com.orgzly.org.parser.OrgParser
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+import java.io.StringReader
+
+/**
+ * Compares loading of generated books using [com.orgzly.android.db.NoteTreeInserter]
+ * with the previous per-heading loading.
+ */
+@Ignore("Not a test")
+class BookLoadSpeedTest : SpeedTest() {
+    @Test
+    fun notes1k() {
+        test(1_000)
+    }
+
+    @Test
+    fun notes10k() {
+        test(10_000)
+    }
+
+    @Test
+    fun notes50k() {
+        test(50_000)
+    }
+
+    private fun test(count: Int) {
+        val content = generateBook(count)
+
+        val bulk = timed {
+            loadBook(content, "bulk")
+        }.second
+
+        val perHeading = timed {
+            database.runInTransaction {
+                loadPerHeading("per-heading", content)
+            }
+        }.second
+
+        val bulkBookId = dataRepository.getBook("bulk")!!.id
+        val perHeadingBookId = dataRepository.getBook("per-heading")!!.id
+
+        Assert.assertEquals(parents(perHeadingBookId), parents(bulkBookId))
+
+        Assert.fail("$count notes: bulk ${bulk}ms, per-heading ${perHeading}ms")
+    }
+
+    private fun parents(bookId: Long): List<Pair<String, String>> {
+        return database.note().getAll().filter { it.position.bookId == bookId }.sortedBy { it.position.lft }.map { note ->
+            note.title to database.note().getAncestors(note.id).joinToString("/") { it.title }
+        }
+    }
+
+    /** Loading as it was done before the bulk insert - parent and ancestors updated per descendant. */
+    private fun loadPerHeading(bookName: String, content: String) {
+        val bookId = database.book().getOrInsert(bookName)
+
+        val lft2id = HashMap<Long, Long>()
+        val notesWithParentSet = HashSet<Long>()
+
+        OrgParser.Builder()
+                .setInput(StringReader(content))
+                .setListener(object : OrgNestedSetParserListener {
+                    override fun onNode(node: OrgNodeInSet) {
+                        val note = Note(
+                                0,
+                                title = node.head.title,
+                                content = node.head.content,
+                                position = NotePosition(bookId, node.lft, node.rgt, node.level))
+
+                        val noteId = database.note().insert(note)
+
+                        var position = 1
+                        node.head.properties.all.forEach {
+                            database.noteProperty().insert(NoteProperty(noteId, position++, it.name, it.value))
+                        }
+
+                        lft2id[node.lft] = noteId
+                        for (index in node.lft + 1 until node.rgt) {
+                            val descendantId = lft2id[index]
+                            if (descendantId != null) {
+                                if (!notesWithParentSet.contains(descendantId)) {
+                                    database.note().updateParentForNote(descendantId, noteId)
+                                    notesWithParentSet.add(descendantId)
+                                }
+
+                                database.noteAncestor().insert(NoteAncestor(descendantId, bookId, noteId))
+                            }
+                        }
+                    }
+
+                    override fun onFile(file: OrgFile) {
+                    }
+                })
+                .build()
+                .parse()
+    }
+
+    private fun generateBook(count: Int): String {
+        val levels = intArrayOf(1, 2, 3, 3, 2, 3, 4, 1, 2)
+
+        return buildString {
+            for (i in 0 until count) {
+                val level = levels[i % levels.size]
+
+                append("*".repeat(level)).append(" Note ").append(i).append('\n')
+                if (i % 3 == 0) {
+                    append(":PROPERTIES:\n:ID: note-").append(i).append("\n:END:\n")
+                }
+                append("Content of note ").append(i).append("\n\n")
+            }
+        }
+    }
+}
@@ -141,6 +141,39 @@ public class BookParsingTest extends OrgzlyTest {
                              "\n");
     }
 
+    @Test
+    public void testPropertiesOfNestedNotes() {
+        onBook("* Note 1\n" +
+               "  :PROPERTIES:\n" +
+               "  :name: value1\n" +
+               "  :END:\n" +
+               "** Note 2\n" +
+               "** Note 3\n" +
+               "   :PROPERTIES:\n" +
+               "   :name: value3\n" +
+               "   :END:\n" +
+               "* Note 4\n" +
+               "  :PROPERTIES:\n" +
+               "  :name: value4\n" +
+               "  :END:\n").onLoad()
+                .isWhenSaved("* Note 1\n" +
+                             "  :PROPERTIES:\n" +
+                             "  :name:     value1\n" +
+                             "  :END:\n" +
+                             "\n" +
+                             "** Note 2\n" +
+                             "** Note 3\n" +
+                             "   :PROPERTIES:\n" +
+                             "   :name:     value3\n" +
+                             "   :END:\n" +
+                             "\n" +
+                             "* Note 4\n" +
+                             "  :PROPERTIES:\n" +
+                             "  :name:     value4\n" +
+                             "  :END:\n" +
+                             "\n");
+    }
+
     @Test
     public void testPropertiesEmpty() {
         onBook("* Note 1\n" +
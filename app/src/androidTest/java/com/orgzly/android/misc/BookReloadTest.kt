@@ -0,0 +1,141 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.entity.Note
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class BookReloadTest : OrgzlyTest() {
+    @Test
+    fun testUnchangedNotesKeepIds() {
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            ** Note A-02
+            * Note A-03
+            SCHEDULED: <2018-01-01 Mon>
+        """.trimIndent())
+
+        val ids = listOf("Note A-01", "Note A-02", "Note A-03").map { getNote(it).id }
+
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            ** Note A-02
+            * Note A-03
+            SCHEDULED: <2018-01-02 Tue>
+        """.trimIndent())
+
+        assertEquals(ids, listOf("Note A-01", "Note A-02", "Note A-03").map { getNote(it).id })
+
+        assertEquals("<2018-01-02 Tue>", dataRepository.getNoteView(ids[2])?.scheduledRangeString)
+    }
+
+    @Test
+    fun testInsertedAndDeletedNotes() {
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            ** Note A-02
+            * Note A-03
+        """.trimIndent())
+
+        val note1 = getNote("Note A-01")
+        val note3 = getNote("Note A-03")
+
+        testUtils.setupBook("book-a", """
+            * Note A-00
+            * Note A-01
+            * Note A-03
+            ** Note A-04
+        """.trimIndent())
+
+        assertNull(dataRepository.getLastNote("Note A-02"))
+
+        assertEquals(note1.id, getNote("Note A-01").id)
+        assertEquals(note3.id, getNote("Note A-03").id)
+        assertEquals(note3.id, getNote("Note A-04").position.parentId)
+        assertEquals(listOf("Note A-03"), dataRepository.getNoteAncestors(getNote("Note A-04").id).map { it.title })
+
+        testUtils.assertBook("book-a", """
+            * Note A-00
+            * Note A-01
+            * Note A-03
+            ** Note A-04
+
+        """.trimIndent())
+    }
+
+    @Test
+    fun testMovedNoteKeepsId() {
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            ** Note A-02
+            Content
+            * Note A-03
+        """.trimIndent())
+
+        val note2 = getNote("Note A-02")
+
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            * Note A-03
+            ** Note A-02
+            Content
+        """.trimIndent())
+
+        val moved = getNote("Note A-02")
+
+        assertEquals(note2.id, moved.id)
+        assertNotEquals(note2.position.parentId, moved.position.parentId)
+        assertEquals(listOf("Note A-03"), dataRepository.getNoteAncestors(moved.id).map { it.title })
+        assertEquals(1, getNote("Note A-03").position.descendantsCount)
+
+        assertEquals(
+                listOf("Note A-01", "Note A-03", "Note A-02"),
+                dataRepository.getNotes("book-a").map { it.note.title })
+    }
+
+    @Test
+    fun testInsertedNoteIsFoldedUnderTopmostFoldedAncestor() {
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            ** Note A-02
+            *** Note A-03
+        """.trimIndent())
+
+        dataRepository.toggleNoteFoldedState(getNote("Note A-02").id)
+        dataRepository.toggleNoteFoldedState(getNote("Note A-01").id)
+
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            ** Note A-02
+            *** Note A-03
+            *** Note A-04
+        """.trimIndent())
+
+        assertEquals(getNote("Note A-01").id, getNote("Note A-04").position.foldedUnderId)
+    }
+
+    @Test
+    fun testCutNotesAreDeleted() {
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            * Note A-02
+        """.trimIndent())
+
+        val note2 = getNote("Note A-02")
+
+        database.note().update(note2.copy(isCut = System.currentTimeMillis()))
+
+        testUtils.setupBook("book-a", """
+            * Note A-01
+            * Note A-03
+        """.trimIndent())
+
+        assertNull(database.note().get(note2.id))
+    }
+
+    private fun getNote(title: String): Note {
+        return dataRepository.getLastNote(title)!!
+    }
+}
@@ -0,0 +1,53 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.query.sql.CompiledQueryCache
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CompiledQueryCacheTest : OrgzlyTest() {
+    @Test
+    fun testSameQueryIsReused() {
+        val cache = CompiledQueryCache(context)
+
+        assertSame(cache.get("it.todo s.today"), cache.get("it.todo s.today"))
+        assertNotSame(cache.get("it.todo s.today"), cache.get("it.done"))
+    }
+
+    @Test
+    fun testRebuiltAfterStatesChange() {
+        val cache = CompiledQueryCache(context)
+
+        AppPreferences.states(context, "TODO | DONE")
+        assertEquals(listOf("TODO"), cache.get("it.todo").sqlQuery.selectionArgs)
+
+        AppPreferences.states(context, "TODO NEXT | DONE")
+        assertEquals(listOf("TODO", "NEXT"), cache.get("it.todo").sqlQuery.selectionArgs)
+    }
+
+    @Test
+    fun testRebuiltAfterDefaultPriorityChange() {
+        val cache = CompiledQueryCache(context)
+
+        AppPreferences.defaultPriority(context, "B")
+        assertTrue(cache.get("o.p").sqlQuery.orderBy.contains("'B'"))
+
+        AppPreferences.defaultPriority(context, "C")
+        assertTrue(cache.get("o.p").sqlQuery.orderBy.contains("'C'"))
+    }
+
+    @Test
+    fun testSearchingByCachedQuery() {
+        testUtils.setupBook("book-a", "* TODO Note A-01\n* DONE Note A-02\n")
+
+        repeat(2) {
+            val notes = dataRepository.selectNotesFromQuery("it.todo")
+
+            assertEquals(listOf("Note A-01"), notes.map { it.note.title })
+        }
+    }
+}
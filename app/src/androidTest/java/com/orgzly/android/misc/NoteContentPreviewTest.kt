@@ -0,0 +1,94 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.dao.NoteViewDao
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.query.user.InternalQueryParser
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class NoteContentPreviewTest : OrgzlyTest() {
+    private val longContent = (1..200).joinToString("\n") { "Line $it of content" } + "\nLast line"
+
+    @Test
+    fun testListsLoadPreview() {
+        testUtils.setupBook("book-a", "* Note A-01\n$longContent\n* Note A-02\nShort content\n")
+
+        val notes = dataRepository.selectNotesPageFromQuery("b.book-a", null, 10).notes
+
+        notes[0].let { noteView ->
+            assertTrue(noteView.isContentPreview)
+            assertEquals(longContent.take(NoteViewDao.CONTENT_PREVIEW_LENGTH), noteView.note.content)
+            assertEquals(201, noteView.note.contentLineCount)
+        }
+
+        notes[1].let { noteView ->
+            assertFalse(noteView.isContentPreview)
+            assertEquals("Short content", noteView.note.content)
+        }
+    }
+
+    @Test
+    fun testListsDisplayingContentLoadFullContent() {
+        testUtils.setupBook("book-a", "* Note A-01\n$longContent\n")
+
+        AppPreferences.isNotesContentDisplayedInSearch(context, true)
+
+        dataRepository.selectNotesPageFromQuery("b.book-a", null, 10).notes.first().let { noteView ->
+            assertFalse(noteView.isContentPreview)
+            assertEquals(longContent, noteView.note.content)
+        }
+
+        dataRepository.selectNotesFromQuery("b.book-a", forList = true).first().let { noteView ->
+            assertFalse(noteView.isContentPreview)
+            assertEquals(longContent, noteView.note.content)
+        }
+    }
+
+    @Test
+    fun testFullContent() {
+        testUtils.setupBook("book-a", "* Note A-01\n$longContent\n")
+
+        val note = dataRepository.getLastNote("Note A-01")!!
+
+        assertEquals(longContent, dataRepository.getNoteContent(note.id))
+
+        dataRepository.getNoteView(note.id)!!.let { noteView ->
+            assertFalse(noteView.isContentPreview)
+            assertEquals(longContent, noteView.note.content)
+        }
+
+        dataRepository.selectNotesFromQuery(InternalQueryParser().parse("b.book-a")).first().let { noteView ->
+            assertFalse(noteView.isContentPreview)
+            assertEquals(longContent, noteView.note.content)
+        }
+    }
+
+    @Test
+    fun testReplacingPreview() {
+        testUtils.setupBook("book-a", "* Note A-01\n- [ ] Item\n$longContent\n")
+
+        val noteView = dataRepository.selectNotesPageFromQuery("b.book-a", null, 10).notes.first()
+        val preview = noteView.note.content!!
+
+        val content = dataRepository.getNoteContentWithPreviewReplaced(
+                noteView.note.id, preview, preview.replace("- [ ]", "- [X]"))
+
+        assertEquals("- [X] Item\n$longContent", content)
+
+        assertNull(dataRepository.getNoteContentWithPreviewReplaced(noteView.note.id, "Other", "Content"))
+    }
+
+    @Test
+    fun testSearchingContentAfterPreview() {
+        testUtils.setupBook("book-a", "* Note A-01\n$longContent\n* Note A-02\n")
+
+        val notes = dataRepository.selectNotesPageFromQuery("\"Last line\"", null, 10).notes
+
+        assertEquals(listOf("Note A-01"), notes.map { it.note.title })
+        assertTrue(notes.first().isContentPreview)
+    }
+}
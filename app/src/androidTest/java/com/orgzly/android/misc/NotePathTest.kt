@@ -0,0 +1,88 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import com.orgzly.android.ui.note.NoteBuilder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class NotePathTest : OrgzlyTest() {
+    @Test
+    fun testPathsAfterImport() {
+        testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n*** Note A-03\n* Note A-04\n")
+
+        assertEquals("Note A-01", pathOf("Note A-01"))
+        assertEquals("Note A-01/Note A-02/Note A-03", pathOf("Note A-03"))
+        assertEquals("Note A-04", pathOf("Note A-04"))
+    }
+
+    @Test
+    fun testPathsAfterTitleUpdate() {
+        testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n*** Note A-03\n")
+
+        dataRepository.getLastNoteView("Note A-02")!!.let { noteView ->
+            dataRepository.updateNote(noteView.note.id, NoteBuilder.newPayload(noteView, emptyList()).copy(title = "Renamed"))
+        }
+
+        assertEquals("Note A-01/Renamed", pathOf("Renamed"))
+        assertEquals("Note A-01/Renamed/Note A-03", pathOf("Note A-03"))
+    }
+
+    @Test
+    fun testPathsAfterMovingAndPromoting() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n*** Note A-03\n* Note A-04\n")
+
+        dataRepository.refileNotes(
+                setOf(dataRepository.getLastNote("Note A-02")!!.id),
+                NotePlace(book.book.id, dataRepository.getLastNote("Note A-04")!!.id, Place.UNDER))
+
+        assertEquals("Note A-04/Note A-02/Note A-03", pathOf("Note A-03"))
+
+        dataRepository.promoteNotes(setOf(dataRepository.getLastNote("Note A-02")!!.id))
+
+        assertEquals("Note A-02/Note A-03", pathOf("Note A-03"))
+    }
+
+    @Test
+    fun testPathsAfterReload() {
+        testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n*** Note A-03\n* Note A-04\n")
+        testUtils.setupBook("book-a", "* Note A-01\n* Note A-04\n** Note A-02\n*** Note A-03\n**** Note A-05\n")
+
+        assertEquals("Note A-04/Note A-02/Note A-03", pathOf("Note A-03"))
+        assertEquals("Note A-04/Note A-02/Note A-03/Note A-05", pathOf("Note A-05"))
+    }
+
+    @Test
+    fun testNoteAtPath() {
+        testUtils.setupBook("book-a", "* Note A-01\n** Note\n* Note A-02\n** Note\n*** Note A-03\n")
+
+        val note = dataRepository.getNoteAtPath("book-a/Note A-02/Note")!!.note
+
+        assertEquals(listOf("Note A-02", "Note"), dataRepository.getNoteAndAncestors(note.id).map { it.title })
+
+        assertEquals("Note A-03", dataRepository.getNoteAtPath("book-a/Note A-02/Note/Note A-03")?.note?.title)
+        assertNull(dataRepository.getNoteAtPath("book-a/Note A-03"))
+        assertNull(dataRepository.getNoteAtPath("book-b/Note A-01"))
+        assertNull(dataRepository.getNoteAtPath("book-a/"))
+    }
+
+    @Test
+    fun testCachedNoteAtPathAfterMoving() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n* Note A-03\n")
+
+        assertEquals("Note A-02", dataRepository.getNoteAtPath("book-a/Note A-01/Note A-02")?.note?.title)
+
+        dataRepository.refileNotes(
+                setOf(dataRepository.getLastNote("Note A-02")!!.id),
+                NotePlace(book.book.id, dataRepository.getLastNote("Note A-03")!!.id, Place.UNDER))
+
+        assertNull(dataRepository.getNoteAtPath("book-a/Note A-01/Note A-02"))
+        assertEquals("Note A-02", dataRepository.getNoteAtPath("book-a/Note A-03/Note A-02")?.note?.title)
+    }
+
+    private fun pathOf(title: String): String? {
+        return database.notePath().get(dataRepository.getLastNote(title)!!.id)
+    }
+}
@@ -0,0 +1,107 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import com.orgzly.android.ui.note.NotePayload
+import com.orgzly.android.usecase.NoteCopy
+import com.orgzly.android.usecase.NoteCreate
+import com.orgzly.android.usecase.NotePaste
+import com.orgzly.android.usecase.UseCaseRunner
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class NotePositionAllocatorTest : OrgzlyTest() {
+    @Test
+    fun testNewNoteDoesNotMoveOtherNotes() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n* Note A-03\n")
+
+        val positions = positions(book.book.id)
+
+        UseCaseRunner.run(NoteCreate(
+                NotePayload("Note A-04"),
+                NotePlace(book.book.id, dataRepository.getLastNote("Note A-02")!!.id, Place.BELOW)))
+
+        assertEquals(positions, positions(book.book.id).filterKeys { it in positions.keys })
+
+        testUtils.assertBook("book-a", "* Note A-01\n** Note A-02\n** Note A-04\n* Note A-03\n")
+    }
+
+    @Test
+    fun testNewNotesAtTheEndOfBookOnlyMoveRoot() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        val root = dataRepository.getRootNode(book.book.id)!!
+
+        val positions = positions(book.book.id).filterKeys { it != root.id }
+
+        for (i in 3..50) {
+            UseCaseRunner.run(NoteCreate(NotePayload("Note A-%02d".format(i)), NotePlace(book.book.id)))
+        }
+
+        assertEquals(positions, positions(book.book.id).filterKeys { it in positions.keys })
+
+        testUtils.assertBook("book-a", (1..50).joinToString("") { "* Note A-%02d\n".format(it) })
+    }
+
+    @Test
+    fun testRenumberingWhenSpaceRunsOut() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n* Note A-03\n")
+
+        /* Keep inserting at the same place, until there is no space left. */
+        for (i in 1..40) {
+            UseCaseRunner.run(NoteCreate(
+                    NotePayload("Note B-%02d".format(i)),
+                    NotePlace(book.book.id, dataRepository.getLastNote("Note A-02")!!.id, Place.ABOVE)))
+        }
+
+        testUtils.assertBook(
+                "book-a",
+                "* Note A-01\n" + (1..40).joinToString("") { "** Note B-%02d\n".format(it) } + "** Note A-02\n* Note A-03\n")
+
+        assertValidNestedSet(book.book.id)
+    }
+
+    @Test
+    fun testPastingIntoSmallSpace() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n*** Note A-03\n* Note A-04\n")
+
+        val a01 = dataRepository.getLastNote("Note A-01")!!
+
+        /* Paste the subtree under itself, doubling its size every time. */
+        for (i in 1..10) {
+            UseCaseRunner.run(NoteCopy(book.book.id, setOf(a01.id)))
+            UseCaseRunner.run(NotePaste(book.book.id, a01.id, Place.UNDER_AS_FIRST))
+        }
+
+        assertEquals(3 * 1024 + 1, dataRepository.getNotes("book-a").size)
+
+        assertValidNestedSet(book.book.id)
+    }
+
+    private fun positions(bookId: Long): Map<Long, Pair<Long, Long>> {
+        return database.note().getAll()
+                .filter { it.position.bookId == bookId }
+                .associate { it.id to Pair(it.position.lft, it.position.rgt) }
+    }
+
+    /** All lft and rgt values are unique and every note is inside its parent. */
+    private fun assertValidNestedSet(bookId: Long) {
+        val notes = database.note().getAll().filter { it.position.bookId == bookId }
+
+        val values = notes.flatMap { listOf(it.position.lft, it.position.rgt) }
+
+        assertEquals(values.size, values.toSet().size)
+
+        val root = dataRepository.getRootNode(bookId)!!
+
+        notes.forEach { note ->
+            val parent = if (note.position.parentId == root.id) root else notes.first { it.id == note.position.parentId }
+
+            assertTrue(note.position.lft < note.position.rgt)
+            assertTrue(parent.position.lft < note.position.lft)
+            assertTrue(note.position.rgt < parent.position.rgt)
+        }
+    }
+}
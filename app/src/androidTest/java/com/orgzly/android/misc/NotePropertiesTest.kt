@@ -0,0 +1,40 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.query.user.DottedQueryParser
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class NotePropertiesTest : OrgzlyTest() {
+    @Test
+    fun testFindingNoteIgnoresCase() {
+        testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n:PROPERTIES:\n:CUSTOM_ID: Ünïque-ID\n:END:\n")
+
+        val found = dataRepository.findNoteHavingProperty("custom_id", "üNÏQUE-id")
+
+        assertEquals(dataRepository.getLastNote("Note A-02")!!.id, found?.noteId)
+        assertNull(dataRepository.findNoteHavingProperty("custom_id", "other"))
+    }
+
+    @Test
+    fun testFindingNoteAfterPropertyUpdate() {
+        testUtils.setupBook("book-a", "* Note A-01\n:PROPERTIES:\n:ID: old\n:END:\n")
+
+        val note = dataRepository.getLastNote("Note A-01")!!
+
+        database.noteProperty().upsert(note.id, "ID", "New")
+
+        assertNull(dataRepository.findNoteHavingProperty("id", "old"))
+        assertEquals(note.id, dataRepository.findNoteHavingProperty("id", "new")?.noteId)
+    }
+
+    @Test
+    fun testSearchingByProperty() {
+        testUtils.setupBook("book-a", "* Note A-01\n:PROPERTIES:\n:LOCATION: Home\n:END:\n* Note A-02\n:PROPERTIES:\n:LOCATION: Office\n:END:\n")
+
+        val notes = dataRepository.selectNotesFromQuery(DottedQueryParser().parse("pr.location.home"))
+
+        assertEquals(listOf("Note A-01"), notes.map { it.note.title })
+    }
+}
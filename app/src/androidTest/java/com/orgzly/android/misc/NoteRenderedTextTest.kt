@@ -0,0 +1,55 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NoteRenderedTextTest : OrgzlyTest() {
+    @Test
+    fun testRenderedTextIsCachedOnExport() {
+        testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        assertEquals(0, countRenderedTexts())
+
+        testUtils.assertBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        assertEquals(2, countRenderedTexts())
+
+        testUtils.assertBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        assertEquals(2, countRenderedTexts())
+    }
+
+    @Test
+    fun testModifiedNoteIsRenderedAgain() {
+        testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        testUtils.assertBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        val note = dataRepository.getLastNote("Note A-02")!!
+
+        dataRepository.demoteNotes(setOf(note.id))
+
+        assertEquals(1, countRenderedTexts())
+
+        testUtils.assertBook("book-a", "* Note A-01\n** Note A-02\n")
+    }
+
+    @Test
+    fun testRenderedTextIsDeletedWithBook() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        testUtils.assertBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        dataRepository.deleteBook(book, false)
+
+        assertEquals(0, countRenderedTexts())
+    }
+
+    private fun countRenderedTexts(): Int {
+        return database.query("SELECT COUNT(*) FROM note_rendered_texts", null).use {
+            it.moveToFirst()
+            it.getInt(0)
+        }
+    }
+}
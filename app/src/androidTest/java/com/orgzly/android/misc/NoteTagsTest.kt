@@ -0,0 +1,73 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.entity.NoteTag
+import com.orgzly.android.query.user.DottedQueryParser
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NoteTagsTest : OrgzlyTest() {
+    @Test
+    fun testTagsAfterImport() {
+        testUtils.setupBook("book-a", "* Note A-01 :a:b:\n** Note A-02 :b:c:\n*** Note A-03\n")
+
+        assertEquals("a b", tagsOf("Note A-01"))
+        assertEquals("b c | a b", tagsOf("Note A-02"))
+        assertEquals(" | a b c", tagsOf("Note A-03"))
+    }
+
+    @Test
+    fun testInheritedTagsAfterRefile() {
+        testUtils.setupBook("book-a", "* Note A-01 :a:\n** Note A-02\n* Note A-03 :b:\n")
+
+        val note = dataRepository.getLastNote("Note A-02")!!
+        val target = dataRepository.getLastNote("Note A-03")!!
+
+        dataRepository.refileNotes(setOf(note.id), NotePlace(target.position.bookId, target.id, Place.UNDER))
+
+        assertEquals(" | b", tagsOf("Note A-02"))
+    }
+
+    @Test
+    fun testInheritedTagKeptWhileInheritedFromAnotherAncestor() {
+        testUtils.setupBook("book-a", "* Note A-01 :a:\n** Note A-02 :a:\n*** Note A-03\n")
+
+        val note = dataRepository.getLastNote("Note A-02")!!
+
+        database.noteTag().replaceOwn(note.id, null)
+
+        assertEquals(" | a", tagsOf("Note A-02"))
+        assertEquals(" | a", tagsOf("Note A-03"))
+    }
+
+    @Test
+    fun testTagsAreNotMatchedAsSubstrings() {
+        testUtils.setupBook("book-a", "* Note A-01 :homework:\n* Note A-02 :work:\n")
+
+        assertEquals(listOf("Note A-02"), dataRepository.selectNotesFromQuery(DottedQueryParser().parse("t.work")).map { it.note.title })
+    }
+
+    @Test
+    fun testAllTags() {
+        testUtils.setupBook("book-a", "* Note A-01 :a:b:\n** Note A-02 :b:c:\n")
+        testUtils.setupBook("book-b", "* Note B-01 :d:\n")
+
+        assertEquals(listOf("a", "b", "c", "d"), dataRepository.selectAllTags().sorted())
+    }
+
+    /** Own and inherited tags of the note, formatted as "own | inherited". */
+    private fun tagsOf(title: String): String {
+        val note = dataRepository.getLastNote(title)!!
+
+        val tags = database.noteTag().get(note.id)
+
+        fun List<NoteTag>.joined() = joinToString(" ") { it.tag }
+
+        val own = tags.filter { !it.isInherited }.joined()
+        val inherited = tags.filter { it.isInherited }.joined()
+
+        return if (inherited.isEmpty()) own else "$own | $inherited"
+    }
+}
@@ -0,0 +1,129 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import com.orgzly.android.usecase.NoteCopy
+import com.orgzly.android.usecase.NoteDelete
+import com.orgzly.android.usecase.NoteDemote
+import com.orgzly.android.usecase.NotePaste
+import com.orgzly.android.usecase.NoteRefile
+import com.orgzly.android.usecase.UseCaseRunner
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NoteTreeMaintainerTest : OrgzlyTest() {
+    @Test
+    fun testMovingSubtrees() {
+        val book = testUtils.setupBook("book-a", BOOK_A)
+
+        UseCaseRunner.run(NoteDemote(setOf(noteId("Note A-03"))))
+
+        assertTreeIsConsistent(book.book.id)
+
+        UseCaseRunner.run(NoteRefile(
+                setOf(noteId("Note A-02"), noteId("Note A-05")),
+                NotePlace(book.book.id, noteId("Note A-06"), Place.UNDER)))
+
+        assertTreeIsConsistent(book.book.id)
+
+        testUtils.assertBook("book-a", """
+            * Note A-01
+            * Note A-06
+            ** Note A-02
+            *** Note A-03
+            **** Note A-04
+            ** Note A-05
+
+        """.trimIndent())
+    }
+
+    @Test
+    fun testRefilingToAnotherBook() {
+        val bookA = testUtils.setupBook("book-a", BOOK_A)
+        val bookB = testUtils.setupBook("book-b", "* Note B-01\n** Note B-02\n")
+
+        UseCaseRunner.run(NoteRefile(
+                setOf(noteId("Note A-02")),
+                NotePlace(bookB.book.id, noteId("Note B-02"), Place.UNDER)))
+
+        assertTreeIsConsistent(bookA.book.id)
+        assertTreeIsConsistent(bookB.book.id)
+    }
+
+    @Test
+    fun testPastingAndDeleting() {
+        val book = testUtils.setupBook("book-a", BOOK_A)
+
+        UseCaseRunner.run(NoteCopy(book.book.id, setOf(noteId("Note A-02"))))
+        UseCaseRunner.run(NotePaste(book.book.id, noteId("Note A-04"), Place.UNDER))
+
+        assertTreeIsConsistent(book.book.id)
+
+        UseCaseRunner.run(NoteDelete(book.book.id, setOf(dataRepository.getLastNote("Note A-03")!!.id)))
+
+        assertTreeIsConsistent(book.book.id)
+    }
+
+    @Test
+    fun testRebuildingBook() {
+        val book = testUtils.setupBook("book-a", "* Note A-01 :tag1:\n** Note A-02\n*** Note A-03\n")
+
+        database.openHelper.writableDatabase.execSQL("DELETE FROM note_ancestors")
+        database.openHelper.writableDatabase.execSQL("UPDATE notes SET descendants_count = 0")
+
+        dataRepository.rebuildNoteTree(book.book.id)
+
+        assertTreeIsConsistent(book.book.id)
+
+        assertEquals(listOf("tag1"), database.noteTag().get(noteId("Note A-03")).filter { it.isInherited }.map { it.tag })
+    }
+
+    private fun noteId(title: String): Long {
+        return dataRepository.getLastNote(title)!!.id
+    }
+
+    /** Compares stored ancestors and descendants count with the ones determined by lft and rgt. */
+    private fun assertTreeIsConsistent(bookId: Long) {
+        assertEquals(
+                strings("""
+                    SELECT n.id || ' ' || a.id FROM notes n
+                    JOIN notes a ON (n.book_id = a.book_id AND a.lft < n.lft AND n.rgt < a.rgt)
+                    WHERE n.book_id = ? AND n.is_cut = 0 AND a.is_cut = 0 AND a.level > 0
+                """, bookId),
+                strings("""
+                    SELECT na.note_id || ' ' || na.ancestor_note_id FROM note_ancestors na
+                    JOIN notes a ON (a.id = na.ancestor_note_id)
+                    WHERE na.book_id = ? AND a.level > 0
+                """, bookId))
+
+        assertEquals(
+                strings("""
+                    SELECT n.id || ' ' || (SELECT count(*) FROM notes d WHERE d.book_id = n.book_id AND d.is_cut = 0 AND d.level > 0 AND n.lft < d.lft AND d.rgt < n.rgt)
+                    FROM notes n
+                    WHERE n.book_id = ? AND n.is_cut = 0 AND n.level > 0
+                """, bookId),
+                strings("""
+                    SELECT id || ' ' || descendants_count FROM notes
+                    WHERE book_id = ? AND is_cut = 0 AND level > 0
+                """, bookId))
+    }
+
+    private fun strings(sql: String, bookId: Long): List<String> {
+        return database.query(sql, arrayOf(bookId)).use { cursor ->
+            generateSequence { if (cursor.moveToNext()) cursor.getString(0) else null }.toList().sorted()
+        }
+    }
+
+    companion object {
+        private val BOOK_A = """
+            * Note A-01
+            * Note A-02
+            * Note A-03
+            ** Note A-04
+            * Note A-05
+            * Note A-06
+
+        """.trimIndent()
+    }
+}
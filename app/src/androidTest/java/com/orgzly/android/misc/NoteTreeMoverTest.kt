@@ -0,0 +1,130 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.NoteTreeMover
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NoteTreeMoverTest : OrgzlyTest() {
+    @Test
+    fun testMovingToMultipleTargets() {
+        val inbox = testUtils.setupBook("inbox", "* Note I-01\n* Note I-02\n** Note I-03\n* Note I-04\n* Note I-05\n")
+        val bookA = testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n")
+        val bookB = testUtils.setupBook("book-b", "* Note B-01\n")
+
+        val count = dataRepository.moveNotes(listOf(
+                NoteTreeMover.Move(setOf(noteId("Note I-02"), noteId("Note I-05")), NotePlace(bookA.book.id, noteId("Note A-01"), Place.UNDER)),
+                NoteTreeMover.Move(setOf(noteId("Note I-04")), NotePlace(bookB.book.id)),
+                NoteTreeMover.Move(setOf(noteId("Note I-01")), NotePlace(bookA.book.id, noteId("Note A-02"), Place.ABOVE))))
+
+        assertEquals(5, count)
+
+        assertEquals(0, database.note().getCount(inbox.book.id))
+        testUtils.assertBook("book-a", "* Note A-01\n** Note I-02\n*** Note I-03\n** Note I-05\n* Note I-01\n* Note A-02\n")
+        testUtils.assertBook("book-b", "* Note B-01\n* Note I-04\n")
+
+        assertEquals(emptyList<Long>(), database.noteView().getInconsistentNoteIds())
+
+        listOf(bookA, bookB).forEach {
+            assertDescendantsCount(it.book.id)
+        }
+
+        assertEquals(3, dataRepository.getLastNote("Note A-01")!!.position.descendantsCount)
+    }
+
+    @Test
+    fun testMovingUnderPreviouslyMovedNote() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n* Note A-03\n")
+
+        dataRepository.moveNotes(listOf(
+                NoteTreeMover.Move(setOf(noteId("Note A-01")), NotePlace(book.book.id, noteId("Note A-03"), Place.BELOW)),
+                NoteTreeMover.Move(setOf(noteId("Note A-02")), NotePlace(book.book.id, noteId("Note A-01"), Place.UNDER))))
+
+        testUtils.assertBook("book-a", "* Note A-03\n* Note A-01\n** Note A-02\n")
+    }
+
+    @Test
+    fun testMovingKeepsLevelGaps() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n*** Note A-02\n**** Note A-03\n* Note A-04\n* Note A-05\n")
+
+        val positions = listOf("Note A-01", "Note A-05").associateWith { dataRepository.getLastNote(it)!!.position }
+
+        dataRepository.moveNotes(listOf(
+                NoteTreeMover.Move(setOf(noteId("Note A-02")), NotePlace(book.book.id, noteId("Note A-04"), Place.UNDER)),
+                NoteTreeMover.Move(setOf(noteId("Note A-05")), NotePlace(book.book.id, noteId("Note A-01"), Place.UNDER))))
+
+        testUtils.assertBook("book-a", "* Note A-01\n** Note A-05\n* Note A-04\n** Note A-02\n*** Note A-03\n")
+
+        /* Notes which were not moved keep their positions. */
+        assertEquals(positions.getValue("Note A-01").lft, dataRepository.getLastNote("Note A-01")!!.position.lft)
+        assertEquals(positions.getValue("Note A-01").rgt, dataRepository.getLastNote("Note A-01")!!.position.rgt)
+
+        assertEquals(emptyList<Long>(), database.noteView().getInconsistentNoteIds())
+        assertDescendantsCount(book.book.id)
+    }
+
+    @Test
+    fun testMovingUnderNoteWithLevelGap() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n*** Note A-02\n* Note A-03\n")
+
+        dataRepository.moveNotes(listOf(
+                NoteTreeMover.Move(setOf(noteId("Note A-03")), NotePlace(book.book.id, noteId("Note A-02"), Place.BELOW))))
+
+        testUtils.assertBook("book-a", "* Note A-01\n*** Note A-02\n*** Note A-03\n")
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testMovingUnderItself() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n** Note A-02\n")
+
+        dataRepository.moveNotes(listOf(
+                NoteTreeMover.Move(setOf(noteId("Note A-01")), NotePlace(book.book.id, noteId("Note A-02"), Place.UNDER))))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun testMovingToMissingNote() {
+        val book = testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        dataRepository.moveNotes(listOf(
+                NoteTreeMover.Move(setOf(noteId("Note A-01")), NotePlace(book.book.id, 1000, Place.BELOW))))
+    }
+
+    @Test
+    fun testMovingKeepsPositionsInSourceBook() {
+        val inbox = testUtils.setupBook("inbox", "* Note I-01\n* Note I-02\n** Note I-03\n* Note I-04\n")
+        val book = testUtils.setupBook("book-a", "* Note A-01\n")
+
+        val positions = listOf("Note I-01", "Note I-04").associateWith { dataRepository.getLastNote(it)!!.position }
+
+        dataRepository.moveNotes(setOf(noteId("Note I-02"))) {
+            NotePlace(book.book.id, noteId("Note A-01"), Place.UNDER)
+        }
+
+        testUtils.assertBook("inbox", "* Note I-01\n* Note I-04\n")
+        testUtils.assertBook("book-a", "* Note A-01\n** Note I-02\n*** Note I-03\n")
+
+        positions.forEach { (title, position) ->
+            assertEquals(position.lft, dataRepository.getLastNote(title)!!.position.lft)
+            assertEquals(position.rgt, dataRepository.getLastNote(title)!!.position.rgt)
+        }
+
+        assertEquals(emptyList<Long>(), database.noteView().getInconsistentNoteIds())
+        assertDescendantsCount(inbox.book.id)
+        assertDescendantsCount(book.book.id)
+    }
+
+    private fun noteId(title: String): Long {
+        return dataRepository.getLastNote(title)!!.id
+    }
+
+    private fun assertDescendantsCount(bookId: Long) {
+        database.note().getAll().filter { it.position.bookId == bookId }.forEach { note ->
+            assertEquals(
+                    note.title,
+                    dataRepository.getNotesAndSubtrees(setOf(note.id)).size - 1,
+                    note.position.descendantsCount)
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.SpeedTest
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compares rebuilding ancestors and descendants count of all notes in a book
+ * with the queries used before (self-joins on lft and rgt), on a generated book.
+ */
+@Ignore("Not a test")
+class NoteTreeSpeedTest : SpeedTest() {
+    @Test
+    fun notes20k() {
+        val bookId = loadBook(generateBook(20_000)).book.id
+
+        val db = database.openHelper.writableDatabase
+
+        val before = timed {
+            db.beginTransaction()
+            try {
+                db.execSQL("DELETE FROM note_ancestors WHERE book_id = ?", arrayOf(bookId))
+                db.execSQL(INSERT_ANCESTORS, arrayOf(bookId))
+                db.execSQL(UPDATE_DESCENDANTS_COUNT, arrayOf(bookId))
+                db.setTransactionSuccessful()
+            } finally {
+                db.endTransaction()
+            }
+        }.second
+
+        val expected = snapshot(bookId)
+
+        val after = timed {
+            dataRepository.rebuildNoteTree(bookId)
+        }.second
+
+        Assert.assertEquals(expected, snapshot(bookId))
+
+        Assert.fail("Self-joins ${before}ms, rebuild ${after}ms")
+    }
+
+    private fun snapshot(bookId: Long): List<String> {
+        val sql = """
+            SELECT note_id || ' ' || ancestor_note_id FROM note_ancestors WHERE book_id = ?
+            UNION ALL
+            SELECT id || ' ' || descendants_count FROM notes WHERE book_id = ? AND level > 0
+        """
+
+        return database.query(sql, arrayOf(bookId, bookId)).use { cursor ->
+            generateSequence { if (cursor.moveToNext()) cursor.getString(0) else null }.toList().sorted()
+        }
+    }
+
+    private fun generateBook(count: Int): String {
+        return buildString {
+            for (i in 0 until count) {
+                append("*".repeat(1 + (i % 50) / 10)).append(" Note ").append(i).append('\n')
+            }
+        }
+    }
+
+    companion object {
+        private const val INSERT_ANCESTORS = """
+            INSERT INTO note_ancestors (book_id, note_id, ancestor_note_id)
+            SELECT n.book_id, n.id, a.id
+            FROM notes n
+            JOIN notes a ON (n.book_id = a.book_id AND a.lft < n.lft AND n.rgt < a.rgt)
+            WHERE n.book_id = ?
+        """
+
+        private const val UPDATE_DESCENDANTS_COUNT = """
+            UPDATE notes
+            SET descendants_count = (
+                SELECT count(*)
+                FROM notes d
+                WHERE (notes.book_id = d.book_id AND d.is_cut = 0 AND d.level > 0 AND notes.lft < d.lft AND d.rgt < notes.rgt)
+            )
+            WHERE book_id = ? AND level > 0
+        """
+    }
+}
@@ -0,0 +1,103 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import com.orgzly.org.datetime.OrgDateTime
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NoteViewConsistencyTest : OrgzlyTest() {
+    @Test
+    fun testAfterImport() {
+        setupBooks()
+
+        assertConsistent()
+
+        val note = dataRepository.getLastNoteView("Note A-02")!!
+        assertEquals("book-a", note.bookName)
+        assertEquals("tag1", note.inheritedTags)
+        assertEquals("<2018-01-02 Tue>", note.deadlineRangeString)
+    }
+
+    @Test
+    fun testAfterSettingScheduledTime() {
+        setupBooks()
+
+        val note = dataRepository.getLastNote("Note A-02")!!
+
+        dataRepository.setNotesScheduledTime(setOf(note.id), OrgDateTime.parse("<2018-01-03 Wed>"))
+
+        assertConsistent()
+        assertEquals("<2018-01-03 Wed>", dataRepository.getLastNoteView("Note A-02")?.scheduledRangeString)
+    }
+
+    @Test
+    fun testAfterRefilingToAnotherBook() {
+        setupBooks()
+
+        val note = dataRepository.getLastNote("Note A-02")!!
+        val target = dataRepository.getLastNote("Note B-01")!!
+
+        dataRepository.refileNotes(setOf(note.id), NotePlace(target.position.bookId, target.id, Place.UNDER))
+
+        assertConsistent()
+
+        val noteView = dataRepository.getLastNoteView("Note A-03")!!
+        assertEquals("book-b", noteView.bookName)
+        assertEquals(listOf("tag2", "tag3"), noteView.getInheritedTagsList().sorted())
+    }
+
+    @Test
+    fun testAfterRenamingBook() {
+        val book = setupBooks()
+
+        dataRepository.renameBook(book, "book-c")
+
+        assertConsistent()
+        assertEquals("book-c", dataRepository.getLastNoteView("Note A-03")?.bookName)
+    }
+
+    @Test
+    fun testAfterDeletingNotes() {
+        setupBooks()
+
+        val note = dataRepository.getLastNote("Note A-02")!!
+
+        dataRepository.deleteNotes(note.position.bookId, setOf(note.id))
+
+        assertConsistent()
+        assertEquals(null, dataRepository.getLastNoteView("Note A-03"))
+    }
+
+    @Test
+    fun testAfterReloadingBook() {
+        setupBooks()
+
+        testUtils.setupBook("book-a", """
+            * Note A-01 :tag1:
+            SCHEDULED: <2018-01-01 Mon>
+            * Note A-04 :tag4:
+            ** Note A-02 :tag2:
+            DEADLINE: <2018-01-02 Tue>
+            *** Note A-03
+            """.trimIndent())
+
+        assertConsistent()
+        assertEquals(listOf("tag2", "tag4"), dataRepository.getLastNoteView("Note A-03")!!.getInheritedTagsList().sorted())
+    }
+
+    private fun setupBooks() = testUtils.setupBook("book-a", """
+            * Note A-01 :tag1:
+            SCHEDULED: <2018-01-01 Mon>
+            ** Note A-02 :tag2:
+            DEADLINE: <2018-01-02 Tue>
+            *** Note A-03
+            """.trimIndent()).also {
+        testUtils.setupBook("book-b", "* Note B-01 :tag3:\n")
+    }
+
+    private fun assertConsistent() {
+        assertEquals(emptyList<Long>(), database.noteView().getInconsistentNoteIds())
+    }
+}
@@ -0,0 +1,77 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.query.user.DottedQueryParser
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NotesFullTextIndexTest : OrgzlyTest() {
+    @Test
+    fun testSearchTitleContentAndTags() {
+        testUtils.setupBook("book-a", "* Note A-01 :work:\n* Note A-02\nMeeting notes\n* Meeting A-03\n")
+
+        assertEquals(listOf("Note A-02", "Meeting A-03"), search("meeting"))
+        assertEquals(listOf("Note A-01"), search("work"))
+        assertEquals(listOf("Note A-01", "Note A-02", "Meeting A-03"), search("a-0"))
+    }
+
+    @Test
+    fun testSearchMatchesBeginningOfWords() {
+        testUtils.setupBook("book-a", "* Homework\n* Work\n* Workshop\n* Note\n")
+
+        assertEquals(listOf("Work", "Workshop"), search("work"))
+        assertEquals(emptyList<String>(), search("mewo"))
+    }
+
+    @Test
+    fun testSearchCjk() {
+        testUtils.setupBook("book-a", "* 東京都の天気\n* 京都の天気\n* Note\n東京タワー\n")
+
+        assertEquals(listOf("東京都の天気", "Note"), search("東京"))
+        assertEquals(listOf("東京都の天気", "京都の天気"), search("京都"))
+    }
+
+    @Test
+    fun testSearchSubstringOfMatchedWords() {
+        testUtils.setupBook("book-a", "* Note A-01\nMeeting\nnotes\n* Note A-02\nMeeting notes\n")
+
+        assertEquals(listOf("Note A-02"), search("\"meeting notes\""))
+    }
+
+    @Test
+    fun testSearchWithoutWords() {
+        testUtils.setupBook("book-a", "* Note A-01\nKey :: Value\n* Note A-02\n")
+
+        assertEquals(listOf("Note A-01"), search("::"))
+    }
+
+    @Test
+    fun testSearchAfterUpdate() {
+        testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        val note = dataRepository.getLastNote("Note A-01")!!
+
+        dataRepository.updateNoteContent(note.position.bookId, note.id, "Updated content")
+
+        assertEquals(listOf("Note A-01"), search("updated"))
+
+        dataRepository.updateNoteContent(note.position.bookId, note.id, null)
+
+        assertEquals(emptyList<String>(), search("updated"))
+    }
+
+    @Test
+    fun testSearchAfterDelete() {
+        testUtils.setupBook("book-a", "* Note A-01\n* Note A-02\n")
+
+        val note = dataRepository.getLastNote("Note A-01")!!
+
+        dataRepository.deleteNotes(note.position.bookId, setOf(note.id))
+
+        assertEquals(listOf("Note A-02"), search("note"))
+    }
+
+    private fun search(text: String): List<String> {
+        return dataRepository.selectNotesFromQuery(DottedQueryParser().parse(text)).map { it.note.title }
+    }
+}
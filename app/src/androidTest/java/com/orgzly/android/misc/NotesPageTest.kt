@@ -0,0 +1,86 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.data.NotesPage
+import com.orgzly.android.query.user.InternalQueryParser
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class NotesPageTest : OrgzlyTest() {
+    @Test
+    fun testPagesFollowSortOrder() {
+        setupBooks()
+
+        /* Notes at the same position in both books are ordered by book too, for a stable expected order. */
+        listOf(
+                "it.todo",
+                "i.todo o.p o.b",
+                "b.book-a .o.p o.t",
+                "s.1w",
+                "it.todo o.s o.b",
+                "it.todo .o.s .o.state .o.b"
+        ).forEach { query ->
+            assertEquals(query, selectAll(query), selectInPages(query, 3))
+        }
+    }
+
+    @Test
+    fun testNextPageAfterLastNoteIsDeleted() {
+        setupBooks()
+
+        val all = selectAll("it.todo o.p")
+
+        val first = dataRepository.selectNotesPageFromQuery("it.todo o.p", null, 3)
+
+        val last = first.notes.last().note
+        dataRepository.deleteNotes(last.position.bookId, setOf(last.id))
+
+        val second = dataRepository.selectNotesPageFromQuery("it.todo o.p", first.next, 3)
+
+        assertEquals(all.subList(3, 6), second.notes.map { it.note.id })
+    }
+
+    @Test
+    fun testPagesWithEvents() {
+        testUtils.setupBook("book-a", (1..10).joinToString("") { "* Note $it\n<2030-01-${10 + it % 3}>\n" })
+
+        assertEquals(selectAll("e.ge.today o.e"), selectInPages("e.ge.today o.e", 4))
+    }
+
+    @Test
+    fun testCount() {
+        setupBooks()
+
+        assertEquals(selectAll("it.todo").size, dataRepository.countNotesFromQuery("it.todo"))
+        assertEquals(0, dataRepository.countNotesFromQuery("i.missing"))
+    }
+
+    private fun setupBooks() {
+        listOf("book-a", "book-b").forEach { name ->
+            testUtils.setupBook(name, (1..12).joinToString("") { i ->
+                val state = if (i % 4 == 0) "DONE" else "TODO"
+                val priority = if (i % 3 == 0) "[#A] " else if (i % 3 == 1) "[#C] " else ""
+                val scheduled = if (i % 2 == 0) "SCHEDULED: <2000-01-0${1 + i % 5}>\n" else ""
+                "* $state ${priority}Note ${(i * 7) % 5}\n$scheduled"
+            })
+        }
+    }
+
+    private fun selectAll(query: String): List<Long> {
+        return dataRepository.selectNotesFromQuery(InternalQueryParser().parse(query)).map { it.note.id }
+    }
+
+    private fun selectInPages(query: String, pageSize: Int): List<Long> {
+        val ids = mutableListOf<Long>()
+
+        var after: NotesPage.Key? = null
+
+        do {
+            val page = dataRepository.selectNotesPageFromQuery(query, after, pageSize)
+            ids.addAll(page.notes.map { it.note.id })
+            after = page.next
+        } while (after != null)
+
+        return ids
+    }
+}
@@ -0,0 +1,33 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class OrgRangeIdCacheTest : OrgzlyTest() {
+    @Test
+    fun testSameRangeSharedBetweenBooks() {
+        testUtils.setupBook("book-a", "* Note A-01\nSCHEDULED: <2018-01-01 Mon>")
+        testUtils.setupBook("book-b", "* Note B-01\nSCHEDULED: <2018-01-01 Mon>")
+
+        val noteA = dataRepository.getLastNote("Note A-01")!!
+        val noteB = dataRepository.getLastNote("Note B-01")!!
+
+        assertEquals(noteA.scheduledRangeId, noteB.scheduledRangeId)
+        assertEquals(1, database.orgRange().getLatest(10).size)
+    }
+
+    @Test
+    fun testRangesAfterClearingDatabase() {
+        testUtils.setupBook("book-a", "* Note A-01\nSCHEDULED: <2018-01-01 Mon>")
+
+        dataRepository.clearDatabase()
+
+        testUtils.setupBook("book-a", "* Note A-01\nSCHEDULED: <2018-01-01 Mon>")
+
+        val note = dataRepository.getLastNoteView("Note A-01")!!
+
+        assertEquals("<2018-01-01 Mon>", note.scheduledRangeString)
+        assertEquals(note.note.scheduledRangeId, database.orgRange().getByString("<2018-01-01 Mon>")?.id)
+    }
+}
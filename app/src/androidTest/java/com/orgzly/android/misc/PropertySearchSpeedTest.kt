@@ -0,0 +1,66 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.SpeedTest
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compares finding notes by property using lower-case columns with LOWER() applied
+ * to every row, on a generated book with 100k properties.
+ */
+@Ignore("Not a test")
+class PropertySearchSpeedTest : SpeedTest() {
+    @Test
+    fun properties100k() {
+        loadBook(generateBook(25_000))
+
+        val values = listOf("id-0", "ID-12345", "id-24999", "missing")
+
+        val results = values.map { value ->
+            val indexed = timed {
+                dataRepository.findNoteHavingProperty("id", value)?.noteId
+            }
+
+            val lower = timed {
+                selectUsingLower("id", value)
+            }
+
+            Assert.assertEquals(lower.first, indexed.first)
+
+            "$value: indexed ${indexed.second}ms, LOWER() ${lower.second}ms"
+        }
+
+        Assert.fail(results.joinToString("\n"))
+    }
+
+    /** Lookup as it was done before lower-case columns. */
+    private fun selectUsingLower(name: String, value: String): Long? {
+        val sql = """
+            SELECT notes.id
+            FROM note_properties
+            LEFT JOIN notes ON (notes.id = note_properties.note_id)
+            WHERE LOWER(note_properties.name) = ? AND LOWER(note_properties.value) = ? AND notes.id IS NOT NULL
+            ORDER BY notes.lft
+            LIMIT 1
+        """
+
+        return database.query(sql, arrayOf(name, value.lowercase())).use { cursor ->
+            if (cursor.moveToFirst()) cursor.getLong(0) else null
+        }
+    }
+
+    private fun generateBook(count: Int): String {
+        return buildString {
+            for (i in 0 until count) {
+                append("* Note ").append(i).append('\n')
+                append(":PROPERTIES:\n")
+                append(":ID: id-").append(i).append('\n')
+                append(":CREATED: [2024-01-01 Mon]\n")
+                append(":CATEGORY: category-").append(i % 10).append('\n')
+                append(":LOCATION: Location ").append(i % 100).append('\n')
+                append(":END:\n")
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.orgzly.android.misc
+
+import com.orgzly.android.OrgzlyTest
+import com.orgzly.android.db.QueryResultCache
+import com.orgzly.android.prefs.AppPreferences
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class QueryResultCacheTest : OrgzlyTest() {
+    @Test
+    fun testResultReusedUntilBookIsModified() {
+        testUtils.setupBook("book-a", "* TODO Note A-01\n* Note A-02\n")
+
+        val first = dataRepository.selectNotesFromQuery("it.todo")
+
+        assertSame(first, dataRepository.selectNotesFromQuery("it.todo"))
+
+        dataRepository.setNotesState(setOf(dataRepository.getLastNote("Note A-02")!!.id), "TODO")
+
+        val second = dataRepository.selectNotesFromQuery("it.todo")
+
+        assertNotSame(first, second)
+        assertEquals(listOf("Note A-01", "Note A-02"), second.map { it.note.title })
+    }
+
+    @Test
+    fun testModifyingOtherBookKeepsResult() {
+        testUtils.setupBook("book-a", "* TODO Note A-01\n")
+        testUtils.setupBook("book-b", "* TODO Note B-01\n")
+
+        val inBook = dataRepository.selectNotesFromQuery("b.book-a it.todo")
+        val inAllBooks = dataRepository.selectNotesFromQuery("it.todo")
+
+        dataRepository.setNotesState(setOf(dataRepository.getLastNote("Note B-01")!!.id), "DONE")
+
+        assertSame(inBook, dataRepository.selectNotesFromQuery("b.book-a it.todo"))
+        assertEquals(listOf("Note A-01"), dataRepository.selectNotesFromQuery("it.todo").map { it.note.title })
+        assertNotSame(inAllBooks, dataRepository.selectNotesFromQuery("it.todo"))
+    }
+
+    @Test
+    fun testReloadedBookInvalidatesResult() {
+        testUtils.setupBook("book-a", "* TODO Note A-01\n")
+
+        assertEquals(1, dataRepository.selectNotesFromQuery("b.book-a").size)
+
+        testUtils.setupBook("book-a", "* TODO Note A-01\n* Note A-02\n")
+
+        assertEquals(2, dataRepository.selectNotesFromQuery("b.book-a").size)
+    }
+
+    @Test
+    fun testChangedKeywordsInvalidateResult() {
+        testUtils.setupBook("book-a", "* TODO Note A-01\n* NEXT Note A-02\n")
+
+        AppPreferences.states(context, "TODO|DONE")
+        dataRepository.reParseNotesStateAndTitles()
+
+        assertEquals(listOf("Note A-01", "NEXT Note A-02"), dataRepository.selectNotesFromQuery("b.book-a").map { it.note.title })
+
+        AppPreferences.states(context, "TODO NEXT|DONE")
+        dataRepository.reParseNotesStateAndTitles()
+
+        assertEquals(listOf("Note A-01", "Note A-02"), dataRepository.selectNotesFromQuery("b.book-a").map { it.note.title })
+    }
+
+    @Test
+    fun testLargeResultIsNotCached() {
+        val cache = QueryResultCache<List<Int>>(maxRows = 100) { it.size }
+
+        val small = cache.get(QueryResultCache.Key("SELECT 1", emptyList()), emptySet()) {
+            QueryResultCache.Result(emptySet(), List(20) { it })
+        }
+
+        val large = cache.get(QueryResultCache.Key("SELECT 2", emptyList()), emptySet()) {
+            QueryResultCache.Result(emptySet(), List(30) { it })
+        }
+
+        assertSame(small, cache.get(QueryResultCache.Key("SELECT 1", emptyList()), emptySet()) {
+            QueryResultCache.Result(emptySet(), List(20) { it })
+        })
+        assertNotSame(large, cache.get(QueryResultCache.Key("SELECT 2", emptyList()), emptySet()) {
+            QueryResultCache.Result(emptySet(), List(30) { it })
+        })
+
+        assertEquals(20, cache.takeStats().size)
+    }
+
+    @Test
+    fun testConcurrentRequestsAreCoalesced() {
+        val cache = QueryResultCache<String>()
+        val key = QueryResultCache.Key("SELECT 1", emptyList())
+
+        val loads = AtomicInteger()
+        val loading = CountDownLatch(1)
+        val release = CountDownLatch(1)
+
+        val executor = Executors.newFixedThreadPool(3)
+
+        val results = (1..3).map {
+            executor.submit<String> {
+                cache.get(key, emptySet()) {
+                    loads.incrementAndGet()
+                    loading.countDown()
+                    release.await(5, TimeUnit.SECONDS)
+                    QueryResultCache.Result(emptySet(), "result")
+                }
+            }
+        }
+
+        loading.await(5, TimeUnit.SECONDS)
+        Thread.sleep(100) // Let other requests wait for the one being loaded
+        release.countDown()
+
+        assertEquals(listOf("result", "result", "result"), results.map { it.get(5, TimeUnit.SECONDS) })
+        assertEquals(1, loads.get())
+
+        executor.shutdown()
+    }
+}
@@ -0,0 +1,66 @@
+package com.orgzly.android.misc
+
+import androidx.sqlite.db.SupportSQLiteQueryBuilder
+import com.orgzly.android.SpeedTest
+import com.orgzly.android.db.dao.NoteDao
+import com.orgzly.android.db.dao.NoteViewDao
+import com.orgzly.android.query.user.DottedQueryParser
+import org.junit.Assert
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compares text searches using the full-text index with LIKE-only searches,
+ * on a generated book.
+ */
+@Ignore("Not a test")
+class SearchSpeedTest : SpeedTest() {
+    @Test
+    fun notes50k() {
+        loadBook(generateBook(50_000))
+
+        val results = WORDS.map { text ->
+            val fullText = timed {
+                dataRepository.selectNotesFromQuery(DottedQueryParser().parse(text)).map { it.note.id }
+            }
+
+            val like = timed {
+                selectUsingLike(text).map { it.note.id }
+            }
+
+            Assert.assertEquals(like.first, fullText.first)
+
+            "$text (${fullText.first.size} notes): full-text ${fullText.second}ms, LIKE ${like.second}ms"
+        }
+
+        Assert.fail(results.joinToString("\n"))
+    }
+
+    /** Text search as it was done before the full-text index. */
+    private fun selectUsingLike(text: String) = database.noteView().runQuery(
+            SupportSQLiteQueryBuilder
+                    .builder("(${NoteViewDao.QUERY_WITH_NOTE_EVENTS})")
+                    .selection(
+                            "(title LIKE ? OR content LIKE ? OR tags LIKE ?) AND ${NoteDao.WHERE_EXISTING_NOTES}",
+                            Array(3) { "%$text%" })
+                    .groupBy("id")
+                    .orderBy("book_name, lft")
+                    .create())
+
+    private fun generateBook(count: Int): String {
+        return buildString {
+            for (i in 0 until count) {
+                append("* Note ").append(i).append(' ').append(WORDS[i % WORDS.size])
+                if (i % 5 == 0) {
+                    append(" :").append(WORDS[(i + 1) % WORDS.size]).append(':')
+                }
+                append('\n')
+                append("Content of note ").append(i).append(" with ").append(WORDS[(i * 7) % WORDS.size]).append("\n\n")
+            }
+        }
+    }
+
+    companion object {
+        private val WORDS = listOf("meeting", "project", "groceries", "travel", "reading", "exercise", "invoice")
+    }
+}
@@ -18,7 +18,7 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
     private lateinit var actualParsedQuery: String
     private lateinit var actualQueryString: String
     private lateinit var actualSqlSelection: String
-    private lateinit var actualSqlSelectionArgs: List<String>
+    private lateinit var actualSqlSelectionArgs: List<Any>
     private lateinit var actualSqlOrder: String
     private lateinit var actualQuerySortOrders: List<SortOrder>
     private lateinit var actualQueryOptions: Options
@@ -28,7 +28,7 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
             val expectedParsedQuery: String? = null,
             val expectedQueryString: String? = null,
             val expectedSqlSelection: String? = null,
-            val expectedSelectionArgs: List<String>? = null,
+            val expectedSelectionArgs: List<Any>? = null,
             val expectedSqlOrder: String? = null,
 
             val expectedQuerySortOrders: List<SortOrder>? = null,
@@ -48,21 +48,21 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "i.todo t.work",
                             expectedQueryString = "i.todo t.work",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%")
+                            expectedSqlSelection = "(COALESCE(state, '') = ? AND id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("TODO", "work")
                     ),
                     Parameter(
                             queryString = "i.todo and t.work",
                             expectedQueryString = "i.todo t.work",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%"),
+                            expectedSqlSelection = "(COALESCE(state, '') = ? AND id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("TODO", "work"),
                             expectedQuerySortOrders = listOf()
                     ),
                     Parameter(
                             queryString = "i.todo AND t.work",
                             expectedQueryString = "i.todo t.work",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%"),
+                            expectedSqlSelection = "(COALESCE(state, '') = ? AND id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("TODO", "work"),
                             expectedQuerySortOrders = listOf()
                     ),
                     Parameter(
@@ -81,32 +81,32 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "i.todo or i.next and t.work",
                             expectedQueryString = "i.todo or i.next t.work",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? OR (COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)))",
-                            expectedSelectionArgs = listOf("TODO", "NEXT", "%work%", "%work%")
+                            expectedSqlSelection = "(COALESCE(state, '') = ? OR (COALESCE(state, '') = ? AND id IN (SELECT note_id FROM note_tags WHERE tag = ?)))",
+                            expectedSelectionArgs = listOf("TODO", "NEXT", "work")
                     ),
                     Parameter(
                             queryString = "i.todo and t.work or i.next",
                             expectedQueryString = "i.todo t.work or i.next",
-                            expectedSqlSelection = "((COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)) OR COALESCE(state, '') = ?)",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%", "NEXT")
+                            expectedSqlSelection = "((COALESCE(state, '') = ? AND id IN (SELECT note_id FROM note_tags WHERE tag = ?)) OR COALESCE(state, '') = ?)",
+                            expectedSelectionArgs = listOf("TODO", "work", "NEXT")
                     ),
                     Parameter(
                             queryString = "i.todo t.work or i.next t.home",
                             expectedQueryString = "i.todo t.work or i.next t.home",
-                            expectedSqlSelection = "((COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)) OR (COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)))",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%", "NEXT", "%home%", "%home%")
+                            expectedSqlSelection = "((COALESCE(state, '') = ? AND id IN (SELECT note_id FROM note_tags WHERE tag = ?)) OR (COALESCE(state, '') = ? AND id IN (SELECT note_id FROM note_tags WHERE tag = ?)))",
+                            expectedSelectionArgs = listOf("TODO", "work", "NEXT", "home")
                     ),
                     Parameter(
                             queryString = "( i.todo t.work ) or i.next",
                             expectedQueryString = "i.todo t.work or i.next",
-                            expectedSqlSelection = "((COALESCE(state, '') = ? AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)) OR COALESCE(state, '') = ?)",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%", "NEXT")
+                            expectedSqlSelection = "((COALESCE(state, '') = ? AND id IN (SELECT note_id FROM note_tags WHERE tag = ?)) OR COALESCE(state, '') = ?)",
+                            expectedSelectionArgs = listOf("TODO", "work", "NEXT")
                     ),
                     Parameter(
                             queryString = "i.todo (i.next or t.work)",
                             expectedQueryString = "i.todo (i.next or t.work)",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (COALESCE(state, '') = ? OR (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)))",
-                            expectedSelectionArgs = listOf("TODO", "NEXT", "%work%", "%work%")
+                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (COALESCE(state, '') = ? OR id IN (SELECT note_id FROM note_tags WHERE tag = ?)))",
+                            expectedSelectionArgs = listOf("TODO", "NEXT", "work")
                     ),
                     Parameter(
                             queryString = "(( i.todo) )",
@@ -117,8 +117,8 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "(it.todo b.gtd )or .s.none",
                             expectedQueryString = "it.todo b.gtd or .s.none",
-                            expectedSqlSelection = "((COALESCE(state, '') IN (?, ?) AND book_name = ?) OR (title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "NEXT", "gtd", "%.s.none%", "%.s.none%", "%.s.none%")
+                            expectedSqlSelection = "((COALESCE(state, '') IN (?, ?) AND book_name = ?) OR (id IN (SELECT docid FROM notes_fts WHERE notes_fts MATCH ?) AND (title LIKE ? OR content LIKE ? OR tags LIKE ?)))",
+                            expectedSelectionArgs = listOf("TODO", "NEXT", "gtd", "\"s none*\"", "%.s.none%", "%.s.none%", "%.s.none%")
                     ),
                     Parameter(
                             queryString = "it.todo",
@@ -135,39 +135,67 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "i.todo (t.work or o.p i.next) .o.book t.home",
                             expectedQueryString = "i.todo (t.work or i.next) t.home o.p .o.b",
-                            expectedSqlSelection = "(COALESCE(state, '') = ? AND ((COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?) OR COALESCE(state, '') = ?) AND (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("TODO", "%work%", "%work%", "NEXT", "%home%", "%home%"),
+                            expectedSqlSelection = "(COALESCE(state, '') = ? AND (id IN (SELECT note_id FROM note_tags WHERE tag = ?) OR COALESCE(state, '') = ?) AND id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("TODO", "work", "NEXT", "home"),
                             expectedQuerySortOrders = listOf(SortOrder.Priority(), SortOrder.Book(desc = true))
                     ),
                     Parameter(
                             queryString = ".i.done ( t.t1 or t.t2)",
                             expectedQueryString = ".i.done (t.t1 or t.t2)",
-                            expectedSqlSelection = "(NOT(COALESCE(state, '') = ?) AND ((COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?) OR (COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)))",
-                            expectedSelectionArgs = listOf("DONE", "%t1%", "%t1%", "%t2%", "%t2%")
+                            expectedSqlSelection = "(NOT(COALESCE(state, '') = ?) AND (id IN (SELECT note_id FROM note_tags WHERE tag = ?) OR id IN (SELECT note_id FROM note_tags WHERE tag = ?)))",
+                            expectedSelectionArgs = listOf("DONE", "t1", "t2")
                     ),
                     Parameter(
                             queryString = "tnn.tag1",
                             expectedQueryString = "tnn.tag1",
-                            expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("%tnn.tag1%", "%tnn.tag1%", "%tnn.tag1%")
+                            expectedSqlSelection = "((id IN (SELECT docid FROM notes_fts WHERE notes_fts MATCH ?) AND (title LIKE ? OR content LIKE ? OR tags LIKE ?)))",
+                            expectedSelectionArgs = listOf("\"tnn tag1*\"", "%tnn.tag1%", "%tnn.tag1%", "%tnn.tag1%")
                     ),
                     Parameter(
                             queryString = "p.",
                             expectedQueryString = "p.",
+                            expectedSqlSelection = "((id IN (SELECT docid FROM notes_fts WHERE notes_fts MATCH ?) AND (title LIKE ? OR content LIKE ? OR tags LIKE ?)))",
+                            expectedSelectionArgs = listOf("\"p*\"", "%p.%", "%p.%", "%p.%")
+                    ),
+                    Parameter(
+                            queryString = "::",
                             expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("%p.%", "%p.%", "%p.%")
+                            expectedSelectionArgs = listOf("%::%", "%::%", "%::%")
+                    ),
+                    Parameter(
+                            queryString = "東京",
+                            expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
+                            expectedSelectionArgs = listOf("%東京%", "%東京%", "%東京%")
                     ),
                     Parameter( // Operator with no expression before it
                             queryString = "and t.tag",
                             expectedQueryString = "t.tag",
-                            expectedSqlSelection = "((COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?))",
-                            expectedSelectionArgs = listOf("%tag%", "%tag%")
+                            expectedSqlSelection = "(id IN (SELECT note_id FROM note_tags WHERE tag = ?))",
+                            expectedSelectionArgs = listOf("tag")
                     ),
                     Parameter(
                             queryString = ".tn.tag",
                             expectedQueryString = ".tn.tag",
-                            expectedSqlSelection = "(NOT((COALESCE(tags, '') LIKE ?)))",
-                            expectedSelectionArgs = listOf("%tag%")
+                            expectedSqlSelection = "(NOT(id IN (SELECT note_id FROM note_tags WHERE tag = ? AND is_inherited = 0)))",
+                            expectedSelectionArgs = listOf("tag")
+                    ),
+                    Parameter(
+                            queryString = "pr.CUSTOM_ID.\"Some Id\"",
+                            expectedQueryString = "pr.CUSTOM_ID.\"Some Id\"",
+                            expectedSqlSelection = "(id IN (SELECT note_id FROM note_properties WHERE name_lower = ? AND value_lower = ?))",
+                            expectedSelectionArgs = listOf("custom_id", "some id")
+                    ),
+                    Parameter(
+                            queryString = "pr.\"header.args\".\"Some Id\"",
+                            expectedQueryString = "pr.\"header.args\".\"Some Id\"",
+                            expectedSqlSelection = "(id IN (SELECT note_id FROM note_properties WHERE name_lower = ? AND value_lower = ?))",
+                            expectedSelectionArgs = listOf("header.args", "some id")
+                    ),
+                    Parameter(
+                            queryString = ".pr.ID.abc",
+                            expectedQueryString = ".pr.ID.abc",
+                            expectedSqlSelection = "(NOT(id IN (SELECT note_id FROM note_properties WHERE name_lower = ? AND value_lower = ?)))",
+                            expectedSelectionArgs = listOf("id", "abc")
                     ),
                     Parameter(
                             queryString = "i.todo (b.\"book(1) name\" or b.book2)",
@@ -178,27 +206,32 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "s.le.2w",
                             expectedQueryString = "s.2w",
-                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 14+1) + "))"
+                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < ?))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 14+1))
                     ),
                     Parameter(
                             queryString = "s.le.3d",
                             expectedQueryString = "s.3d",
-                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < " + TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3+1) + "))"
+                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND scheduled_time_timestamp < ?))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3+1))
                     ),
                     Parameter(
                             queryString = "d.tom",
                             expectedQueryString = "d.tomorrow",
-                            expectedSqlSelection = "((deadline_is_active = 1 AND deadline_time_timestamp != 0 AND deadline_time_timestamp < " + TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 1+1) + "))"
+                            expectedSqlSelection = "((deadline_is_active = 1 AND deadline_time_timestamp != 0 AND deadline_time_timestamp < ?))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 1+1))
                     ),
                     Parameter(
                             queryString = "c.eq.today",
                             expectedQueryString = "c.today",
-                            expectedSqlSelection = "((closed_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 0)} <= closed_time_timestamp AND closed_time_timestamp < " + TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 0+1) + "))"
+                            expectedSqlSelection = "((closed_time_timestamp != 0 AND ? <= closed_time_timestamp AND closed_time_timestamp < ?))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 0), TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 0+1))
                     ),
                     Parameter(
                             queryString = "c.ge.-1d", // Since yesterday
                             expectedQueryString = "c.ge.yesterday",
-                            expectedSqlSelection = "((closed_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, -1)} <= closed_time_timestamp))"
+                            expectedSqlSelection = "((closed_time_timestamp != 0 AND ? <= closed_time_timestamp))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, -1))
                     ),
                     Parameter(
                             queryString = "p.a",
@@ -224,15 +257,15 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "\"(o.s o.d)\"",
                             expectedQueryString = "\"(o.s o.d)\"",
-                            expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("%(o.s o.d)%", "%(o.s o.d)%", "%(o.s o.d)%")
+                            expectedSqlSelection = "((id IN (SELECT docid FROM notes_fts WHERE notes_fts MATCH ?) AND (title LIKE ? OR content LIKE ? OR tags LIKE ?)))",
+                            expectedSelectionArgs = listOf("\"o s o d*\"", "%(o.s o.d)%", "%(o.s o.d)%", "%(o.s o.d)%")
                     ),
                     Parameter(
                             queryString = "\"or\"",
                             expectedQueryString = "\"or\"",
                             expectedParsedQuery = "Query(condition=And(operands=[HasText(text=or, isQuoted=true)]), sortOrders=[], options=Options(agendaDays=0))",
-                            expectedSqlSelection = "((title LIKE ? OR content LIKE ? OR tags LIKE ?))",
-                            expectedSelectionArgs = listOf("%or%", "%or%", "%or%")
+                            expectedSqlSelection = "((id IN (SELECT docid FROM notes_fts WHERE notes_fts MATCH ?) AND (title LIKE ? OR content LIKE ? OR tags LIKE ?)))",
+                            expectedSelectionArgs = listOf("\"or*\"", "%or%", "%or%", "%or%")
                     ),
                     Parameter(
                             queryString = "\"\"",
@@ -263,7 +296,8 @@ class QueryTest(private val param: Parameter) : OrgzlyTest() {
                     Parameter(
                             queryString = "s.ge.3d",
                             expectedQueryString = "s.ge.3d",
-                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND ${TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3)} <= scheduled_time_timestamp))"
+                            expectedSqlSelection = "((scheduled_is_active = 1 AND scheduled_time_timestamp != 0 AND ? <= scheduled_time_timestamp))",
+                            expectedSelectionArgs = listOf(TimeUtils.timeFromNow(Calendar.DAY_OF_MONTH, 3))
                     ),
                     Parameter(
                             queryString = "((i.todo s.no) or i.later) o.state",
@@ -19,7 +19,9 @@ class QueryTokenizerTest(private val param: Parameter) {
                     Parameter("((a))", listOf("(", "(", "a", ")", ")")),
                     Parameter("((a) b)", listOf("(", "(", "a", ")", "b", ")")),
                     Parameter("""((a) "c \"  d")""", listOf("(", "(", "a", ")", """"c \"  d"""", ")")),
-                    Parameter("""((a."b c"))""", listOf("(", "(", """a."b c"""", ")", ")"))
+                    Parameter("""((a."b c"))""", listOf("(", "(", """a."b c"""", ")", ")")),
+                    Parameter("""a."b.c".d e""", listOf("""a."b.c".d""", "e")),
+                    Parameter("""a."b.c"."d e"""", listOf("""a."b.c"."d e""""))
             )
         }
     }
@@ -0,0 +1,113 @@
+package com.orgzly.android.repos
+
+import androidx.core.net.toUri
+import com.orgzly.android.SpeedTest
+import com.orgzly.android.db.entity.Repo
+import com.orgzly.android.git.GitFileSynchronizer
+import com.orgzly.android.git.GitPreferencesFromRepoPrefs
+import com.orgzly.android.prefs.RepoPreferences
+import org.eclipse.jgit.api.Git
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Ignore
+import org.junit.Test
+import java.io.File
+import kotlin.io.path.createTempDirectory
+
+/**
+ * Compares finding the last commit of each book with a single history walk
+ * ([GitFileSynchronizer.getLastCommitsOfFiles]) with running `git log` for each book,
+ * in a generated repository.
+ */
+@Ignore("Not a test")
+class GitLastCommitsSpeedTest : SpeedTest() {
+    private lateinit var bareRepoDir: File
+    private lateinit var gitWorkingTree: File
+    private lateinit var git: Git
+    private lateinit var synchronizer: GitFileSynchronizer
+
+    @Before
+    override fun setUp() {
+        super.setUp()
+        bareRepoDir = createTempDirectory().toFile()
+        Git.init().setBare(true).setDirectory(bareRepoDir).call()
+        val repo = Repo(0, RepoType.GIT, "file://$bareRepoDir")
+        val gitPreferences = GitPreferencesFromRepoPrefs(RepoPreferences(context, repo.id, repo.url.toUri()))
+        gitWorkingTree = File(gitPreferences.repositoryFilepath())
+        gitWorkingTree.mkdirs()
+        git = GitRepo.ensureRepositoryExists(gitPreferences, true, null)
+        synchronizer = GitFileSynchronizer(git, gitPreferences)
+    }
+
+    @After
+    override fun tearDown() {
+        super.tearDown()
+        git.close()
+        gitWorkingTree.deleteRecursively()
+        bareRepoDir.deleteRecursively()
+    }
+
+    @Test
+    fun books50commits1k() {
+        test(50, 1_000)
+    }
+
+    @Test
+    fun books200commits5k() {
+        test(200, 5_000)
+    }
+
+    private fun test(bookCount: Int, commitCount: Int) {
+        val paths = generateHistory(bookCount, commitCount)
+
+        val (perFile, perFileTime) = timed {
+            paths.associateWith { path ->
+                git.log().setMaxCount(1).addPath(path).call().first().name
+            }
+        }
+
+        val (singleWalk, singleWalkTime) = timed {
+            synchronizer.getLastCommitsOfFiles(paths).mapValues { it.value.name() }
+        }
+
+        val cachedTime = timed {
+            synchronizer.getLastCommitsOfFiles(paths)
+        }.second
+
+        Assert.assertEquals(perFile, singleWalk)
+
+        Assert.fail("$bookCount books, $commitCount commits: " +
+                "git log per book ${perFileTime}ms, " +
+                "single walk ${singleWalkTime}ms, " +
+                "cached ${cachedTime}ms")
+    }
+
+    /**
+     * Creates books (some in subfolders) and then modifies them in commits,
+     * with some books modified much more often than others.
+     */
+    private fun generateHistory(bookCount: Int, commitCount: Int): List<String> {
+        val paths = (0 until bookCount).map { i ->
+            if (i % 5 == 0) "folder-${i % 3}/book-$i.org" else "book-$i.org"
+        }
+
+        paths.forEach { path ->
+            File(gitWorkingTree, path).apply {
+                parentFile?.mkdirs()
+                writeText("* Note 0\n")
+            }
+            git.add().addFilepattern(path).call()
+        }
+        git.commit().setMessage("Add books").call()
+
+        for (i in 1 until commitCount) {
+            val path = paths[(i * i) % bookCount]
+            File(gitWorkingTree, path).appendText("* Note $i\n")
+            git.add().addFilepattern(path).call()
+            git.commit().setMessage("Update $path").call()
+        }
+
+        return paths
+    }
+}
@@ -22,12 +22,14 @@ import com.orgzly.android.BookFormat;
 import com.orgzly.android.BookName;
 import com.orgzly.android.LocalStorage;
 import com.orgzly.android.OrgzlyTest;
+import com.orgzly.android.data.ParsedBook;
 import com.orgzly.android.db.entity.Book;
 import com.orgzly.android.db.entity.BookView;
 import com.orgzly.android.db.entity.NoteView;
 import com.orgzly.android.db.entity.Repo;
 import com.orgzly.android.sync.BookNamesake;
 import com.orgzly.android.sync.BookSyncStatus;
+import com.orgzly.android.sync.SyncUtils;
 import com.orgzly.android.util.EncodingDetect;
 import com.orgzly.android.util.MiscUtils;
 
@@ -42,6 +44,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SyncTest extends OrgzlyTest {
     private static final String TAG = SyncTest.class.getName();
@@ -779,4 +784,75 @@ public class SyncTest extends OrgzlyTest {
         assertEquals(context.getString(R.string.force_saved_to_uri, "mock://repo-a/booky.org")
                 , dataRepository.getBook(book.getId()).getLastAction().getMessage());
     }
+
+    @Test
+    public void testSyncWithBooksParsedInParallel() throws Exception {
+        Repo repo = testUtils.setupRepo(RepoType.MOCK, "mock://repo-a");
+        for (int i = 1; i <= 5; i++) {
+            testUtils.setupRook(repo, "mock://repo-a/book-" + i + ".org",
+                    "* Note " + i + "\nSCHEDULED: <2015-01-1" + i + ">", i + "abcdef", 1400067156000L);
+        }
+
+        Map<String, BookNamesake> namesakes = SyncUtils.groupAllNotebooksByName(dataRepository);
+
+        /* Parse all books at once. */
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        Map<String, Future<ParsedBook>> parsedBooks = new HashMap<>();
+        try {
+            for (BookNamesake namesake : namesakes.values()) {
+                VersionedRook rook = SyncUtils.rookToLoad(namesake);
+                assertNotNull(rook);
+                parsedBooks.put(namesake.getName(), executor.submit(() -> dataRepository.parseBookFromRepo(rook)));
+            }
+
+            /* Write them one by one. */
+            for (BookNamesake namesake : namesakes.values()) {
+                ParsedBook parsedBook = parsedBooks.get(namesake.getName()).get();
+                SyncUtils.syncNamesake(dataRepository, namesake, parsedBook);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(5, dataRepository.getBooks().size());
+
+        for (int i = 1; i <= 5; i++) {
+            BookView book = dataRepository.getBookView("book-" + i);
+            assertNotNull(book);
+            assertEquals("mock://repo-a/book-" + i + ".org", book.getSyncedTo().getUri().toString());
+            assertEquals(
+                    "<2015-01-1" + i + ">",
+                    dataRepository.getLastNoteView("Note " + i).getScheduledRangeString());
+        }
+    }
+
+    @Test
+    public void testRemoteBookWithSameContentIsNotReloaded() {
+        Repo repo = testUtils.setupRepo(RepoType.MOCK, "mock://repo-a");
+        testUtils.setupRook(repo, "mock://repo-a/book-a.org", "* Note A-01", "1abcdef", 1400067156000L);
+        testUtils.sync();
+
+        /* Rename note directly, without marking the book as modified. */
+        NoteView noteView = dataRepository.getLastNoteView("Note A-01");
+        database.getOpenHelper().getWritableDatabase().execSQL(
+                "UPDATE notes SET title = ? WHERE id = ?",
+                new Object[] { "Note A-01 (renamed locally)", noteView.getNote().getId() });
+
+        /* Same content, new revision. */
+        testUtils.setupRook(repo, "mock://repo-a/book-a.org", "* Note A-01", "2abcdef", 1400067157000L);
+        testUtils.sync();
+
+        BookView book = dataRepository.getBookView("book-a");
+        assertEquals("2abcdef", book.getSyncedTo().getRevision());
+        assertNotNull(dataRepository.getLastNoteView("Note A-01 (renamed locally)"));
+
+        /* Different content. */
+        testUtils.setupRook(repo, "mock://repo-a/book-a.org", "* Note A-02", "3abcdef", 1400067158000L);
+        testUtils.sync();
+
+        book = dataRepository.getBookView("book-a");
+        assertEquals("3abcdef", book.getSyncedTo().getRevision());
+        assertNull(dataRepository.getLastNoteView("Note A-01 (renamed locally)"));
+        assertNotNull(dataRepository.getLastNoteView("Note A-02"));
+    }
 }
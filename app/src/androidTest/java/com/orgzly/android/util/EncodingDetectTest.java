@@ -2,13 +2,18 @@ package com.orgzly.android.util;
 
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -123,4 +128,54 @@ public class EncodingDetectTest {
         assertTrue(detect.isDetected());
         assertEquals("WINDOWS-1252", detect.getEncoding());
     }
+
+    /**
+     * Fast paths of {@link Encoding#detect(ByteBuffer)} must give the same results as the detector.
+     */
+    @Test
+    public void testDetectFromBufferSameAsDetector() throws IOException {
+        String[] names = {
+                "ascii.org",
+                "org-blog-articles.org",
+                "org-people.org",
+                "few_chinese_characters.org",
+                "Chinese-Lipsum.org",
+                "iso-8859-15-dos.org"
+        };
+
+        for (String name : names) {
+            assertEquals(
+                    name,
+                    EncodingDetect.getInstance(getFromResource(name)).getEncoding(),
+                    Encoding.detect(ByteBuffer.wrap(readResource(name))));
+        }
+    }
+
+    @Test
+    public void testDetectFromBufferBom() {
+        assertEquals("UTF-8", Encoding.detect(ByteBuffer.wrap(new byte[] { (byte) 0xef, (byte) 0xbb, (byte) 0xbf, 'a' })));
+        assertEquals("UTF-16LE", Encoding.detect(ByteBuffer.wrap(new byte[] { (byte) 0xff, (byte) 0xfe, 'a', 0 })));
+        assertEquals("UTF-16BE", Encoding.detect(ByteBuffer.wrap(new byte[] { (byte) 0xfe, (byte) 0xff, 0, 'a' })));
+    }
+
+    @Test
+    public void testDetectFromBufferUtf8() {
+        assertNull(Encoding.detect(ByteBuffer.wrap("* Note".getBytes(StandardCharsets.US_ASCII))));
+        assertEquals("UTF-8", Encoding.detect(ByteBuffer.wrap("* Bilješka".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private byte[] readResource(String name) throws IOException {
+        InputStream is = getFromResource(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = is.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
 }
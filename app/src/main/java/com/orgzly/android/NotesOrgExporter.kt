@@ -3,7 +3,6 @@ package com.orgzly.android
 import android.util.Log
 import com.orgzly.R
 import com.orgzly.android.data.DataRepository
-import com.orgzly.android.data.mappers.OrgMapper
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.org.parser.OrgParserSettings
@@ -23,6 +22,7 @@ class NotesOrgExporter(val dataRepository: DataRepository) {
     fun exportBook(book: Book, file: File) {
         val encoding = book.usedEncoding ?: Charset.defaultCharset().name()
 
+        /* Buffered, so notes are written to the file in large chunks. */
         PrintWriter(file, encoding).use {
             exportBook(book, it)
         }
@@ -36,19 +36,38 @@ class NotesOrgExporter(val dataRepository: DataRepository) {
         // Write preface
         writer.write(orgWriter.whiteSpacedFilePreface(book.preface))
 
-        // Write each note
-        dataRepository.getNotes(book.name).forEach { noteView ->
-            val note = noteView.note
+        val isIndented = book.isIndented == true
 
-            val head = OrgMapper.toOrgHead(noteView).apply {
-                properties = OrgMapper.toOrgProperties(dataRepository.getNoteProperties(note.id))
-            }
+        // Write each note, rendering only notes modified since the last export
+        dataRepository.readBookForExport(book.id, cacheKey(orgParserSettings, isIndented)) { reader ->
+            while (true) {
+                val row = reader.next() ?: break
+
+                val text = row.renderedText
+                        ?: orgWriter.whiteSpacedHead(row.head, row.level, isIndented).also {
+                            reader.cache(row.noteId, it)
+                        }
 
-            writer.write(orgWriter.whiteSpacedHead(head, note.position.level, book.isIndented == true))
+                writer.write(text)
+            }
         }
     }
 
     companion object {
+        /**
+         * All settings affecting the note's text.
+         */
+        private fun cacheKey(settings: OrgParserSettings, isIndented: Boolean): String {
+            return listOf(
+                    settings.separateNotesWithNewLine,
+                    settings.separateHeaderAndContentWithNewLine,
+                    settings.tagsColumn,
+                    settings.orgIndentMode,
+                    settings.orgIndentIndentationPerLevel,
+                    isIndented
+            ).joinToString(",")
+        }
+
         private fun getOrgParserSettingsFromPreferences(): OrgParserSettings {
             val parserSettings = OrgParserSettings.getBasic()
 
@@ -1,6 +1,5 @@
 package com.orgzly.android.data
 
-import android.annotation.SuppressLint
 import android.content.Context
 import android.content.Intent
 import android.content.res.Resources
@@ -13,23 +12,36 @@ import androidx.lifecycle.LiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.map
 import androidx.localbroadcastmanager.content.LocalBroadcastManager
+import androidx.room.InvalidationTracker
 import androidx.sqlite.db.SupportSQLiteQuery
 import androidx.sqlite.db.SupportSQLiteQueryBuilder
 import com.orgzly.BuildConfig
 import com.orgzly.R
 import com.orgzly.android.*
+import com.orgzly.android.data.logs.AppLogsRepository
 import com.orgzly.android.data.mappers.OrgMapper
+import com.orgzly.android.db.BookExportReader
+import com.orgzly.android.db.NotePathCache
+import com.orgzly.android.db.NotePositionAllocator
+import com.orgzly.android.db.NoteTreeInserter
+import com.orgzly.android.db.NoteTreeMaintainer
+import com.orgzly.android.db.NoteTreeMover
 import com.orgzly.android.db.NotesClipboard
+import com.orgzly.android.db.OrgRangeIdCache
 import com.orgzly.android.db.OrgzlyDatabase
+import com.orgzly.android.db.QueryResultCache
+import com.orgzly.android.db.dao.BookDataVersionDao
 import com.orgzly.android.db.dao.NoteDao
+import com.orgzly.android.db.dao.NotePathDao
 import com.orgzly.android.db.dao.NoteViewDao
 import com.orgzly.android.db.dao.ReminderTimeDao
 import com.orgzly.android.db.entity.*
-import com.orgzly.android.db.mappers.OrgTimestampMapper
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.query.Query
+import com.orgzly.android.query.QueryUtils
+import com.orgzly.android.query.sql.CompiledQueryCache
+import com.orgzly.android.query.sql.SqlQuery
 import com.orgzly.android.query.sql.SqliteQueryBuilder
-import com.orgzly.android.query.user.InternalQueryParser
 import com.orgzly.android.repos.*
 import com.orgzly.android.repos.Rook
 import com.orgzly.android.repos.VersionedRook
@@ -66,7 +78,19 @@ class DataRepository @Inject constructor(
         private val db: OrgzlyDatabase,
         private val repoFactory: RepoFactory,
         private val resources: Resources,
-        private val localStorage: LocalStorage) {
+        private val localStorage: LocalStorage,
+        private val appLogs: AppLogsRepository) {
+
+    /** Shared by book loading, pasting and note updates. */
+    private val orgRangeIdCache = OrgRangeIdCache(db)
+
+    /** Cleared whenever books or their notes are modified. */
+    private val notePathCache = NotePathCache()
+
+    private val compiledQueries = CompiledQueryCache(context)
+
+    /** Valid while data versions of books are unchanged (see [updateBookIsModified]). */
+    private val queryResultCache = QueryResultCache<List<NoteView>> { it.size }
 
     fun forceLoadBook(bookId: Long) {
         val book = getBookView(bookId)
@@ -159,7 +183,9 @@ class DataRepository @Inject constructor(
             NotesOrgExporter(this).exportBook(bookView.book, tmpFile)
 
             /* Upload to repo. */
-            uploadedBook = repo.storeBook(tmpFile, repositoryPath)
+            uploadedBook = repo.storeBook(tmpFile, repositoryPath).let {
+                VersionedRook(it, it.revision, it.mtime, it.contentHash ?: MiscUtils.sha1(tmpFile))
+            }
 
         } finally {
             /* Delete temporary file. */
@@ -315,7 +341,7 @@ class DataRepository @Inject constructor(
                 isDummy = dummy
         )
 
-        val id = db.runInTransaction(Callable {
+        val id = runInTransaction(Callable {
             val id = db.book().insert(book)
 
             db.note().insert(NoteDao.rootNote(id))
@@ -336,6 +362,8 @@ class DataRepository @Inject constructor(
         }
 
         db.book().delete(book.book)
+
+        notePathCache.clear()
     }
 
     fun renameBook(bookView: BookView, name: String) {
@@ -398,6 +426,10 @@ class DataRepository @Inject constructor(
             throw IOException()
         }
 
+        db.bookDataVersion().increment(setOf(book.id))
+
+        notePathCache.clear()
+
         setBookLastAction(book.id, BookAction.forNow(
                 BookAction.Type.INFO,
                 resources.getString(R.string.renamed_book_from, oldName)))
@@ -439,12 +471,22 @@ class DataRepository @Inject constructor(
 
         val versionedRookId = db.versionedRook().replace(
                 com.orgzly.android.db.entity.VersionedRook(
-                        0, rookId, rookRevision, rookMtime))
+                        0, rookId, rookRevision, rookMtime, uploadedBook.contentHash))
 
         db.bookLink().upsert(bookId, repoId)
         db.bookSync().upsert(bookId, versionedRookId)
     }
 
+    /**
+     * Marks the book as synced with the remote book which has the same content.
+     */
+    fun updateBookSyncedWithSameContent(bookId: Long, vrook: VersionedRook) {
+        runInTransaction(Callable {
+            updateBookLinkAndSync(bookId, vrook)
+            updateBookIsModified(bookId, false)
+        })
+    }
+
     fun removeBookSyncedTo(bookId: Long) {
         db.bookSync().delete(bookId)
     }
@@ -455,6 +497,10 @@ class DataRepository @Inject constructor(
 
     private fun updateBookIsModified(bookIds: Set<Long>, isModified: Boolean, time: Long = System.currentTimeMillis()) {
         if (bookIds.isNotEmpty()) {
+            notePathCache.clear()
+
+            db.bookDataVersion().increment(bookIds)
+
             if (isModified) {
                 db.book().setIsModified(bookIds, time)
             } else {
@@ -497,6 +543,15 @@ class DataRepository @Inject constructor(
         return db.note().getRootNode(bookId)
     }
 
+    /**
+     * Rebuilds ancestors and descendants count of all notes in the book from their parent IDs.
+     */
+    fun rebuildNoteTree(bookId: Long) {
+        runInTransaction(Callable {
+            NoteTreeMaintainer(db).rebuildBook(bookId)
+        })
+    }
+
     fun setLink(bookId: Long, repo: Repo?) {
         if (repo == null) {
             deleteBookLink(bookId)
@@ -556,61 +611,63 @@ class DataRepository @Inject constructor(
     }
 
     fun promoteNotes(ids: Set<Long>): Int {
-        return db.runInTransaction(Callable {
-            val note = db.note().getFirst(ids) ?: return@Callable 0
-
-            /* Can only promote notes of level 2 or greater. */
-            if (note.position.level <= 1 || note.position.parentId <= 0) {
-                return@Callable 0
-            }
-
-            // Paste just under parent if note's level is too high, below otherwise
-            val parent = db.note().get(note.position.parentId) ?: return@Callable 0
-            val count = if (parent.position.level + 1 < note.position.level) {
-                moveSubtrees(ids, Place.UNDER_AS_FIRST, note.position.parentId)
-            } else {
-                moveSubtrees(ids, Place.BELOW, note.position.parentId)
+        return runInTransaction(Callable {
+            getPromoteTarget(ids)?.let {
+                return@Callable moveSubtrees(ids, it.place, it.noteId)
             }
 
-            return@Callable count
+            return@Callable 0
         })
     }
 
-    fun demoteNotes(ids: Set<Long>): Int {
-        return db.runInTransaction(Callable {
-            val note = db.note().getFirst(ids) ?: return@Callable 0
+    /**
+     * Place where [promoteNotes] moves the notes, if they can be promoted.
+     */
+    fun getPromoteTarget(ids: Set<Long>): NotePlace? {
+        val note = db.note().getFirst(ids) ?: return null
 
-            val previousSibling = db.note().getPreviousSibling(
-                    note.position.bookId, note.position.lft, note.position.parentId)
+        /* Can only promote notes of level 2 or greater. */
+        if (note.position.level <= 1 || note.position.parentId <= 0) {
+            return null
+        }
 
-            if (previousSibling != null) {
-                return@Callable moveSubtrees(ids, Place.UNDER, previousSibling.id)
-            } else {
-                return@Callable 0
+        // Paste just under parent if note's level is too high, below otherwise
+        val parent = db.note().get(note.position.parentId) ?: return null
+        val place = if (parent.position.level + 1 < note.position.level) {
+            Place.UNDER_AS_FIRST
+        } else {
+            Place.BELOW
+        }
+
+        return NotePlace(note.position.bookId, parent.id, place)
+    }
+
+    fun demoteNotes(ids: Set<Long>): Int {
+        return runInTransaction(Callable {
+            getDemoteTarget(ids)?.let {
+                return@Callable moveSubtrees(ids, it.place, it.noteId)
             }
+
+            return@Callable 0
         })
     }
 
-    fun moveNote(bookId: Long, noteIds: Set<Long>, direction: Int): Int {
-        return db.runInTransaction(Callable {
-            val target: NotePlace? =
-                    if (direction == -1) { // Move up
-                        db.note().getFirst(noteIds)?.let { note ->
-                            db.note().getPreviousSibling(bookId, note.position.lft, note.position.parentId)?.let { sibling ->
-                                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Place above ${sibling.title}")
-                                NotePlace(bookId, sibling.id, Place.ABOVE)
-                            }
-                        }
-                    } else { // Move down
-                        db.note().getLast(noteIds)?.let { note ->
-                            db.note().getNextSibling(bookId, note.position.rgt, note.position.parentId)?.let { sibling ->
-                                if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Place below ${sibling.title}")
-                                NotePlace(bookId, sibling.id, Place.BELOW)
-                            }
-                        }
-                    }
+    /**
+     * Place where [demoteNotes] moves the notes, if they can be demoted.
+     */
+    fun getDemoteTarget(ids: Set<Long>): NotePlace? {
+        val note = db.note().getFirst(ids) ?: return null
+
+        val previousSibling = db.note().getPreviousSibling(
+                note.position.bookId, note.position.lft, note.position.parentId)
+                ?: return null
+
+        return NotePlace(note.position.bookId, previousSibling.id, Place.UNDER)
+    }
 
-            target?.let {
+    fun moveNote(bookId: Long, noteIds: Set<Long>, direction: Int): Int {
+        return runInTransaction(Callable {
+            getMoveTarget(bookId, noteIds, direction)?.let {
                 return@Callable moveSubtrees(noteIds, it.place, it.noteId)
             }
 
@@ -618,25 +675,93 @@ class DataRepository @Inject constructor(
         })
     }
 
+    /**
+     * Place where [moveNote] moves the notes, if they can be moved in [direction].
+     */
+    fun getMoveTarget(bookId: Long, noteIds: Set<Long>, direction: Int): NotePlace? {
+        return if (direction == -1) { // Move up
+            db.note().getFirst(noteIds)?.let { note ->
+                db.note().getPreviousSibling(bookId, note.position.lft, note.position.parentId)?.let { sibling ->
+                    if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Place above ${sibling.title}")
+                    NotePlace(bookId, sibling.id, Place.ABOVE)
+                }
+            }
+        } else { // Move down
+            db.note().getLast(noteIds)?.let { note ->
+                db.note().getNextSibling(bookId, note.position.rgt, note.position.parentId)?.let { sibling ->
+                    if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Place below ${sibling.title}")
+                    NotePlace(bookId, sibling.id, Place.BELOW)
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves notes with their subtrees, for many sets of notes at once (see [NoteTreeMover]).
+     * Each set is moved to its own target, in order.
+     *
+     * @return number of moved notes
+     */
+    fun moveNotes(moves: List<NoteTreeMover.Move>): Int {
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Moving notes to ${moves.size} targets")
+
+        return runInTransaction(Callable {
+            val results = NoteTreeMover(db).move(moves)
+
+            val time = System.currentTimeMillis()
+
+            results.forEach { result ->
+                val target = result.move.target
+
+                val (targetNote, place) = if (target.noteId == 0L) {
+                    Pair(db.note().getRootNode(target.bookId), Place.UNDER)
+                } else {
+                    Pair(db.note().get(target.noteId), target.place)
+                }
+
+                if (targetNote != null) {
+                    updateFoldedStateOfMovedNotes(
+                            result.noteIds, TargetPosition.getInstance(targetNote, place), place, targetNote.id)
+                }
+
+                updateBookIsModified(result.sourceBookIds, true, time)
+                updateBookIsModified(target.bookId, true, time)
+            }
+
+            results.sumOf { it.noteIds.size }
+        })
+    }
+
+    /**
+     * Moves notes to the place returned by [target], which is resolved in the same transaction.
+     *
+     * @return number of moved notes, 0 if there is no target
+     */
+    fun moveNotes(noteIds: Set<Long>, target: () -> NotePlace?): Int {
+        return runInTransaction(Callable {
+            target()?.let { moveNotes(listOf(NoteTreeMover.Move(noteIds, it))) } ?: 0
+        })
+    }
+
     fun refileNotes(noteIds: Set<Long>, target: NotePlace) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Refiling ${noteIds.size} notes to $target")
 
         if (target.noteId == 0L) { // To book
             val root = getRootNode(target.bookId) ?: return
 
-            db.runInTransaction(Callable {
+            runInTransaction(Callable {
                 moveSubtrees(noteIds, Place.UNDER, root.id)
             })
 
         } else {
-            db.runInTransaction(Callable {
+            runInTransaction(Callable {
                 moveSubtrees(noteIds, target.place, target.noteId)
             })
         }
     }
 
     fun pasteNotes(clipboard: NotesClipboard, bookId: Long, noteId: Long, place: Place): Int {
-        return db.runInTransaction(Callable {
+        return runInTransaction(Callable {
             pasteNotesClipboard(clipboard, bookId, place, noteId)
         })
     }
@@ -656,7 +781,7 @@ class DataRepository @Inject constructor(
             db.note().get(targetNoteId)
         } ?: return 0
 
-        val targetPosition = TargetPosition.getInstance(db, targetNote, place)
+        val targetPosition = TargetPosition.getInstance(targetNote, place)
 
         val levelOffset = targetPosition.level - 1
 
@@ -675,7 +800,7 @@ class DataRepository @Inject constructor(
                 Clipboard entries: ${clipboard.entries}
                 """.trimIndent())
 
-        makeSpaceForNewNotes(clipboard.count, targetNote, place)
+        val space = allocatePositions(clipboard.count, targetNote, place)
 
         var lastNoteId = 0L
         val parentIds = ArrayDeque<Long>().apply {
@@ -686,8 +811,8 @@ class DataRepository @Inject constructor(
         for (entry in clipboard.entries) {
             val level = levelOffset + entry.note.position.level
 
-            val lft = targetPosition.lft + entry.note.position.lft - 1
-            val rgt = targetPosition.lft + entry.note.position.rgt - 1
+            val lft = space.value(entry.note.position.lft)
+            val rgt = space.value(entry.note.position.rgt)
 
             val foldedUnderId = idsMap[entry.note.position.foldedUnderId]
                     ?: if (targetPosition.foldedUnder != 0L) targetPosition.foldedUnder else 0
@@ -714,6 +839,8 @@ class DataRepository @Inject constructor(
 
             lastNoteId = db.note().insert(note)
 
+            db.noteTag().replaceOwn(lastNoteId, note.tags)
+
             val properties = OrgProperties().apply {
                 entry.properties.forEach {
                     put(it.name, it.value)
@@ -730,10 +857,8 @@ class DataRepository @Inject constructor(
             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Inserted $lastNoteId $note")
         }
 
-        db.noteAncestor().insertAncestorsForNotes(pastedNoteIds)
-
-        // Update descendants count for the target note and its ancestors
-        db.note().updateDescendantsCountForNoteAndAncestors(listOf(targetNote.id))
+        // Update ancestors and descendants count of pasted notes, target note and its ancestors
+        NoteTreeMaintainer(db).attachSubtrees(pastedNoteIds)
 
         unfoldTargetIfMovingUnder(place, targetNote.id)
 
@@ -846,17 +971,16 @@ class DataRepository @Inject constructor(
     private fun moveSubtrees(selectedIds: Set<Long>, place: Place, targetNoteId: Long): Int {
         val targetNote = db.note().get(targetNoteId) ?: return 0
 
-        val targetPosition = TargetPosition.getInstance(db, targetNote, place)
+        val targetPosition = TargetPosition.getInstance(targetNote, place)
 
         val alignedNotes = getSubtreesAligned(selectedIds)
 
-        // Update descendant count for ancestors before move, not counting moved notes themselves
-        db.note().updateDescendantsCountForAncestors(selectedIds, selectedIds)
+        val treeMaintainer = NoteTreeMaintainer(db)
 
-        db.noteAncestor().deleteForSubtrees(selectedIds)
-
-        makeSpaceForNewNotes(alignedNotes.size, targetNote, place)
+        // Update ancestors' descendants count before move, delete moved notes' ancestors
+        treeMaintainer.detachSubtrees(selectedIds)
 
+        val space = allocatePositions(alignedNotes.size, targetNote, place)
 
         val ids = mutableSetOf<Long>()
         val sourceBookIds = mutableSetOf<Long>()
@@ -867,8 +991,8 @@ class DataRepository @Inject constructor(
                     note.id,
                     targetNote.position.bookId,
                     targetPosition.level + note.position.level - 1,
-                    targetPosition.lft + note.position.lft - 1,
-                    targetPosition.lft + note.position.rgt - 1,
+                    space.value(note.position.lft),
+                    space.value(note.position.rgt),
                     // Set parent ID for top-level notes
                     if (note.position.level == 1) {
                         targetPosition.parentId
@@ -881,20 +1005,10 @@ class DataRepository @Inject constructor(
             sourceBookIds.add(note.position.bookId)
         }
 
-        // Update note ancestors table
-        db.noteAncestor().insertAncestorsForNotes(ids)
-
-        db.note().updateDescendantsCountForAncestors(selectedIds)
-
-        db.note().unfoldNotesFoldedUnderOthers(ids)
-        if (targetPosition.foldedUnder != 0L) {
-            db.note().foldUnfolded(ids, targetPosition.foldedUnder)
-        }
-
-        // Update descendants count for the note and its ancestors
-        db.note().updateDescendantsCountForNoteAndAncestors(listOf(targetNote.id))
+        // Update ancestors and descendants count of moved notes and their new ancestors
+        treeMaintainer.attachSubtrees(ids)
 
-        unfoldTargetIfMovingUnder(place, targetNoteId)
+        updateFoldedStateOfMovedNotes(ids, targetPosition, place, targetNoteId)
 
         System.currentTimeMillis().let {
             updateBookIsModified(sourceBookIds, true, it)
@@ -904,6 +1018,17 @@ class DataRepository @Inject constructor(
         return alignedNotes.size
     }
 
+    private fun updateFoldedStateOfMovedNotes(
+            ids: Set<Long>, targetPosition: TargetPosition, place: Place, targetNoteId: Long) {
+
+        db.note().unfoldNotesFoldedUnderOthers(ids)
+        if (targetPosition.foldedUnder != 0L) {
+            db.note().foldUnfolded(ids, targetPosition.foldedUnder)
+        }
+
+        unfoldTargetIfMovingUnder(place, targetNoteId)
+    }
+
     /** Unfold target note and its ancestors if subtree is moved under it. */
     private fun unfoldTargetIfMovingUnder(place: Place, targetNoteId: Long) {
         if (place == Place.UNDER || place == Place.UNDER_AS_FIRST) {
@@ -912,14 +1037,12 @@ class DataRepository @Inject constructor(
     }
 
     data class TargetPosition(
-            val lft: Long = 0,
             val level: Int = 0,
             val parentId: Long = 0,
             val foldedUnder: Long = 0) {
 
         companion object {
-            fun getInstance(db: OrgzlyDatabase, targetNote: Note, place: Place): TargetPosition {
-                val lft: Long
+            fun getInstance(targetNote: Note, place: Place): TargetPosition {
                 val level: Int
                 val parentId: Long
 
@@ -931,29 +1054,12 @@ class DataRepository @Inject constructor(
 
                 when (place) {
                     Place.ABOVE -> {
-                        lft = targetNote.position.lft
                         level = targetNote.position.level
                         parentId = targetNote.position.parentId
                     }
 
                     Place.UNDER -> {
-                        val lastDescendant = db.note().getLastHighestLevelDescendant(
-                                targetNote.position.bookId, targetNote.position.lft, targetNote.position.rgt)
-
-                        if (BuildConfig.LOG_DEBUG)
-                            LogUtils.d(TAG, "lastDescendant: $lastDescendant")
-
-
-                        if (lastDescendant != null) {
-                            // Insert after last descendant with highest level
-                            lft = lastDescendant.position.rgt + 1
-                            level = lastDescendant.position.level
-
-                        } else {
-                            // Insert just under the target note
-                            lft = targetNote.position.lft + 1
-                            level = targetNote.position.level + 1
-                        }
+                        level = targetNote.position.level + 1
 
                         if (targetNote.position.isFolded) {
                             foldedUnder = targetNote.id
@@ -963,7 +1069,6 @@ class DataRepository @Inject constructor(
                     }
 
                     Place.UNDER_AS_FIRST -> {
-                        lft = targetNote.position.lft + 1
                         level = targetNote.position.level + 1
 
                         if (targetNote.position.isFolded) {
@@ -974,7 +1079,6 @@ class DataRepository @Inject constructor(
                     }
 
                     Place.BELOW -> {
-                        lft = targetNote.position.rgt + 1
                         level = targetNote.position.level
                         parentId = targetNote.position.parentId
                     }
@@ -982,7 +1086,7 @@ class DataRepository @Inject constructor(
                     else -> throw IllegalArgumentException("Unsupported place: $place")
                 }
 
-                return TargetPosition(lft, level, parentId, foldedUnder)
+                return TargetPosition(level, parentId, foldedUnder)
             }
         }
     }
@@ -1035,7 +1139,7 @@ class DataRepository @Inject constructor(
     }
 
     fun toggleNoteFoldedState(noteId: Long): Int {
-        return db.runInTransaction(Callable {
+        return runInTransaction(Callable {
             val note = db.note().get(noteId) ?: return@Callable 0
 
             val toggled = db.note().updateIsFolded(note.id, !note.position.isFolded)
@@ -1051,7 +1155,7 @@ class DataRepository @Inject constructor(
     }
 
     fun toggleNoteFoldedStateForSubtree(noteId: Long) {
-        db.runInTransaction {
+        runInTransaction(Callable {
             db.note().get(noteId)?.let { note ->
                 val foldedCount = db.note().getSubtreeFoldedNoteCount(listOf(noteId))
 
@@ -1061,7 +1165,7 @@ class DataRepository @Inject constructor(
                     db.note().unfoldSubtrees(listOf(noteId))
                 }
             }
-        }
+        })
     }
 
     fun setNoteStateToDone(noteId: Long): Int {
@@ -1090,7 +1194,7 @@ class DataRepository @Inject constructor(
     }
 
     fun setNotesState(noteIds: Set<Long>, state: String?): Int {
-        return db.runInTransaction(Callable {
+        return runInTransaction(Callable {
             /*
              * Notebooks must be updated before notes,
              * because this query checks for notes what will be affected.
@@ -1162,33 +1266,277 @@ class DataRepository @Inject constructor(
     }
 
     fun updateNoteContent(bookId: Long, noteId: Long, content: String?) {
-        db.runInTransaction {
+        runInTransaction(Callable {
             db.note().updateContent(noteId, content, MiscUtils.lineCount(content))
 
             updateBookIsModified(bookId, true)
-        }
+        })
     }
 
+    /**
+     * Notes matching the query, reloaded when notes change. Results are shared
+     * with other users of the same query (see [selectNotesFromQuery]).
+     */
     fun selectNotesFromQueryLiveData(queryString: String): LiveData<List<NoteView>> {
-        val parser = InternalQueryParser()
+        val tables = arrayOf("notes", "note_view", "books", "book_data_versions")
+
+        return db.invalidationTracker.createLiveData(tables, false) {
+            selectNotesFromQuery(queryString, forList = true)
+        }
+    }
+
+    /**
+     * Notes matching the query. Result is cached until notes of books
+     * which can match the query are modified, and shared by all callers.
+     * With [forList], only the beginning of each note's content is loaded,
+     * unless content is displayed in search results (see [isContentDisplayedInList]).
+     */
+    fun selectNotesFromQuery(queryString: String, forList: Boolean = false): List<NoteView> {
+        val parts = buildQueryParts(queryString)
 
-        val query = parser.parse(queryString)
+        val sqlQuery = buildSqlQuery(parts, forList)
+
+        val bookNames = QueryUtils.requiredBookNames(parts.query.condition)
+
+        val notes = queryResultCache.get(
+                QueryResultCache.Key(sqlQuery.sql, parts.selectionArgs),
+                getBookDataVersions(bookNames)) {
+
+            db.runInTransaction(Callable {
+                QueryResultCache.Result(getBookDataVersions(bookNames), db.noteView().runQuery(sqlQuery))
+            })
+        }
 
-        val sqlQuery = buildSqlQuery(query)
+        if (queryResultCache.requestsSinceStats >= QUERY_RESULT_CACHE_STATS_EVERY) {
+            logQueryResultCacheStats()
+        }
 
-        return db.noteView().runQueryLiveData(sqlQuery)
+        return notes
     }
 
     fun selectNotesFromQuery(query: Query): List<NoteView> {
-        val sqlQuery = buildSqlQuery(query)
+        val sqlQuery = buildSqlQuery(buildQueryParts(query))
 
         return db.noteView().runQuery(sqlQuery)
     }
 
-    private fun buildSqlQuery(query: Query): SupportSQLiteQuery {
-        val queryBuilder = SqliteQueryBuilder(context)
+    /**
+     * Parsed query string. Recently used queries are not parsed again.
+     */
+    fun parseQuery(queryString: String): Query {
+        return compiledQueries.get(queryString).query
+    }
+
+    /**
+     * Notes matching the query, in the same order as [selectNotesFromQuery],
+     * starting after the last note of the previous page.
+     * Only the beginning of each note's content is loaded,
+     * unless content is displayed in search results (see [isContentDisplayedInList]).
+     */
+    fun selectNotesPageFromQuery(queryString: String, after: NotesPage.Key?, limit: Int): NotesPage {
+        val parts = buildQueryParts(queryString)
+
+        /* With one row per note, continue after the sort keys of the last note. */
+        val isKeyset = parts.groupBy == null
+
+        val paged = if (isKeyset && after?.sortValues != null) {
+            val (condition, args) = keysetCondition(parts.sortKeys, after.sortValues)
+            parts.copy(selection = "${parts.selection} AND $condition", selectionArgs = parts.selectionArgs + args)
+        } else {
+            parts
+        }
+
+        val offset = if (isKeyset) 0 else after?.offset ?: 0
+
+        /* Position (lft) is not unique across books, ID is the last key. */
+        val supportQuery = SupportSQLiteQueryBuilder
+                .builder("(${paged.table})")
+                .columns(arrayOf(searchListColumns(), sortValuesColumn(parts.sortKeys)))
+                .selection(paged.selection, paged.selectionArgs.toTypedArray())
+                .groupBy(paged.groupBy)
+                .having(paged.having)
+                .orderBy("${paged.orderBy}, id")
+                .limit("$offset, $limit")
+                .create()
+
+        val rows = db.noteView().runPageQuery(supportQuery)
+
+        val next = if (rows.size < limit) {
+            null
+        } else if (isKeyset) {
+            NotesPage.Key(parseSqlLiterals(rows.last().sortValues), 0)
+        } else {
+            NotesPage.Key(null, offset + rows.size)
+        }
+
+        return NotesPage(rows.map { it.noteView }, next)
+    }
+
+    /**
+     * Number of rows [selectNotesPageFromQuery] returns for the query, over all pages.
+     */
+    fun countNotesFromQuery(queryString: String): Int {
+        val parts = buildQueryParts(queryString)
+
+        val supportQuery = SupportSQLiteQueryBuilder
+                .builder("(${parts.table})")
+                .columns(arrayOf("id"))
+                .selection(parts.selection, parts.selectionArgs.toTypedArray())
+                .groupBy(parts.groupBy)
+                .having(parts.having)
+                .create()
+
+        return db.query("SELECT COUNT(*) FROM (${supportQuery.sql})", parts.selectionArgs.toTypedArray()).use { cursor ->
+            if (cursor.moveToFirst()) cursor.getInt(0) else 0
+        }
+    }
+
+    /**
+     * Observes tables which query results depend on.
+     */
+    fun addNotesObserver(observer: InvalidationTracker.Observer) {
+        db.invalidationTracker.addObserver(observer)
+    }
+
+    fun removeNotesObserver(observer: InvalidationTracker.Observer) {
+        db.invalidationTracker.removeObserver(observer)
+    }
+
+    /**
+     * Column with values of sort keys (followed by note's ID) of the row, see [NotePageRow.sortValues].
+     * SQLite's quote keeps the type of each value, which matters when comparing them.
+     */
+    private fun sortValuesColumn(sortKeys: List<SqlQuery.SortKey>): String {
+        return (sortKeys.map { it.expression } + "id").joinToString(" || ',' || ", postfix = " AS sort_values") {
+            "quote($it)"
+        }
+    }
+
+    /** Values of [sortValuesColumn]: NULL, numbers and quoted strings. */
+    private fun parseSqlLiterals(literals: String): List<Any?> {
+        val values = mutableListOf<Any?>()
+
+        var i = 0
+
+        while (i < literals.length) {
+            if (literals[i] == '\'') {
+                val value = StringBuilder()
+
+                i++
+
+                while (i < literals.length) {
+                    if (literals[i] == '\'') {
+                        if (i + 1 < literals.length && literals[i + 1] == '\'') { // Escaped quote
+                            value.append('\'')
+                            i += 2
+                        } else {
+                            i++
+                            break
+                        }
+                    } else {
+                        value.append(literals[i++])
+                    }
+                }
+
+                values.add(value.toString())
+
+            } else {
+                val end = literals.indexOf(',', i).let { if (it == -1) literals.length else it }
+
+                val literal = literals.substring(i, end)
+
+                values.add(if (literal == "NULL") null else literal.toLongOrNull() ?: literal.toDouble())
+
+                i = end
+            }
+
+            i++ // Separator
+        }
+
+        return values
+    }
+
+    /**
+     * Condition matching rows sorted after the row with [values] of sort keys (and ID, as the last key).
+     * NULLs sort first in ascending and last in descending order, like in SQLite.
+     */
+    private fun keysetCondition(sortKeys: List<SqlQuery.SortKey>, values: List<Any?>): Pair<String, List<Any?>> {
+        val keys = sortKeys + SqlQuery.SortKey("id", false)
+
+        val args = mutableListOf<Any?>()
+
+        val terms = keys.indices.mapNotNull { i ->
+            val key = keys[i]
+            val value = values[i]
+
+            val after = when {
+                !key.desc && value == null -> "${key.expression} IS NOT NULL"
+                !key.desc -> "${key.expression} > ?"
+                value == null -> return@mapNotNull null
+                else -> "(${key.expression} < ? OR ${key.expression} IS NULL)"
+            }
+
+            val equal = (0 until i).map { j ->
+                args.add(values[j])
+                "${keys[j].expression} IS ?"
+            }
+
+            if (value != null) {
+                args.add(value)
+            }
+
+            (equal + after).joinToString(" AND ", prefix = "(", postfix = ")")
+        }
+
+        return Pair(if (terms.isEmpty()) "0" else terms.joinToString(" OR ", prefix = "(", postfix = ")"), args)
+    }
+
+    /**
+     * With [forList], only the beginning of each note's content is loaded,
+     * unless content is displayed in search results (see [isContentDisplayedInList]).
+     */
+    private fun buildSqlQuery(parts: QueryParts, forList: Boolean = false): SupportSQLiteQuery {
+        val supportQuery = SupportSQLiteQueryBuilder
+                .builder("(${parts.table})")
+                .apply { if (forList) columns(arrayOf(searchListColumns())) }
+                .selection(parts.selection, parts.selectionArgs.toTypedArray())
+                .groupBy(parts.groupBy)
+                .having(parts.having)
+                .orderBy(parts.orderBy)
+                .create()
+
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Selecting notes using query ${parts.query} "
+                    + "with selection args ${parts.selectionArgs}\n${supportQuery.sql}")
+
+        return supportQuery
+    }
+
+    private data class QueryParts(
+            val query: Query,
+            val table: String,
+            val selection: String,
+            val selectionArgs: List<Any?>,
+            val groupBy: String?,
+            val having: String,
+            val orderBy: String,
+            val sortKeys: List<SqlQuery.SortKey>)
+
+    /** Uses cached SQL for recently used queries. Selection args are resolved for every call. */
+    private fun buildQueryParts(queryString: String): QueryParts {
+        val compiled = compiledQueries.get(queryString)
+
+        return buildQueryParts(compiled.query, compiled.sqlQuery)
+    }
+
+    private fun buildQueryParts(query: Query): QueryParts {
+        return buildQueryParts(query, SqliteQueryBuilder(context).build(query))
+    }
+
+    private fun buildQueryParts(query: Query, sqlQuery: SqlQuery): QueryParts {
+        val (selection, _, having, orderBy, hasEvents, sortKeys) = sqlQuery
 
-        val (selection, selectionArgs, having, orderBy) = queryBuilder.build(query)
+        val selectionArgs = sqlQuery.selectionArgs
 
         val s = mutableListOf<String>()
 
@@ -1206,42 +1554,79 @@ class DataRepository @Inject constructor(
 
         val selection2 = if (s.isEmpty()) "0" else TextUtils.join(" AND ", s)
 
-        // For agenda, group by event timestamp too
-        val groupBy = if (query.isAgenda()) {
-            "id, event_timestamp"
-        } else {
-            "id"
+        // For agenda, group by event timestamp too.
+        // Without events there is already a single row per note.
+        val groupBy = when {
+            query.isAgenda() -> "id, event_timestamp"
+            hasEvents -> "id"
+            else -> null
         }
 
-        val supportQuery = SupportSQLiteQueryBuilder
-                .builder("(${NoteViewDao.QUERY_WITH_NOTE_EVENTS})")
-                .selection(selection2, selectionArgs.toTypedArray())
-                .groupBy(groupBy)
-                .having(having)
-                .orderBy(orderBy)
-                .create()
-
-        if (BuildConfig.LOG_DEBUG)
-            LogUtils.d(TAG, "Selecting notes using query $query "
-                    + "with selection args $selectionArgs\n${supportQuery.sql}")
+        val table = if (groupBy != null) NoteViewDao.QUERY_WITH_NOTE_EVENTS else NoteViewDao.QUERY
 
-        return supportQuery
+        return QueryParts(query, table, selection2, selectionArgs, groupBy, having, orderBy, sortKeys)
     }
 
     fun getNotes(bookName: String): List<NoteView> {
         return db.noteView().getBookNotes(bookName)
     }
 
+    /**
+     * Passes the reader of all book's notes, with their properties, for export.
+     * Text rendered using [settings] is cached for each note, until the note is modified.
+     */
+    fun <T> readBookForExport(bookId: Long, settings: String, block: (BookExportReader) -> T): T {
+        return runInTransaction(Callable {
+            BookExportReader(db, bookId, settings).use { reader ->
+                block(reader).also {
+                    if (BuildConfig.LOG_DEBUG)
+                        LogUtils.d(TAG, "Exported book $bookId: ${reader.cachedCount} notes cached, ${reader.renderedCount} rendered")
+                }
+            }
+        })
+    }
+
+    /**
+     * Only the beginning of each note's content is loaded,
+     * unless content is displayed in books (see [isContentDisplayedInList]).
+     */
     fun getVisibleNotesLiveData(bookId: Long, noteId: Long? = null): LiveData<List<NoteView>> {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, bookId)
 
+        val isContentDisplayed = isContentDisplayedInList(inBook = true)
+
         return if (noteId != null) {
             // Only return note's subtree
             db.note().get(noteId)?.let { note ->
-                db.noteView().getVisibleLiveData(bookId, note.position.lft, note.position.rgt)
+                if (isContentDisplayed) {
+                    db.noteView().getVisibleLiveData(bookId, note.position.lft, note.position.rgt)
+                } else {
+                    db.noteView().getVisiblePreviewLiveData(bookId, note.position.lft, note.position.rgt)
+                }
             } ?: MutableLiveData<List<NoteView>>()
         } else {
-            db.noteView().getVisibleLiveData(bookId)
+            if (isContentDisplayed) {
+                db.noteView().getVisibleLiveData(bookId)
+            } else {
+                db.noteView().getVisiblePreviewLiveData(bookId)
+            }
+        }
+    }
+
+    /**
+     * Lists displaying content get the full content of notes,
+     * others only its beginning, enough for the line count.
+     */
+    private fun isContentDisplayedInList(inBook: Boolean): Boolean {
+        return AppPreferences.isNotesContentDisplayedInList(context)
+                && (inBook || AppPreferences.isNotesContentDisplayedInSearch(context))
+    }
+
+    private fun searchListColumns(): String {
+        return if (isContentDisplayedInList(inBook = false)) {
+            NoteViewDao.LIST_COLUMNS
+        } else {
+            NoteViewDao.LIST_PREVIEW_COLUMNS
         }
     }
 
@@ -1265,8 +1650,25 @@ class DataRepository @Inject constructor(
         return db.noteView().get(id)
     }
 
-    fun getLastNoteView(title: String): NoteView? {
-        return db.noteView().getLast(title)
+    /**
+     * Full content of the note, for notes loaded for lists with only the beginning of it.
+     */
+    fun getNoteContent(id: Long): String? {
+        return db.note().getContent(id)
+    }
+
+    /**
+     * Full content of the note, with its beginning ([preview], as loaded for lists)
+     * replaced by [newPreview]. Returns null if content no longer starts with [preview].
+     */
+    fun getNoteContentWithPreviewReplaced(id: Long, preview: String, newPreview: String): String? {
+        return getNoteContent(id)
+                ?.takeIf { it.startsWith(preview) }
+                ?.let { newPreview + it.substring(preview.length) }
+    }
+
+    fun getLastNoteView(title: String): NoteView? {
+        return db.noteView().getLast(title)
     }
 
     fun getLastNote(title: String): Note? {
@@ -1297,20 +1699,23 @@ class DataRepository @Inject constructor(
         return db.note().getNoteAndAncestors(noteId)
     }
 
+    /**
+     * Returns the first note in the book whose outline path (titles of ancestors
+     * and the note itself, joined with "/") matches [fullPath], which starts with the book name.
+     */
     fun getNoteAtPath(fullPath: String): NoteView? {
         val (bookName, path) = run {
             val pathParts = fullPath.split("/")
             if (pathParts.isEmpty()) return null
             pathParts[0] to pathParts.drop(1).joinToString("/")
         }
-        return if (path.split("/").any { it.isNotEmpty() })
-            getNotes(bookName)
-                    .filter { ("/$path").endsWith("/" + it.note.title) }
-                    .firstOrNull { view ->
-                        getNoteAndAncestors(view.note.id)
-                                .joinToString("/") { it.title } == path
-                    }
-        else null
+
+        if (path.split("/").none { it.isNotEmpty() }) {
+            return null
+        }
+
+        return notePathCache.get(fullPath) { db.notePath().getNoteId(bookName, path) }
+                ?.let { getNoteView(it) }
     }
 
     fun getNotesAndSubtrees(ids: Set<Long>): List<Note> {
@@ -1383,7 +1788,7 @@ class DataRepository @Inject constructor(
             notePayload
         }
 
-        return db.runInTransaction(Callable {
+        return runInTransaction(Callable {
             createNote(payload, target, createdAt)
         })
     }
@@ -1406,31 +1811,19 @@ class DataRepository @Inject constructor(
         }
 
         val newNotePosition = when (target.place) {
-            Place.ABOVE -> {
+            Place.ABOVE, Place.BELOW -> {
                 if (targetNote == null) {
                     throw IOException("Target note not found")
                 }
 
-                NotePosition(
-                        bookId = target.bookId,
-                        lft = targetNote.position.lft,
-                        rgt = targetNote.position.lft + 1,
-                        level = targetNote.position.level,
-                        parentId = targetNote.position.parentId)
-            }
-
-            Place.BELOW -> {
-                if (targetNote == null) {
-                    throw IOException("Target note not found")
-                }
+                val space = allocatePositions(1, targetNote, target.place)
 
                 NotePosition(
                         bookId = target.bookId,
-                        lft = targetNote.position.rgt + 1,
-                        rgt = targetNote.position.rgt + 2,
+                        lft = space.value(1),
+                        rgt = space.value(2),
                         level = targetNote.position.level,
-                        parentId = targetNote.position.parentId
-                )
+                        parentId = targetNote.position.parentId)
             }
 
             Place.UNDER -> {
@@ -1438,10 +1831,12 @@ class DataRepository @Inject constructor(
                     throw IOException("Target note not found")
                 }
 
+                val space = allocatePositions(1, targetNote, target.place)
+
                 NotePosition(
                         bookId = target.bookId,
-                        lft = targetNote.position.rgt,
-                        rgt = targetNote.position.rgt + 1,
+                        lft = space.value(1),
+                        rgt = space.value(2),
                         level = targetNote.position.level + 1,
                         parentId = targetNote.id,
                         foldedUnderId = if (targetNote.position.isFolded) targetNote.id else 0
@@ -1454,23 +1849,21 @@ class DataRepository @Inject constructor(
 
             Place.UNSPECIFIED -> {
                 /* If target note is not used, add note at the end with level 1. */
-                val rootRgt = db.note().getMaxRgtForBook(target.bookId) ?: 0
-                val rootId = db.note().getRootNodeId(target.bookId) ?: 0
+                val root = db.note().getRootNode(target.bookId) ?: throw IOException("Root note not found")
+
+                val space = allocatePositions(1, root, Place.UNDER)
 
                 NotePosition(
                         bookId = target.bookId,
-                        lft = rootRgt,
-                        rgt = rootRgt + 1,
+                        lft = space.value(1),
+                        rgt = space.value(2),
                         level = 1,
-                        parentId = rootId
+                        parentId = root.id
                 )
             }
         }
 
-        // Make space for new note
         if (target.place != Place.UNSPECIFIED) {
-            makeSpaceForNewNotes(1, targetNote!!, target.place)
-
             val count = db.note().incrementDescendantsCountForAncestors(
                     target.bookId, newNotePosition.lft, newNotePosition.rgt)
 
@@ -1478,7 +1871,6 @@ class DataRepository @Inject constructor(
                 LogUtils.d(TAG, "Updated descendants_count for $count notes (${target.bookId}, ${newNotePosition.lft}, ${newNotePosition.rgt})")
 
         }
-        db.note().incrementRgtForRootNote(target.bookId)
 
         val noteEntity = Note(
                 0,
@@ -1499,10 +1891,12 @@ class DataRepository @Inject constructor(
 
         val noteId = db.note().insert(noteEntity)
 
+        db.noteTag().replaceOwn(noteId, noteEntity.tags)
         replaceNoteProperties(noteId, notePayload.properties)
         replaceNoteEvents(noteId, notePayload.title, notePayload.content, notePayload.properties)
 
         db.noteAncestor().insertAncestorsForNote(noteId)
+        db.noteView().updateInheritedTags(listOf(noteId))
 
         updateBookIsModified(target.bookId, true, time)
 
@@ -1510,43 +1904,20 @@ class DataRepository @Inject constructor(
     }
 
     /**
-     * Increment notes' lft and rgt to make space for new notes.
+     * Finds lft and rgt values for new notes, see [NotePositionAllocator].
      */
-    private fun makeSpaceForNewNotes(numberOfNotes: Int, targetNote: Note, place: Place) {
-        val spaceRequired = numberOfNotes * 2
-
-        val bookId = targetNote.position.bookId
+    private fun allocatePositions(numberOfNotes: Int, targetNote: Note, place: Place): NotePositionAllocator.Space {
+        val space = NotePositionAllocator(db).allocate(numberOfNotes, targetNote, place)
 
-        when (place) {
-            Place.ABOVE -> {
-                db.note().incrementLftForLftGe(bookId, targetNote.position.lft, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.lft, spaceRequired)
-            }
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Allocated $space for $numberOfNotes notes $place ${targetNote.id}")
 
-            Place.UNDER -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.rgt, spaceRequired)
-                db.note().incrementRgtForRgtGeOrRoot(bookId, targetNote.position.rgt, spaceRequired)
-            }
-
-            Place.UNDER_AS_FIRST -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.lft, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.lft, spaceRequired)
-            }
-
-            Place.BELOW -> {
-                db.note().incrementLftForLftGt(bookId, targetNote.position.rgt, spaceRequired)
-                db.note().incrementRgtForRgtGtOrRoot(bookId, targetNote.position.rgt, spaceRequired)
-            }
-
-            else -> throw IllegalArgumentException("Unsupported paste relative position $place")
-        }
+        return space
     }
 
-
     fun updateNote(noteId: Long, notePayload: NotePayload): Note? {
         val note = db.note().get(noteId) ?: return null
 
-        return db.runInTransaction(Callable {
+        return runInTransaction(Callable {
             updateBookIsModified(note.position.bookId, true)
 
             replaceNoteProperties(noteId, notePayload.properties)
@@ -1566,6 +1937,8 @@ class DataRepository @Inject constructor(
 
             val count = db.note().update(newNote)
 
+            db.noteTag().replaceOwn(noteId, newNote.tags)
+
             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Updated $count note: $newNote")
 
             newNote
@@ -1573,10 +1946,8 @@ class DataRepository @Inject constructor(
     }
 
     fun deleteNotes(bookId: Long, ids: Set<Long>): Int {
-        return db.runInTransaction(Callable {
-            db.noteAncestor().deleteForSubtrees(ids)
-
-            db.note().updateDescendantsCountForAncestors(ids, ids)
+        return runInTransaction(Callable {
+            NoteTreeMaintainer(db).detachSubtrees(ids)
 
             val count = db.note().deleteById(ids)
 
@@ -1596,29 +1967,39 @@ class DataRepository @Inject constructor(
         insertNoteEvents(noteId, title, content, properties)
     }
 
+    private fun insertNoteEvents(noteId: Long, title: String, content: String?, properties: OrgProperties?) {
+        getNoteEventsRangeIds(title, content, properties).forEach { orgRangeId ->
+            db.noteEvent().replace(NoteEvent(noteId, orgRangeId))
+        }
+    }
+
     /**
      * Events may come from the note's title, content or properties
      */
-    private fun insertNoteEvents(noteId: Long, title: String, content: String?, properties: OrgProperties?) {
+    private fun getNoteEventsRangeIds(title: String, content: String?, properties: OrgProperties?): Set<Long> {
+        val ids = LinkedHashSet<Long>()
+
         if (title.isNotEmpty()) {
-            parseAndInsertEvents(noteId, title)
+            parseEvents(title, ids)
         }
 
         if (!content.isNullOrEmpty()) {
-            parseAndInsertEvents(noteId, content)
+            parseEvents(content, ids)
         }
 
         if (properties != null && !properties.isEmpty) {
             for (property: OrgProperty in properties.all) {
-                parseAndInsertEvents(noteId, property.value)
+                parseEvents(property.value, ids)
             }
         }
+
+        return ids
     }
 
-    private fun parseAndInsertEvents(noteId: Long, str: String) {
+    private fun parseEvents(str: String, ids: MutableSet<Long>) {
         OrgActiveTimestamps.parse(str).forEach { range ->
             getOrgRangeId(range)?.let { orgRangeId ->
-                db.noteEvent().replace(NoteEvent(noteId, orgRangeId))
+                ids.add(orgRangeId)
             }
         }
     }
@@ -1649,12 +2030,13 @@ class DataRepository @Inject constructor(
         val tmpFile = getTempBookFile()
         try {
             /* Download from repo. */
-            val vrook = repo.retrieveBook(repoRelativePath, tmpFile)
+            val vrook = retrieveBook(repo, repoRelativePath, tmpFile)
 
             val bookName = BookName.fromRepoRelativePath(repoRelativePath)
 
-            /* Store from file to Shelf. */
-            book = loadBookFromFile(bookName.name, bookName.format, tmpFile, vrook)
+            /* Store from file to Shelf, unless it's the content we already have. */
+            book = updateSyncIfContentUnchanged(bookName.name, vrook)
+                    ?: loadBookFromFile(bookName.name, bookName.format, tmpFile, vrook)
 
         } finally {
             tmpFile.delete()
@@ -1663,6 +2045,106 @@ class DataRepository @Inject constructor(
         return book
     }
 
+    /**
+     * Downloads and parses the book, without writing it to the database.
+     * Safe to call from multiple threads at once. Use [loadParsedBook] to store the result.
+     */
+    @Throws(IOException::class)
+    fun parseBookFromRepo(rook: Rook): ParsedBook {
+        val repoRelativePath = BookName.getRepoRelativePath(rook.repoUri, rook.uri)
+
+        val repo = getRepoInstance(rook.repoId, rook.repoType, rook.repoUri.toString())
+
+        val tmpFile = getTempBookFile()
+        try {
+            /* Download from repo. */
+            val vrook = retrieveBook(repo, repoRelativePath, tmpFile)
+
+            val bookName = BookName.fromRepoRelativePath(repoRelativePath)
+
+            if (isContentUnchanged(bookName.name, vrook)) {
+                return ParsedBook(bookName.name, vrook, null)
+            }
+
+            val selectedEncoding = if (AppPreferences.forceUtf8(context)) "UTF-8" else null
+
+            val knownEncoding = getKnownEncoding(bookName.name, vrook)
+
+            return Encoding.read(tmpFile, selectedEncoding, knownEncoding) { encoding, reader ->
+                ParsedBook(bookName.name, vrook, encoding).also { parsedBook ->
+                    parseBook(reader, parsedBook)
+                }
+            }
+
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    /**
+     * Writes the book parsed by [parseBookFromRepo].
+     */
+    @Throws(IOException::class)
+    fun loadParsedBook(parsedBook: ParsedBook): BookView? {
+        if (parsedBook.encoding == null) {
+            /* Not parsed, as the content was the same as the one already loaded. */
+            return updateSyncIfContentUnchanged(parsedBook.name, parsedBook.vrook!!)
+                    ?: loadBookFromRepo(parsedBook.vrook) // Book modified in the meantime
+        }
+
+        val bookId = runInTransaction(Callable {
+            loadBook(parsedBook.name, parsedBook.vrook, parsedBook.encoding) { listener ->
+                parsedBook.replay(listener)
+            }
+        })
+
+        return getBookView(bookId)
+    }
+
+    /**
+     * Downloads the book, computing the digest of its content if the repository didn't provide one.
+     */
+    @Throws(IOException::class)
+    private fun retrieveBook(repo: SyncRepo, repoRelativePath: String, destination: File): VersionedRook {
+        val vrook = repo.retrieveBook(repoRelativePath, destination)
+
+        return VersionedRook(vrook, vrook.revision, vrook.mtime, vrook.contentHash ?: MiscUtils.sha1(destination))
+    }
+
+    /**
+     * Returns true if the book exists, was not modified and was last synced with the same content.
+     * Revision and mtime could still be different (file touched or rewritten with the same content).
+     */
+    private fun isContentUnchanged(bookName: String, vrook: VersionedRook): Boolean {
+        val book = getBookView(bookName) ?: return false
+
+        return vrook.contentHash != null
+                && !book.book.isDummy
+                && !book.isModified()
+                && book.syncedTo?.contentHash == vrook.contentHash
+    }
+
+    /**
+     * Updates only the sync information if the content of the remote book is the same
+     * as the one already loaded, skipping parsing and rewriting of notes.
+     */
+    private fun updateSyncIfContentUnchanged(bookName: String, vrook: VersionedRook): BookView? {
+        val bookId = runInTransaction(Callable {
+            if (isContentUnchanged(bookName, vrook)) {
+                getBookView(bookName)?.let { book ->
+                    updateBookLinkAndSync(book.book.id, vrook)
+                    book.book.id
+                }
+            } else {
+                null
+            }
+        }) ?: return null
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "$bookName: Content unchanged, updated sync to $vrook")
+
+        return getBookView(bookId)
+    }
+
     @Throws(IOException::class)
     fun loadBookFromStream(name: String, format: BookFormat, inputStream: InputStream): BookView? {
         /* Save content to temporary file. */
@@ -1705,16 +2187,15 @@ class DataRepository @Inject constructor(
             selectedEncoding: String?): Long {
 
         try {
-            val encoding = Encoding.detect(filePath, selectedEncoding)
-
-            return db.runInTransaction(Callable {
-                loadBookFromReader(
-                        bookName,
-                        vrook,
-                        InputStreamReader(FileInputStream(File(filePath)), encoding.used),
-                        encoding
-                )
-            })
+            val knownEncoding = vrook?.let { getKnownEncoding(bookName, it) }
+
+            return Encoding.read(File(filePath), selectedEncoding, knownEncoding) { encoding, reader ->
+                runInTransaction(Callable {
+                    loadBook(bookName, vrook, encoding) { listener ->
+                        parseBook(reader, listener)
+                    }
+                })
+            }
 
         } catch (e: IOException) {
             e.printStackTrace()
@@ -1726,12 +2207,57 @@ class DataRepository @Inject constructor(
         }
     }
 
+    /**
+     * Encoding detected when the book was last loaded, if it was loaded from
+     * the same repository file, with the same revision or content.
+     */
+    private fun getKnownEncoding(bookName: String, vrook: VersionedRook): Encoding? {
+        val book = getBookView(bookName) ?: return null
+
+        val syncedTo = book.syncedTo ?: return null
+
+        val usedEncoding = book.book.usedEncoding ?: return null
+
+        if (book.book.selectedEncoding != null) {
+            return null
+        }
+
+        if (syncedTo.repoId != vrook.repoId || syncedTo.uri != vrook.uri) {
+            return null
+        }
+
+        val isSameVersion = syncedTo.revision == vrook.revision
+                || (vrook.contentHash != null && syncedTo.contentHash == vrook.contentHash)
+
+        return if (isSameVersion) Encoding(usedEncoding, book.book.detectedEncoding, null) else null
+    }
+
     @Throws(IOException::class)
-    private fun loadBookFromReader(
+    private fun parseBook(inReader: Reader, listener: OrgNestedSetParserListener) {
+        BufferedReader(inReader).use { reader ->
+            /*
+             * Create and run parser.
+             * When multiple formats are supported, decide which parser to use here.
+             */
+            OrgParser.Builder()
+                    .setInput(reader)
+                    .setTodoKeywords(AppPreferences.todoKeywordsSet(context))
+                    .setDoneKeywords(AppPreferences.doneKeywordsSet(context))
+                    .setListener(listener)
+                    .build()
+                    .parse()
+        }
+    }
+
+    /**
+     * Writes the book, with nodes reported to the listener passed to [parse].
+     */
+    @Throws(IOException::class)
+    private fun loadBook(
             bookName: String,
             vrook: VersionedRook?,
-            inReader: Reader,
-            encoding: Encoding): Long {
+            encoding: Encoding,
+            parse: (OrgNestedSetParserListener) -> Unit): Long {
 
         val startedAt = System.currentTimeMillis()
 
@@ -1739,136 +2265,98 @@ class DataRepository @Inject constructor(
 
         val bookId = db.book().getOrInsert(bookName)
 
-        // Delete all notes from this book
-        db.note().deleteByBookId(bookId)
+        orgRangeIdCache.warmUp()
 
         /*
-         * Maps node's lft to database id.
-         * Used to update parent id and insert ancestors.
-         * Not using SparseArray as speed is preferred over memory here.
+         * If the book already has notes, collect parsed nodes and
+         * write only the changes, keeping IDs of the existing notes.
          */
-        @SuppressLint("UseSparseArrays") val lft2id = HashMap<Long, Long>()
-
-        /* Set of ids for which parent is already set. */
-        val notesWithParentSet = HashSet<Long>()
+        val reloadedNodes = if (db.note().getCount(bookId) > 0) ArrayList<OrgNodeInSet>() else null
 
+        if (reloadedNodes == null) {
+            // Delete all notes from this book
+            db.note().deleteByBookId(bookId)
+        }
 
         val useCreatedAtProperty = AppPreferences.createdAt(context)
         val createdAtProperty = AppPreferences.createdAtProperty(context)
         val startFolded = AppPreferences.notebooksStartFolded(context)
 
-        BufferedReader(inReader).use { reader ->
-            /*
-             * Create and run parser.
-             * When multiple formats are supported, decide which parser to use here.
-             */
-            OrgParser.Builder()
-                    .setInput(reader)
-                    .setTodoKeywords(AppPreferences.todoKeywordsSet(context))
-                    .setDoneKeywords(AppPreferences.doneKeywordsSet(context))
-                    .setListener(object : OrgNestedSetParserListener {
-                        @Throws(IOException::class)
-                        override fun onNode(node: OrgNodeInSet) {
-
-                            val scheduledRangeId = getOrgRangeId(node.head.scheduled)
-                            val deadlineRangeId = getOrgRangeId(node.head.deadline)
-                            val closedRangeId = getOrgRangeId(node.head.closed)
-                            val clockRangeId = getOrgRangeId(node.head.clock)
-
-                            var content: String? = null
-                            var contentLineCount = 0
-
-                            if (node.head.hasContent()) {
-                                content = node.head.content
-                                contentLineCount = MiscUtils.lineCount(node.head.content)
-                            }
-
-                            val position = NotePosition(
-                                    bookId = bookId,
-                                    lft = node.lft,
-                                    rgt = node.rgt,
-                                    level = node.level,
-                                    parentId = 0,
-                                    foldedUnderId = 0,
-                                    isFolded = startFolded && node.level > 0,
-                                    descendantsCount = node.descendantsCount)
-
-                            val note = Note(
-                                    0,
-                                    title = node.head.title,
-                                    priority = node.head.priority,
-                                    state = node.head.state,
-                                    scheduledRangeId = scheduledRangeId,
-                                    deadlineRangeId = deadlineRangeId,
-                                    closedRangeId = closedRangeId,
-                                    clockRangeId = clockRangeId,
-                                    tags = if (node.head.hasTags()) Note.dbSerializeTags(node.head.tags) else null,
-                                    createdAt = getCreatedAtFromProperty(node, useCreatedAtProperty, createdAtProperty),
-                                    content = content,
-                                    contentLineCount = contentLineCount,
-                                    position = position
-                            )
-
-                            val noteId = db.note().insert(note)
-
-                            insertNoteProperties(noteId, node.head.properties)
-                            insertNoteEvents(noteId, note.title, note.content, node.head.properties)
-
-                            /*
-                             * Update notes' parent IDs and insert ancestors.
-                             * Going through all descendants - nodes between lft and rgt.
-                             *
-                             *  lft:  1    2    3    4    5   6
-                             *            L2   l1   r2   R2
-                             */
-                            lft2id[node.lft] = noteId
-                            for (index in node.lft + 1 until node.rgt) {
-                                val descendantId = lft2id[index]
-                                if (descendantId != null) {
-                                    if (!notesWithParentSet.contains(descendantId)) {
-                                        db.note().updateParentForNote(descendantId, noteId)
-
-                                        if (startFolded && position.level > 0) {
-                                            db.note().setFoldedUnder(descendantId, noteId)
-                                        }
-
-                                        notesWithParentSet.add(descendantId)
-                                    }
-
-                                    db.noteAncestor().insert(NoteAncestor(
-                                            noteId = descendantId,
-                                            bookId = bookId,
-                                            ancestorNoteId = noteId))
-                                }
-                            }
-                        }
+        val inserter = NoteTreeInserter(db, bookId, startFolded)
 
-                        @Throws(IOException::class)
-                        override fun onFile(file: OrgFile) {
-                            val book = Book(
-                                    bookId,
-                                    bookName,
-                                    mtime = vrook?.mtime, // Set book's mtime to remote book's
-                                    preface = file.preface, // TODO: Move to and rename OrgFileSettings
-                                    isIndented = file.settings.isIndented,
-                                    title = file.settings.title,
-                                    isDummy = false,
-                                    usedEncoding = encoding.used,
-                                    detectedEncoding = encoding.detected,
-                                    selectedEncoding = encoding.selected
-                            )
-
-                            db.book().update(book)
-                        }
+        try {
+            parse(object : OrgNestedSetParserListener {
+                @Throws(IOException::class)
+                override fun onNode(node: OrgNodeInSet) {
+                    if (reloadedNodes != null) {
+                        reloadedNodes.add(node)
+                        return
+                    }
 
-                    })
-                    .build()
-                    .parse()
+                    val position = NotePosition(
+                            bookId = bookId,
+                            lft = NotePositionAllocator.sparse(node.lft),
+                            rgt = NotePositionAllocator.sparse(node.rgt),
+                            level = node.level,
+                            parentId = 0,
+                            foldedUnderId = 0,
+                            isFolded = startFolded && node.level > 0,
+                            descendantsCount = node.descendantsCount)
+
+                    val note = noteFromNode(node, position, useCreatedAtProperty, createdAtProperty)
+
+                    /*
+                     * Parent IDs, folded-under IDs and ancestors are resolved
+                     * by the inserter, as the node is reported after its descendants.
+                     */
+                    inserter.insert(
+                            note,
+                            node.head.properties,
+                            getNoteEventsRangeIds(note.title, note.content, node.head.properties))
+                }
+
+                @Throws(IOException::class)
+                override fun onFile(file: OrgFile) {
+                    val book = Book(
+                            bookId,
+                            bookName,
+                            mtime = vrook?.mtime, // Set book's mtime to remote book's
+                            preface = file.preface, // TODO: Move to and rename OrgFileSettings
+                            isIndented = file.settings.isIndented,
+                            title = file.settings.title,
+                            isDummy = false,
+                            usedEncoding = encoding.used,
+                            detectedEncoding = encoding.detected,
+                            selectedEncoding = encoding.selected
+                    )
+
+                    db.book().update(book)
+                }
+
+            })
+        } finally {
+            inserter.close()
+        }
+
+        if (reloadedNodes != null) {
+            reloadNotes(bookId, reloadedNodes, startFolded, useCreatedAtProperty, createdAtProperty)
+
+        } else {
+            /* Notes were inserted after their descendants, resolve all paths at once. */
+            db.compileStatement(NotePathDao.replacePaths("notes.book_id = ?")).use { statement ->
+                statement.bindLong(1, bookId)
+                statement.executeUpdateDelete()
+            }
+
+            db.noteView().updateInheritedTagsForBook(bookId)
         }
 
         if (BuildConfig.LOG_DEBUG)
             LogUtils.d(TAG, bookName + ": Parsing done in " +
-                    (System.currentTimeMillis() - startedAt) + " ms")
+                    (System.currentTimeMillis() - startedAt) + " ms " +
+                    "(${inserter.notesCount} notes, ${inserter.ancestorsCount} ancestors)")
+
+        logOrgRangeIdCacheStats(bookName)
 
         if (vrook != null) {
             updateBookLinkAndSync(bookId, vrook)
@@ -1879,6 +2367,203 @@ class DataRepository @Inject constructor(
         return bookId
     }
 
+    private fun noteFromNode(
+            node: OrgNodeInSet,
+            position: NotePosition,
+            useCreatedAtProperty: Boolean,
+            createdAtProperty: String): Note {
+
+        var content: String? = null
+        var contentLineCount = 0
+
+        if (node.head.hasContent()) {
+            content = node.head.content
+            contentLineCount = MiscUtils.lineCount(node.head.content)
+        }
+
+        return Note(
+                0,
+                title = node.head.title,
+                priority = node.head.priority,
+                state = node.head.state,
+                scheduledRangeId = getOrgRangeId(node.head.scheduled),
+                deadlineRangeId = getOrgRangeId(node.head.deadline),
+                closedRangeId = getOrgRangeId(node.head.closed),
+                clockRangeId = getOrgRangeId(node.head.clock),
+                tags = if (node.head.hasTags()) Note.dbSerializeTags(node.head.tags) else null,
+                createdAt = getCreatedAtFromProperty(node, useCreatedAtProperty, createdAtProperty),
+                content = content,
+                contentLineCount = contentLineCount,
+                position = position
+        )
+    }
+
+    private data class ReloadedNote(
+            val id: Long,
+            val level: Int,
+            val isFolded: Boolean,
+            val ancestorsChanged: Boolean)
+
+    /**
+     * Updates notes of the already loaded book to match the newly parsed nodes.
+     *
+     * Unchanged notes keep their IDs and are only updated if their position has changed.
+     * Modified notes are updated in place, new notes are inserted and notes which
+     * no longer exist are deleted. See [NoteTreeDiff] for how the notes are matched.
+     */
+    private fun reloadNotes(
+            bookId: Long,
+            nodes: List<OrgNodeInSet>,
+            startFolded: Boolean,
+            useCreatedAtProperty: Boolean,
+            createdAtProperty: String) {
+
+        val startedAt = System.currentTimeMillis()
+
+        val newNodes = nodes.sortedBy { it.lft }
+
+        /* Cut notes are not in the file, they are deleted like when the book is loaded anew. */
+        db.note().deleteCutByBookId(bookId)
+
+        val oldNotes = db.note().getForReload(bookId)
+
+        val oldProperties = db.noteProperty().getForBook(bookId).groupBy { it.noteId }
+
+        val diff = NoteTreeDiff(
+                oldNotes.map { old ->
+                    val note = old.note
+                    NoteTreeDiff.Entry(note.position.level, note.title, NoteTreeDiff.hash(
+                            note.title, note.tags, note.state, note.priority,
+                            old.scheduled, old.deadline, old.closed, old.clock,
+                            note.content,
+                            oldProperties[note.id].orEmpty().map { it.name to it.value }))
+                },
+                newNodes.map { node ->
+                    val head = node.head
+                    NoteTreeDiff.Entry(node.level, head.title, NoteTreeDiff.hash(
+                            head.title,
+                            if (head.hasTags()) Note.dbSerializeTags(head.tags) else null,
+                            head.state, head.priority,
+                            head.scheduled?.toString(), head.deadline?.toString(),
+                            head.closed?.toString(), head.clock?.toString(),
+                            if (head.hasContent()) head.content else null,
+                            head.properties.all.map { it.name to it.value }))
+                })
+
+        db.note().deleteByIds(diff.deleted.map { oldNotes[it].note.id })
+
+        /* Ancestors of the current node, root first. */
+        val ancestors = ArrayDeque<ReloadedNote>()
+
+        /* Notes whose inherited tags are updated after all ancestors are written. */
+        val ancestorsChangedIds = ArrayList<Long>()
+
+        var inserted = 0
+        var updated = 0
+        var moved = 0
+
+        newNodes.forEachIndexed { i, node ->
+            while (ancestors.isNotEmpty() && ancestors.peekLast()!!.level >= node.level) {
+                ancestors.removeLast()
+            }
+
+            val old = diff.matches[i].let { if (it != -1) oldNotes[it].note else null }
+
+            val parentId = ancestors.peekLast()?.id ?: 0
+
+            val isFolded = old?.position?.isFolded ?: (startFolded && node.level > 0)
+
+            // Keep folded-under if it's still one of the ancestors, use the topmost folded ancestor otherwise
+            val foldedUnderId = old?.position?.foldedUnderId?.takeIf { id ->
+                ancestors.any { it.id == id }
+            } ?: ancestors.firstOrNull { it.isFolded && it.level > 0 }?.id ?: 0
+
+            val position = NotePosition(
+                    bookId = bookId,
+                    lft = NotePositionAllocator.sparse(node.lft),
+                    rgt = NotePositionAllocator.sparse(node.rgt),
+                    level = node.level,
+                    parentId = parentId,
+                    foldedUnderId = foldedUnderId,
+                    isFolded = isFolded,
+                    descendantsCount = node.descendantsCount)
+
+            val noteId: Long
+
+            when {
+                old == null -> {
+                    val note = noteFromNode(node, position, useCreatedAtProperty, createdAtProperty)
+
+                    noteId = db.note().insert(note)
+
+                    db.noteTag().replaceOwn(noteId, note.tags)
+                    insertNoteProperties(noteId, node.head.properties)
+                    insertNoteEvents(noteId, note.title, note.content, node.head.properties)
+
+                    inserted++
+                }
+
+                !diff.unchanged[i] -> {
+                    noteId = old.id
+
+                    val note = noteFromNode(node, position, useCreatedAtProperty, createdAtProperty)
+
+                    db.note().update(note.copy(id = noteId, isCut = old.isCut, createdAt = note.createdAt ?: old.createdAt))
+
+                    db.noteTag().replaceOwn(noteId, note.tags)
+                    replaceNoteProperties(noteId, node.head.properties)
+                    replaceNoteEvents(noteId, note.title, note.content, node.head.properties)
+
+                    updated++
+                }
+
+                else -> {
+                    noteId = old.id
+
+                    if (old.position != position) {
+                        db.note().updatePosition(
+                                noteId,
+                                position.lft,
+                                position.rgt,
+                                position.level,
+                                position.parentId,
+                                position.foldedUnderId,
+                                position.descendantsCount)
+
+                        moved++
+                    }
+                }
+            }
+
+            val ancestorsChanged = old == null
+                    || old.position.parentId != parentId
+                    || ancestors.peekLast()?.ancestorsChanged == true
+
+            if (ancestorsChanged) {
+                if (old != null) {
+                    db.noteAncestor().deleteForNote(noteId)
+                }
+
+                ancestors.forEach { ancestor ->
+                    db.noteAncestor().insert(NoteAncestor(noteId, bookId, ancestor.id))
+                }
+
+                ancestorsChangedIds.add(noteId)
+            }
+
+            ancestors.addLast(ReloadedNote(noteId, node.level, isFolded, ancestorsChanged))
+        }
+
+        ancestorsChangedIds.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).forEach {
+            db.noteView().updateInheritedTags(it)
+        }
+
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Reloaded ${newNodes.size} notes in ${System.currentTimeMillis() - startedAt} ms: " +
+                    "${diff.matchedCount} matched (${diff.unchangedCount} unchanged), " +
+                    "$inserted inserted, $updated updated, $moved repositioned, ${diff.deleted.size} deleted")
+    }
+
     private fun getOrgRangeId(range: String?): Long? {
         return getOrgRangeId(OrgRange.parseOrNull(range))
     }
@@ -1888,24 +2573,50 @@ class DataRepository @Inject constructor(
             return null
         }
 
-        val str = range.toString()
+        return orgRangeIdCache.getRangeId(range)
+    }
 
-        val entity = db.orgRange().getByString(str)
+    /**
+     * Runs the transaction, dropping cached range and timestamp IDs if it fails,
+     * as some of them could belong to the rows which were just rolled back.
+     * Used for all transactions which write.
+     */
+    private fun <V> runInTransaction(body: Callable<V>): V {
+        try {
+            return db.runInTransaction(body)
+        } catch (e: Exception) {
+            orgRangeIdCache.clear()
+            throw e
+        }
+    }
 
-        if (entity != null) {
-            return entity.id
+    /** Data versions of books named [bookNames], or of all books. */
+    private fun getBookDataVersions(bookNames: Set<String>?): Set<BookDataVersionDao.NamedVersion> {
+        return if (bookNames != null) {
+            db.bookDataVersion().get(bookNames).toSet()
+        } else {
+            db.bookDataVersion().getAll().toSet()
         }
+    }
 
-        val startId = getOrgDateTimeId(range.startTime)
+    private fun logQueryResultCacheStats() {
+        val stats = queryResultCache.takeStats()
 
-        val rangeEndTime = if (range.endTime != null) {
-            range.endTime
-        } else {
-            null
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Query results: $stats")
+
+        if (LogMajorEvents.isEnabled()) {
+            appLogs.log(LogMajorEvents.CACHE, "Query results: $stats")
         }
-        val endId = if (rangeEndTime != null) getOrgDateTimeId(rangeEndTime) else null
+    }
+
+    private fun logOrgRangeIdCacheStats(bookName: String) {
+        val stats = orgRangeIdCache.takeStats()
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "$bookName: Range and timestamp IDs: $stats")
 
-        return db.orgRange().insert(OrgRange(0, str, startId, endId))
+        if (LogMajorEvents.isEnabled()) {
+            appLogs.log(LogMajorEvents.CACHE, "Loaded $bookName, range and timestamp IDs: $stats")
+        }
     }
 
     fun openBookForNote(noteId: Long, sparseTree: Boolean) {
@@ -1914,12 +2625,12 @@ class DataRepository @Inject constructor(
         if (noteView != null) {
             val bookId = noteView.note.position.bookId
 
-            db.runInTransaction {
+            runInTransaction(Callable {
                 if (sparseTree) {
                     foldAllNotes(bookId)
                 }
                 unfoldForNote(noteId)
-            }
+            })
 
             // Open book
             // FIXME: Runs with delay to be executed after the observer for unfoldForNote
@@ -1934,12 +2645,6 @@ class DataRepository @Inject constructor(
         }
     }
 
-    private fun getOrgDateTimeId(timestamp: OrgDateTime): Long {
-        return db.orgTimestamp().getByString(timestamp.toString()).let {
-            it?.id ?: db.orgTimestamp().insert(OrgTimestampMapper.fromOrgDateTime(timestamp))
-        }
-    }
-
     private fun getCreatedAtFromProperty(node: OrgNodeInSet, use: Boolean, name: String): Long? {
         if (use) {
             if (node.head.properties.containsKey(name)) {
@@ -2033,10 +2738,10 @@ class DataRepository @Inject constructor(
     }
 
     private fun swapSavedSearchPositions(savedSearch: SavedSearch, other: SavedSearch) {
-        db.runInTransaction {
+        runInTransaction(Callable {
             db.savedSearch().update(savedSearch.copy(position = other.position))
             db.savedSearch().update(other.copy(position = savedSearch.position))
-        }
+        })
     }
 
     fun exportSavedSearches(uri: Uri?): Int {
@@ -2119,17 +2824,11 @@ class DataRepository @Inject constructor(
      * Return all known tags
      */
     fun selectAllTagsLiveData(): LiveData<List<String>> {
-        return db.note().getDistinctTagsLiveData().map { tagsList ->
-            tagsList.flatMap { Note.dbDeSerializeTags(it) }.distinct().sorted()
-        }
+        return db.noteTag().getDistinctLiveData().map { it.sorted() }
     }
 
     fun selectAllTags(): List<String> {
-        return db.note().getDistinctTags()
-                .flatMap { tagsList ->
-                    Note.dbDeSerializeTags(tagsList)
-                }
-                .distinct()
+        return db.noteTag().getDistinct()
     }
 
     /**
@@ -2144,9 +2843,11 @@ class DataRepository @Inject constructor(
 
         var updated = 0
 
+        val updatedBookIds = mutableSetOf<Long>()
+
         val parserWriter = OrgParserWriter()
 
-        db.runInTransaction {
+        runInTransaction(Callable {
             db.noteView().getAll().forEach { noteView ->
                 val note = noteView.note
 
@@ -2172,9 +2873,18 @@ class DataRepository @Inject constructor(
                         !TextUtils.equals(newHead.priority, head.priority)) {
 
                     updated += db.note().update(note.id, newHead.title, newHead.state, newHead.priority)
+
+                    updatedBookIds.add(note.position.bookId)
                 }
             }
-        }
+
+            /* Books' content is the same, only query results and paths change. */
+            if (updatedBookIds.isNotEmpty()) {
+                db.bookDataVersion().increment(updatedBookIds)
+
+                notePathCache.clear()
+            }
+        })
 
         return updated
     }
@@ -2184,9 +2894,9 @@ class DataRepository @Inject constructor(
      */
     @Throws(IOException::class)
     fun syncCreatedAtTimeWithProperty() {
-        db.runInTransaction {
+        runInTransaction(Callable {
             syncCreatedAtTimeWithPropertyInTransaction()
-        }
+        })
     }
 
     private fun syncCreatedAtTimeWithPropertyInTransaction() {
@@ -2300,7 +3010,7 @@ class DataRepository @Inject constructor(
     fun importGettingStartedBook() {
         val name = resources.getString(R.string.getting_started_notebook_name)
 
-        db.runInTransaction {
+        runInTransaction(Callable {
             val book = loadBookFromResource(
                     name,
                     BookFormat.ORG,
@@ -2312,18 +3022,22 @@ class DataRepository @Inject constructor(
                         BookAction.Type.INFO,
                         resources.getString(R.string.loaded_from_resource, name)))
             }
-        }
+        })
     }
 
     /**
      * Clear all data from tables.
      */
     fun clearDatabase() {
-        db.runInTransaction {
+        runInTransaction(Callable {
             db.clearAllTables()
 
             OrgzlyDatabase.insertDefaultSearches(db.openHelper.writableDatabase)
-        }
+        })
+
+        orgRangeIdCache.clear()
+        notePathCache.clear()
+        queryResultCache.clear()
 
         // Clear last sync time
         AppPreferences.lastSuccessfulSyncTime(context, 0L)
@@ -2386,5 +3100,8 @@ class DataRepository @Inject constructor(
         private val TAG = DataRepository::class.java.name
 
         const val GETTING_STARTED_NOTEBOOK_RESOURCE_ID = R.raw.orgzly_getting_started
+
+        /** Number of cached query requests between statistics reports. */
+        private const val QUERY_RESULT_CACHE_STATS_EVERY = 100
     }
 }
@@ -0,0 +1,125 @@
+package com.orgzly.android.data
+
+import com.orgzly.android.util.MiscUtils
+
+/**
+ * Matches notes of the newly parsed book with the notes already in the database,
+ * so that only changed notes need to be written when the book is reloaded.
+ *
+ * Both lists must be in lft order. Each note is identified by its outline path
+ * (titles of all ancestors and its own, with an occurrence number for duplicates)
+ * and by the hash of its content.
+ *
+ * Matching is done in order of preference:
+ *  1. Same path and same content - note is unchanged (but could have its position changed).
+ *  2. Same content only - note has been moved.
+ *  3. Same path only - note has been modified in place.
+ *
+ * Unmatched new notes are inserted, unmatched old notes are deleted.
+ */
+class NoteTreeDiff(old: List<Entry>, new: List<Entry>) {
+
+    data class Entry(val level: Int, val title: String, val hash: Long)
+
+    /** For each new note, index of the matched old note or -1. */
+    val matches = IntArray(new.size) { -1 }
+
+    /** For each new note, true if matched old note has the same content. */
+    val unchanged = BooleanArray(new.size)
+
+    /** Indexes of old notes which have not been matched. */
+    val deleted: List<Int>
+
+    init {
+        val oldPaths = paths(old)
+        val newPaths = paths(new)
+
+        val isOldMatched = BooleanArray(old.size)
+
+        fun match(newKey: (Int) -> Any, oldKey: (Int) -> Any, isUnchanged: Boolean) {
+            val available = HashMap<Any, ArrayDeque<Int>>()
+
+            for (i in old.indices) {
+                if (!isOldMatched[i]) {
+                    available.getOrPut(oldKey(i)) { ArrayDeque() }.addLast(i)
+                }
+            }
+
+            for (i in new.indices) {
+                if (matches[i] == -1) {
+                    available[newKey(i)]?.removeFirstOrNull()?.let { oldIndex ->
+                        matches[i] = oldIndex
+                        unchanged[i] = isUnchanged
+                        isOldMatched[oldIndex] = true
+                    }
+                }
+            }
+        }
+
+        match({ Pair(newPaths[it], new[it].hash) }, { Pair(oldPaths[it], old[it].hash) }, true)
+        match({ new[it].hash }, { old[it].hash }, true)
+        match({ newPaths[it] }, { oldPaths[it] }, false)
+
+        deleted = old.indices.filter { !isOldMatched[it] }
+    }
+
+    val matchedCount: Int
+        get() = matches.count { it != -1 }
+
+    val unchangedCount: Int
+        get() = unchanged.count { it }
+
+    companion object {
+        /**
+         * Outline path of each note, with occurrence number appended
+         * to distinguish notes with the same path.
+         */
+        private fun paths(entries: List<Entry>): Array<String> {
+            val titles = ArrayDeque<Entry>()
+            val occurrences = HashMap<String, Int>()
+
+            return Array(entries.size) { i ->
+                val entry = entries[i]
+
+                while (titles.isNotEmpty() && titles.last().level >= entry.level) {
+                    titles.removeLast()
+                }
+                titles.addLast(entry)
+
+                val path = titles.joinToString("/") { it.title }
+
+                val occurrence = occurrences.getOrElse(path) { 0 }
+                occurrences[path] = occurrence + 1
+
+                "$path#$occurrence"
+            }
+        }
+
+        @JvmStatic
+        fun hash(
+                title: String,
+                tags: String?,
+                state: String?,
+                priority: String?,
+                scheduled: String?,
+                deadline: String?,
+                closed: String?,
+                clock: String?,
+                content: String?,
+                properties: List<Pair<String, String>>): Long {
+
+            val str = StringBuilder().apply {
+                listOf(title, tags, state, priority, scheduled, deadline, closed, clock, content).forEach {
+                    append(it.orEmpty()).append(SEPARATOR)
+                }
+                properties.forEach { (name, value) ->
+                    append(name).append(SEPARATOR).append(value).append(SEPARATOR)
+                }
+            }
+
+            return MiscUtils.sha1(str.toString())
+        }
+
+        private const val SEPARATOR = '\u0000'
+    }
+}
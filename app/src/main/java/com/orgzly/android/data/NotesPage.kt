@@ -0,0 +1,16 @@
+package com.orgzly.android.data
+
+import com.orgzly.android.db.entity.NoteView
+
+/**
+ * Notes returned by [DataRepository.selectNotesPageFromQuery].
+ * [next] is null if there are no more notes.
+ */
+class NotesPage(val notes: List<NoteView>, val next: Key?) {
+
+    /**
+     * Where the next page starts: after the row with [sortValues] (values of sort keys of the last note),
+     * or, for queries with a row per note and event, after [offset] rows.
+     */
+    class Key(val sortValues: List<Any?>?, val offset: Int)
+}
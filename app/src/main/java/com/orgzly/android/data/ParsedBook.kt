@@ -0,0 +1,46 @@
+package com.orgzly.android.data
+
+import com.orgzly.android.repos.VersionedRook
+import com.orgzly.android.util.Encoding
+import com.orgzly.org.OrgFile
+import com.orgzly.org.parser.OrgNestedSetParserListener
+import com.orgzly.org.parser.OrgNodeInSet
+
+/**
+ * Book downloaded and parsed in memory, without touching the database.
+ *
+ * Allows multiple books to be parsed in parallel, while they are still
+ * written one by one, using [DataRepository.loadParsedBook].
+ *
+ * Encoding is null if the book has not been parsed, because its content
+ * is the same as the content already loaded.
+ */
+class ParsedBook(
+        val name: String,
+        val vrook: VersionedRook?,
+        val encoding: Encoding?) : OrgNestedSetParserListener {
+
+    private val nodes = ArrayList<OrgNodeInSet>()
+
+    private var file: OrgFile? = null
+
+    val notesCount: Int
+        get() = nodes.size
+
+    override fun onNode(node: OrgNodeInSet) {
+        nodes.add(node)
+    }
+
+    override fun onFile(file: OrgFile) {
+        this.file = file
+    }
+
+    /**
+     * Reports parsed nodes and file to [listener], in the order parser reported them.
+     */
+    fun replay(listener: OrgNestedSetParserListener) {
+        nodes.forEach { listener.onNode(it) }
+
+        file?.let { listener.onFile(it) }
+    }
+}
@@ -26,22 +26,50 @@ object OrgMapper {
     fun toOrgHead(noteView: NoteView): OrgHead {
         val note = noteView.note
 
-        return OrgHead().apply {
-            title = note.title
+        return toOrgHead(
+                note.title,
+                note.tags,
+                note.state,
+                note.priority,
+                noteView.scheduledRangeString,
+                noteView.deadlineRangeString,
+                noteView.closedRangeString,
+                noteView.clockRangeString,
+                note.content)
+    }
 
-            setTags(Note.dbDeSerializeTags(note.tags).toTypedArray())
+    /**
+     * [OrgHead] without properties, from serialized tags and range strings.
+     */
+    fun toOrgHead(
+            title: String,
+            tags: String?,
+            state: String?,
+            priority: String?,
+            scheduled: String?,
+            deadline: String?,
+            closed: String?,
+            clock: String?,
+            content: String?): OrgHead {
 
-            state = note.state
+        val head = OrgHead()
 
-            priority = note.priority
+        head.title = title
 
-            scheduled = noteView.scheduledRangeString?.let { OrgRange.parse(it) }
-            deadline = noteView.deadlineRangeString?.let { OrgRange.parse(it) }
-            closed = noteView.closedRangeString?.let { OrgRange.parse(it) }
-            clock = noteView.clockRangeString?. let { OrgRange.parse(it) }
+        head.setTags(Note.dbDeSerializeTags(tags).toTypedArray())
 
-            content = note.content
-        }
+        head.state = state
+
+        head.priority = priority
+
+        head.scheduled = scheduled?.let { OrgRange.parse(it) }
+        head.deadline = deadline?.let { OrgRange.parse(it) }
+        head.closed = closed?.let { OrgRange.parse(it) }
+        head.clock = clock?.let { OrgRange.parse(it) }
+
+        head.content = content
+
+        return head
     }
 
     fun toOrgHead(notePayload: NotePayload): OrgHead {
@@ -0,0 +1,143 @@
+package com.orgzly.android.db
+
+import android.database.Cursor
+import com.orgzly.android.data.mappers.OrgMapper
+import com.orgzly.org.OrgHead
+import com.orgzly.org.OrgProperties
+import java.io.Closeable
+
+/**
+ * Reads notes of a single book in lft order, with their properties.
+ *
+ * Uses one cursor for all notes and one for all properties of the book (both ordered by lft),
+ * merging them as they are read, so only the current note is kept in memory.
+ *
+ * Notes whose text rendered with the same [settings] is cached
+ * (see [com.orgzly.android.db.entity.NoteRenderedText]) are returned with that text only.
+ * Newly rendered text should be passed back using [cache].
+ *
+ * Must be used inside a transaction, so that the cached text matches the notes.
+ */
+class BookExportReader(db: OrgzlyDatabase, bookId: Long, private val settings: String) : Closeable {
+
+    /**
+     * Note with either [renderedText] (if cached) or [head] set.
+     */
+    class Row(val noteId: Long, val level: Int, val renderedText: String?, val head: OrgHead?)
+
+    private val notes: Cursor = db.note().getForExport(bookId, settings)
+
+    private val properties: Cursor = db.noteProperty().getForExport(bookId)
+
+    private val insertRenderedText = db.compileStatement(INSERT_RENDERED_TEXT)
+
+    private val idColumn = notes.getColumnIndexOrThrow("id")
+    private val levelColumn = notes.getColumnIndexOrThrow("level")
+    private val titleColumn = notes.getColumnIndexOrThrow("title")
+    private val tagsColumn = notes.getColumnIndexOrThrow("tags")
+    private val stateColumn = notes.getColumnIndexOrThrow("state")
+    private val priorityColumn = notes.getColumnIndexOrThrow("priority")
+    private val contentColumn = notes.getColumnIndexOrThrow("content")
+    private val scheduledColumn = notes.getColumnIndexOrThrow("scheduled")
+    private val deadlineColumn = notes.getColumnIndexOrThrow("deadline")
+    private val closedColumn = notes.getColumnIndexOrThrow("closed")
+    private val clockColumn = notes.getColumnIndexOrThrow("clock")
+    private val renderedTextColumn = notes.getColumnIndexOrThrow("rendered_text")
+
+    private val propertyNoteIdColumn = properties.getColumnIndexOrThrow("note_id")
+    private val propertyNameColumn = properties.getColumnIndexOrThrow("name")
+    private val propertyValueColumn = properties.getColumnIndexOrThrow("value")
+
+    private var hasProperty = properties.moveToFirst()
+
+    var cachedCount = 0
+        private set
+
+    var renderedCount = 0
+        private set
+
+    /**
+     * Returns the next note or null if there are no more notes.
+     */
+    fun next(): Row? {
+        if (!notes.moveToNext()) {
+            return null
+        }
+
+        val noteId = notes.getLong(idColumn)
+        val level = notes.getInt(levelColumn)
+
+        val renderedText = notes.getStringOrNull(renderedTextColumn)
+
+        if (renderedText != null) {
+            skipProperties(noteId)
+            cachedCount++
+            return Row(noteId, level, renderedText, null)
+        }
+
+        val head = OrgMapper.toOrgHead(
+                title = notes.getString(titleColumn),
+                tags = notes.getStringOrNull(tagsColumn),
+                state = notes.getStringOrNull(stateColumn),
+                priority = notes.getStringOrNull(priorityColumn),
+                scheduled = notes.getStringOrNull(scheduledColumn),
+                deadline = notes.getStringOrNull(deadlineColumn),
+                closed = notes.getStringOrNull(closedColumn),
+                clock = notes.getStringOrNull(clockColumn),
+                content = notes.getStringOrNull(contentColumn))
+
+        head.properties = readProperties(noteId)
+
+        return Row(noteId, level, null, head)
+    }
+
+    /**
+     * Stores the text rendered for the note returned without one.
+     */
+    fun cache(noteId: Long, text: String) {
+        insertRenderedText.run {
+            bindLong(1, noteId)
+            bindString(2, settings)
+            bindString(3, text)
+            executeInsert()
+        }
+        renderedCount++
+    }
+
+    /**
+     * Properties are in the same order as notes, so all properties
+     * of the current note are next in the cursor.
+     */
+    private fun readProperties(noteId: Long): OrgProperties {
+        val result = OrgProperties()
+
+        while (hasProperty && properties.getLong(propertyNoteIdColumn) == noteId) {
+            result.put(properties.getString(propertyNameColumn), properties.getString(propertyValueColumn))
+
+            hasProperty = properties.moveToNext()
+        }
+
+        return result
+    }
+
+    private fun skipProperties(noteId: Long) {
+        while (hasProperty && properties.getLong(propertyNoteIdColumn) == noteId) {
+            hasProperty = properties.moveToNext()
+        }
+    }
+
+    private fun Cursor.getStringOrNull(column: Int): String? {
+        return if (isNull(column)) null else getString(column)
+    }
+
+    override fun close() {
+        notes.close()
+        properties.close()
+        insertRenderedText.close()
+    }
+
+    companion object {
+        private const val INSERT_RENDERED_TEXT =
+                "INSERT OR REPLACE INTO note_rendered_texts (note_id, settings, text) VALUES (?, ?, ?)"
+    }
+}
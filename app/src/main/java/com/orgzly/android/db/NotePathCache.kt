@@ -0,0 +1,45 @@
+package com.orgzly.android.db
+
+import android.util.LruCache
+
+/**
+ * Maps recently resolved outline paths ("Book/Title/Sub") to note IDs.
+ *
+ * Any change of notes can change which note a path resolves to,
+ * so [clear] must be called whenever notes or books are modified.
+ * Resolutions which started before the last [clear] are not cached.
+ */
+class NotePathCache(maxSize: Int = MAX_SIZE) {
+
+    private val ids = LruCache<String, Long>(maxSize)
+
+    private var generation = 0L
+
+    fun get(fullPath: String, resolve: () -> Long?): Long? {
+        ids.get(fullPath)?.let {
+            return it
+        }
+
+        val resolvedInGeneration = synchronized(this) { generation }
+
+        val id = resolve() ?: return null
+
+        synchronized(this) {
+            if (generation == resolvedInGeneration) {
+                ids.put(fullPath, id)
+            }
+        }
+
+        return id
+    }
+
+    @Synchronized
+    fun clear() {
+        generation++
+        ids.evictAll()
+    }
+
+    companion object {
+        const val MAX_SIZE = 100
+    }
+}
@@ -0,0 +1,160 @@
+package com.orgzly.android.db
+
+import com.orgzly.BuildConfig
+import com.orgzly.android.db.dao.NoteDao
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.ui.Place
+import com.orgzly.android.util.LogUtils
+
+/**
+ * Allocates lft and rgt values for notes inserted into a book.
+ *
+ * Books are loaded with [GAP] between consecutive values (see [sparse]), so new notes
+ * usually fit in the free space between the two existing values around the insertion point,
+ * without updating any other note. Notes appended at the end of the book only move the root
+ * note's rgt. Only when there is no free space left, the smallest subtree around the insertion
+ * point with enough room is renumbered (the root note can always grow, making it the last resort).
+ *
+ * Must be used inside a transaction.
+ */
+class NotePositionAllocator(private val db: OrgzlyDatabase) {
+
+    /**
+     * Space allocated for new notes.
+     *
+     * New notes are numbered as if they were the only notes in the book, from 1 to 2 * count
+     * (like the ones returned by [com.orgzly.android.data.DataRepository.getSubtreesAligned]).
+     * [value] returns the actual lft or rgt for such a number.
+     */
+    class Space(private val start: Long, private val step: Long) {
+        fun value(position: Long): Long = start + position * step
+
+        override fun toString(): String = "Space(start=$start, step=$step)"
+    }
+
+    fun allocate(count: Int, targetNote: Note, place: Place): Space {
+        val bookId = targetNote.position.bookId
+
+        val values = 2L * count
+
+        /* Values just before and just after the insertion point. */
+        val (before, after) = when (place) {
+            Place.ABOVE -> Pair(valueBefore(bookId, targetNote.position.lft), targetNote.position.lft)
+            Place.UNDER -> Pair(valueBefore(bookId, targetNote.position.rgt), targetNote.position.rgt)
+            Place.UNDER_AS_FIRST -> Pair(targetNote.position.lft, valueAfter(bookId, targetNote.position.lft))
+            Place.BELOW -> Pair(targetNote.position.rgt, valueAfter(bookId, targetNote.position.rgt))
+            else -> throw IllegalArgumentException("Unsupported place $place")
+        }
+
+        val root = db.note().getRootNode(bookId)
+                ?: throw IllegalStateException("Root note not found for book $bookId")
+
+        return when {
+            /* Appending to the book - move root note's rgt. */
+            after == root.position.rgt -> {
+                db.note().updateLftRgt(root.id, root.position.lft, before + (values + 1) * GAP)
+                Space(before, GAP)
+            }
+
+            after - before > values ->
+                Space(before, (after - before) / (values + 1))
+
+            else ->
+                renumber(bookId, before, values)
+        }
+    }
+
+    /**
+     * Renumbers notes of the smallest subtree containing the insertion point (just after [before])
+     * which has enough room for all of its notes and [values] new ones.
+     */
+    private fun renumber(bookId: Long, before: Long, values: Long): Space {
+        val containing = db.note().getIntervalsContaining(bookId, before)
+
+        for (interval in containing) {
+            val isRoot = interval.level == 0
+
+            val notes = db.note().getCountInside(bookId, interval.lft, interval.rgt)
+
+            val slots = 2L * notes + values + 1
+
+            val step = if (isRoot) GAP else (interval.rgt - interval.lft) / slots
+
+            if (step >= MIN_STEP) {
+                return renumber(bookId, interval, before, values, step).also {
+                    if (BuildConfig.LOG_DEBUG)
+                        LogUtils.d(TAG, "Renumbered $notes notes under ${interval.id} for $values values: $it")
+                }
+            }
+        }
+
+        throw IllegalStateException("No room for $values values after $before in book $bookId")
+    }
+
+    private fun renumber(bookId: Long, interval: NoteDao.NoteInterval, before: Long, values: Long, step: Long): Space {
+        val notes = db.note().getIntervalsInside(bookId, interval.lft, interval.rgt)
+
+        /* Old value to new value, for all lft and rgt values inside the interval. */
+        val sorted = LongArray(notes.size * 2)
+        notes.forEachIndexed { i, note ->
+            sorted[2 * i] = note.lft
+            sorted[2 * i + 1] = note.rgt
+        }
+        sorted.sort()
+
+        val renumbered = HashMap<Long, Long>(sorted.size * 2)
+
+        var spaceStart = if (before == interval.lft) interval.lft else 0L
+
+        var value = interval.lft + (if (before == interval.lft) values * step else 0)
+
+        for (old in sorted) {
+            value += step
+            renumbered[old] = value
+
+            if (old == before) {
+                spaceStart = value
+                value += values * step
+            }
+        }
+
+        notes.forEach { note ->
+            val lft = renumbered.getValue(note.lft)
+            val rgt = renumbered.getValue(note.rgt)
+
+            if (lft != note.lft || rgt != note.rgt) {
+                db.note().updateLftRgt(note.id, lft, rgt)
+            }
+        }
+
+        if (interval.level == 0) {
+            db.note().updateLftRgt(interval.id, interval.lft, value + step)
+        }
+
+        return Space(spaceStart, step)
+    }
+
+    private fun valueBefore(bookId: Long, value: Long): Long {
+        return db.note().getPositionValueBefore(bookId, value)
+                ?: throw IllegalStateException("No value before $value in book $bookId")
+    }
+
+    private fun valueAfter(bookId: Long, value: Long): Long {
+        return db.note().getPositionValueAfter(bookId, value)
+                ?: throw IllegalStateException("No value after $value in book $bookId")
+    }
+
+    companion object {
+        private val TAG = NotePositionAllocator::class.java.name
+
+        /** Space between consecutive lft and rgt values of a newly loaded book. */
+        const val GAP = 1L shl 16
+
+        /** Subtrees which would end up with less space than this between values are not renumbered. */
+        private const val MIN_STEP = 1L shl 6
+
+        /** Spreads lft or rgt value of a parsed book (numbered from 1 without gaps). */
+        @JvmStatic
+        fun sparse(value: Long): Long = value * GAP
+    }
+}
@@ -0,0 +1,179 @@
+package com.orgzly.android.db
+
+import com.orgzly.android.db.entity.Note
+import com.orgzly.org.OrgProperties
+import java.io.Closeable
+
+/**
+ * Inserts all notes of a single book, in the order they are reported by
+ * [com.orgzly.org.parser.OrgNestedSetParserListener] (note is reported after all its descendants).
+ *
+ * Parent, folded-under and ancestors are resolved in memory, using a stack of notes
+ * which are still waiting for their parent. Notes, properties, tags, events and ancestors
+ * are written using statements compiled once and reused for the whole book.
+ *
+ * Must be used inside a transaction.
+ */
+class NoteTreeInserter(
+        db: OrgzlyDatabase,
+        private val bookId: Long,
+        private val startFolded: Boolean) : Closeable {
+
+    private data class Pending(val lft: Long, val id: Long, val firstIndex: Int)
+
+    /** Inserted notes whose parent has not been inserted yet, ordered by lft. */
+    private val pending = ArrayDeque<Pending>()
+
+    /**
+     * IDs of all inserted notes, in insertion order.
+     * Descendants of a note are always a contiguous range just before the note itself.
+     */
+    private var ids = LongArray(INITIAL_CAPACITY)
+    private var count = 0
+
+    private val insertNote = db.compileStatement(INSERT_NOTE)
+    private val insertProperty = db.compileStatement(INSERT_PROPERTY)
+    private val insertTag = db.compileStatement(INSERT_TAG)
+    private val insertEvent = db.compileStatement(INSERT_EVENT)
+    private val insertAncestor = db.compileStatement(INSERT_ANCESTOR)
+    private val updateParent = db.compileStatement(UPDATE_PARENT)
+
+    val notesCount: Int
+        get() = count
+
+    var ancestorsCount = 0
+        private set
+
+    fun insert(note: Note, properties: OrgProperties, eventRangeIds: Collection<Long>): Long {
+        val noteId = insertNote(note)
+
+        var position = 1
+        properties.all.forEach { property ->
+            insertProperty.run {
+                bindLong(1, noteId)
+                bindLong(2, (position++).toLong())
+                bindString(3, property.name)
+                bindString(4, property.value)
+                bindString(5, property.name.lowercase())
+                bindString(6, property.value.lowercase())
+                executeInsert()
+            }
+        }
+
+        note.getTagsList().forEach { tag ->
+            insertTag.run {
+                bindLong(1, noteId)
+                bindString(2, tag)
+                executeInsert()
+            }
+        }
+
+        eventRangeIds.forEach { rangeId ->
+            insertEvent.run {
+                bindLong(1, noteId)
+                bindLong(2, rangeId)
+                executeInsert()
+            }
+        }
+
+        val index = add(noteId)
+
+        /* Every pending note with greater lft is a child of this one. */
+        var firstIndex = index
+        while (pending.isNotEmpty() && pending.last().lft > note.position.lft) {
+            val child = pending.removeLast()
+
+            updateParent.run {
+                bindLong(1, noteId)
+                bindLong(2, if (startFolded && note.position.level > 0) noteId else 0)
+                bindLong(3, child.id)
+                executeUpdateDelete()
+            }
+
+            firstIndex = child.firstIndex
+        }
+
+        /* All notes inserted since the first descendant are descendants. */
+        for (i in firstIndex until index) {
+            insertAncestor.run {
+                bindLong(1, bookId)
+                bindLong(2, ids[i])
+                bindLong(3, noteId)
+                executeInsert()
+            }
+            ancestorsCount++
+        }
+
+        pending.addLast(Pending(note.position.lft, noteId, firstIndex))
+
+        return noteId
+    }
+
+    private fun insertNote(note: Note): Long {
+        return insertNote.run {
+            clearBindings()
+            bindLong(1, note.isCut)
+            note.createdAt?.let { bindLong(2, it) }
+            bindString(3, note.title)
+            note.tags?.let { bindString(4, it) }
+            note.state?.let { bindString(5, it) }
+            note.priority?.let { bindString(6, it) }
+            note.content?.let { bindString(7, it) }
+            bindLong(8, note.contentLineCount.toLong())
+            note.scheduledRangeId?.let { bindLong(9, it) }
+            note.deadlineRangeId?.let { bindLong(10, it) }
+            note.closedRangeId?.let { bindLong(11, it) }
+            note.clockRangeId?.let { bindLong(12, it) }
+            bindLong(13, bookId)
+            bindLong(14, note.position.lft)
+            bindLong(15, note.position.rgt)
+            bindLong(16, note.position.level.toLong())
+            bindLong(17, note.position.parentId)
+            bindLong(18, note.position.foldedUnderId)
+            bindLong(19, if (note.position.isFolded) 1 else 0)
+            bindLong(20, note.position.descendantsCount.toLong())
+            executeInsert()
+        }
+    }
+
+    private fun add(id: Long): Int {
+        if (count == ids.size) {
+            ids = ids.copyOf(ids.size * 2)
+        }
+        ids[count] = id
+        return count++
+    }
+
+    override fun close() {
+        listOf(insertNote, insertProperty, insertTag, insertEvent, insertAncestor, updateParent).forEach {
+            it.close()
+        }
+    }
+
+    companion object {
+        private const val INITIAL_CAPACITY = 1024
+
+        private const val INSERT_NOTE = """
+            INSERT INTO notes (
+                is_cut, created_at, title, tags, state, priority, content, content_line_count,
+                scheduled_range_id, deadline_range_id, closed_range_id, clock_range_id,
+                book_id, lft, rgt, level, parent_id, folded_under_id, is_folded, descendants_count)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        """
+
+        private const val INSERT_PROPERTY =
+                "INSERT INTO note_properties (note_id, position, name, value, name_lower, value_lower) VALUES (?, ?, ?, ?, ?, ?)"
+
+        private const val INSERT_TAG =
+                "INSERT OR IGNORE INTO note_tags (note_id, is_inherited, tag) VALUES (?, 0, ?)"
+
+        private const val INSERT_EVENT =
+                "INSERT OR REPLACE INTO note_events (note_id, org_range_id) VALUES (?, ?)"
+
+        private const val INSERT_ANCESTOR =
+                "INSERT INTO note_ancestors (book_id, note_id, ancestor_note_id) VALUES (?, ?, ?)"
+
+        private const val UPDATE_PARENT =
+                "UPDATE notes SET parent_id = ?, folded_under_id = ? WHERE id = ?"
+    }
+}
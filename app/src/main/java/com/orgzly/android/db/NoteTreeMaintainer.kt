@@ -0,0 +1,179 @@
+package com.orgzly.android.db
+
+import com.orgzly.BuildConfig
+import com.orgzly.android.db.dao.NoteDao
+import com.orgzly.android.util.LogUtils
+
+/**
+ * Keeps note_ancestors and descendants_count up to date when whole subtrees
+ * are moved, pasted or deleted.
+ *
+ * Each subtree is read once, in lft order, and walked in memory using parent IDs,
+ * so both ancestors and descendants count of every note in it are known after a single pass.
+ * Ancestors outside of the subtree are only updated by the subtree's size.
+ *
+ * Must be used inside a transaction.
+ */
+class NoteTreeMaintainer(private val db: OrgzlyDatabase) {
+
+    /**
+     * Removes subtrees of [ids] from their ancestors, before they are moved or deleted.
+     */
+    fun detachSubtrees(ids: Set<Long>) {
+        for (root in subtreeRoots(ids)) {
+            val size = db.note().getSubtreeCount(root.bookId, root.lft, root.rgt)
+
+            val ancestorIds = db.noteAncestor().getAncestorIds(root.id)
+
+            if (ancestorIds.isNotEmpty()) {
+                db.note().incrementDescendantsCount(ancestorIds, -size)
+            }
+
+            db.noteAncestor().deleteForSubtree(root.bookId, root.lft, root.rgt)
+        }
+    }
+
+    /**
+     * Adds subtrees of [ids] to their (new) ancestors, after they are moved or pasted.
+     */
+    fun attachSubtrees(ids: Set<Long>) {
+        for (root in subtreeRoots(ids)) {
+            val ancestorIds = if (root.parentId != 0L) {
+                db.noteAncestor().getAncestorIds(root.parentId) + root.parentId
+            } else {
+                emptyList()
+            }
+
+            val size = rebuild(root, ancestorIds)
+
+            if (ancestorIds.isNotEmpty()) {
+                db.note().incrementDescendantsCount(ancestorIds, size)
+            }
+        }
+    }
+
+    /**
+     * Rebuilds ancestors and descendants count for all notes in the book.
+     */
+    fun rebuildBook(bookId: Long) {
+        val root = db.note().getRootNode(bookId) ?: return
+
+        db.noteAncestor().deleteForBook(bookId)
+
+        rebuild(root.let {
+            NoteDao.NoteTreeNode(it.id, bookId, 0, it.position.lft, it.position.rgt, 0, it.position.descendantsCount)
+        }, emptyList())
+    }
+
+    /**
+     * Inserts ancestors of all notes in the subtree and updates their descendants count.
+     * Expects the subtree to have no ancestors stored.
+     *
+     * @return number of notes in the subtree
+     */
+    private fun rebuild(root: NoteDao.NoteTreeNode, outerAncestorIds: List<Long>): Int {
+        val startedAt = System.currentTimeMillis()
+
+        val notes = db.note().getSubtreeTreeNodes(root.bookId, root.lft, root.rgt)
+
+        /* Notes which are ancestors of the current one, with their descendants counted so far. */
+        val stack = ArrayList<NoteDao.NoteTreeNode>()
+        val counts = ArrayList<Int>()
+
+        var size = 0
+        var ancestorsCount = 0
+
+        db.compileStatement(INSERT_ANCESTOR).use { insertAncestor ->
+            db.compileStatement(UPDATE_DESCENDANTS_COUNT).use { updateCount ->
+
+                fun pop() {
+                    val note = stack.removeAt(stack.lastIndex)
+                    val count = counts.removeAt(counts.lastIndex)
+
+                    if (note.descendantsCount != count) {
+                        updateCount.run {
+                            bindLong(1, count.toLong())
+                            bindLong(2, note.id)
+                            executeUpdateDelete()
+                        }
+                    }
+                }
+
+                fun insertAncestor(noteId: Long, ancestorId: Long) {
+                    insertAncestor.run {
+                        bindLong(1, root.bookId)
+                        bindLong(2, noteId)
+                        bindLong(3, ancestorId)
+                        executeInsert()
+                    }
+                    ancestorsCount++
+                }
+
+                for (note in notes) {
+                    while (stack.isNotEmpty() && stack.last().id != note.parentId) {
+                        pop()
+                    }
+
+                    outerAncestorIds.forEach { insertAncestor(note.id, it) }
+
+                    for (i in stack.indices) {
+                        insertAncestor(note.id, stack[i].id)
+
+                        if (note.level > 0) {
+                            counts[i]++
+                        }
+                    }
+
+                    if (note.level > 0) {
+                        size++
+                    }
+
+                    stack.add(note)
+                    counts.add(0)
+                }
+
+                while (stack.isNotEmpty()) {
+                    pop()
+                }
+            }
+        }
+
+        db.noteView().updateInheritedTags(root.bookId, root.lft, root.rgt)
+
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Rebuilt ${notes.size} notes and $ancestorsCount ancestors under ${root.id} in ${System.currentTimeMillis() - startedAt}ms")
+
+        return size
+    }
+
+    /**
+     * Notes of [ids] which are not descendants of other notes in [ids].
+     */
+    fun subtreeRoots(ids: Set<Long>): List<NoteDao.NoteTreeNode> {
+        val notes = ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER)
+                .flatMap { db.note().getTreeNodes(it) }
+                .sortedWith(compareBy({ it.bookId }, { it.lft }))
+
+        val roots = ArrayList<NoteDao.NoteTreeNode>()
+
+        for (note in notes) {
+            val last = roots.lastOrNull()
+
+            if (last == null || last.bookId != note.bookId || last.rgt < note.lft) {
+                roots.add(note)
+            }
+        }
+
+        return roots
+    }
+
+    companion object {
+        private val TAG = NoteTreeMaintainer::class.java.name
+
+        private const val INSERT_ANCESTOR =
+                "INSERT INTO note_ancestors (book_id, note_id, ancestor_note_id) VALUES (?, ?, ?)"
+
+        private const val UPDATE_DESCENDANTS_COUNT =
+                "UPDATE notes SET descendants_count = ? WHERE id = ?"
+    }
+}
@@ -0,0 +1,124 @@
+package com.orgzly.android.db
+
+import com.orgzly.BuildConfig
+import com.orgzly.android.ui.NotePlace
+import com.orgzly.android.ui.Place
+import com.orgzly.android.util.LogUtils
+
+/**
+ * Moves many subtrees, each to its own target, possibly across books.
+ *
+ * Moves are applied in order (a move can target a note moved by an earlier one), each reading
+ * only its moved subtrees and the values around its target. Moved notes keep their levels
+ * relative to their subtree's root, and are numbered in the free space around the target
+ * (see [NotePositionAllocator]), so usually only moved notes are updated. When there is not
+ * enough space, only the smallest subtree around the target with enough room is renumbered.
+ * This is followed by a single update of ancestors and descendants count of all moved notes
+ * (see [NoteTreeMaintainer]).
+ *
+ * Must be used inside a transaction.
+ */
+class NoteTreeMover(private val db: OrgzlyDatabase) {
+
+    /**
+     * Notes with [noteIds] and their subtrees are moved to [target].
+     * Target without a note ID is the book itself (notes are moved to its end).
+     */
+    class Move(val noteIds: Set<Long>, val target: NotePlace)
+
+    /**
+     * IDs of all moved notes (including descendants) and books they were moved from.
+     */
+    class Result(val move: Move, val noteIds: Set<Long>, val sourceBookIds: Set<Long>)
+
+    private val maintainer = NoteTreeMaintainer(db)
+
+    private val allocator = NotePositionAllocator(db)
+
+    fun move(moves: List<Move>): List<Result> {
+        val startedAt = System.currentTimeMillis()
+
+        maintainer.detachSubtrees(moves.flatMapTo(HashSet()) { it.noteIds })
+
+        val results = moves.mapNotNull { apply(it) }
+
+        maintainer.attachSubtrees(results.flatMapTo(HashSet()) { it.noteIds })
+
+        if (BuildConfig.LOG_DEBUG)
+            LogUtils.d(TAG, "Applied ${results.size} moves, moved ${results.sumOf { it.noteIds.size }} notes in ${System.currentTimeMillis() - startedAt}ms")
+
+        return results
+    }
+
+    private fun apply(move: Move): Result? {
+        val target = if (move.target.noteId == 0L) {
+            db.note().getRootNode(move.target.bookId)
+        } else {
+            db.note().get(move.target.noteId)
+        } ?: throw IllegalArgumentException("Target not found: ${move.target}")
+
+        val place = if (move.target.noteId == 0L) Place.UNDER else move.target.place
+
+        /* Same level as when moving a single note (see DataRepository.TargetPosition). */
+        val (parentId, level) = when (place) {
+            Place.ABOVE, Place.BELOW -> Pair(target.position.parentId, target.position.level)
+            Place.UNDER, Place.UNDER_AS_FIRST -> Pair(target.id, target.position.level + 1)
+            else -> throw IllegalArgumentException("Unsupported place $place for note ${target.id}")
+        }
+
+        /* Notes of each moved subtree, ordered by lft. */
+        val subtrees = maintainer.subtreeRoots(move.noteIds).map { root ->
+            if (root.bookId == target.position.bookId && root.lft <= target.position.lft && target.position.rgt <= root.rgt) {
+                throw IllegalArgumentException("Target note ${target.id} is in one of the moved subtrees")
+            }
+
+            db.note().getSubtreeTreeNodes(root.bookId, root.lft, root.rgt)
+        }
+
+        if (subtrees.isEmpty()) {
+            return null
+        }
+
+        /* Renumbering around the target keeps the order of all values, including the moved ones. */
+        val space = allocator.allocate(subtrees.sumOf { it.size }, target, place)
+
+        val movedIds = HashSet<Long>()
+
+        var position = 0L
+
+        db.compileStatement(UPDATE_POSITION).use { statement ->
+            subtrees.forEach { notes ->
+                val root = notes.first()
+
+                val delta = level - root.level
+
+                /* Values of the subtree, in order, numbered after the previous subtree. */
+                val positions = HashMap<Long, Long>(notes.size * 2)
+                notes.flatMap { listOf(it.lft, it.rgt) }.sorted().forEach { positions[it] = ++position }
+
+                notes.forEach { note ->
+                    statement.run {
+                        bindLong(1, target.position.bookId)
+                        bindLong(2, space.value(positions.getValue(note.lft)))
+                        bindLong(3, space.value(positions.getValue(note.rgt)))
+                        bindLong(4, (note.level + delta).toLong())
+                        bindLong(5, if (note === root) parentId else note.parentId)
+                        bindLong(6, note.id)
+                        executeUpdateDelete()
+                    }
+
+                    movedIds.add(note.id)
+                }
+            }
+        }
+
+        return Result(move, movedIds, subtrees.mapTo(HashSet()) { it.first().bookId })
+    }
+
+    companion object {
+        private val TAG = NoteTreeMover::class.java.name
+
+        private const val UPDATE_POSITION =
+                "UPDATE notes SET book_id = ?, lft = ?, rgt = ?, level = ?, parent_id = ? WHERE id = ?"
+    }
+}
@@ -0,0 +1,115 @@
+package com.orgzly.android.db
+
+import android.util.LruCache
+import com.orgzly.android.db.entity.OrgRange
+import com.orgzly.android.db.mappers.OrgTimestampMapper
+import com.orgzly.org.datetime.OrgDateTime
+
+/**
+ * Maps strings of org ranges and timestamps to their IDs,
+ * avoiding SELECTs for every planning time and event of every note.
+ *
+ * Rows in org_ranges and org_timestamps are never deleted (other than when
+ * all tables are cleared), so cached IDs stay valid. Entries inserted by a
+ * transaction which was rolled back are not, so [clear] must be called then.
+ */
+class OrgRangeIdCache(private val db: OrgzlyDatabase, private val maxSize: Int = MAX_SIZE) {
+
+    private val ranges = LruCache<String, Long>(maxSize)
+
+    private val timestamps = LruCache<String, Long>(maxSize)
+
+    @Volatile
+    private var isWarmedUp = false
+
+    /** Statistics since the last [takeStats] call. */
+    private var reportedHits = 0
+    private var reportedMisses = 0
+
+    data class Stats(val hits: Int, val misses: Int, val size: Int) {
+        val hitRate: Int
+            get() = if (hits + misses > 0) hits * 100 / (hits + misses) else 0
+
+        override fun toString(): String {
+            return "$hits hits, $misses misses ($hitRate% hit rate), $size cached"
+        }
+    }
+
+    /**
+     * Loads most recent ranges and timestamps, up to the size of the cache.
+     */
+    fun warmUp() {
+        if (isWarmedUp) {
+            return
+        }
+
+        db.orgTimestamp().getLatest(maxSize).asReversed().forEach {
+            timestamps.put(it.string, it.id)
+        }
+
+        db.orgRange().getLatest(maxSize).asReversed().forEach {
+            ranges.put(it.string, it.id)
+        }
+
+        isWarmedUp = true
+    }
+
+    fun getRangeId(range: com.orgzly.org.datetime.OrgRange): Long {
+        val str = range.toString()
+
+        ranges.get(str)?.let {
+            return it
+        }
+
+        val id = db.orgRange().getByString(str)?.id ?: run {
+            val startId = getTimestampId(range.startTime)
+            val endId = range.endTime?.let { getTimestampId(it) }
+
+            db.orgRange().insert(OrgRange(0, str, startId, endId))
+        }
+
+        ranges.put(str, id)
+
+        return id
+    }
+
+    fun getTimestampId(time: OrgDateTime): Long {
+        val str = time.toString()
+
+        timestamps.get(str)?.let {
+            return it
+        }
+
+        val id = db.orgTimestamp().getByString(str)?.id
+                ?: db.orgTimestamp().insert(OrgTimestampMapper.fromOrgDateTime(time))
+
+        timestamps.put(str, id)
+
+        return id
+    }
+
+    fun clear() {
+        ranges.evictAll()
+        timestamps.evictAll()
+
+        isWarmedUp = false
+    }
+
+    /**
+     * Returns statistics collected since the previous call.
+     */
+    @Synchronized
+    fun takeStats(): Stats {
+        val hits = ranges.hitCount() + timestamps.hitCount()
+        val misses = ranges.missCount() + timestamps.missCount()
+
+        return Stats(hits - reportedHits, misses - reportedMisses, ranges.size() + timestamps.size()).also {
+            reportedHits = hits
+            reportedMisses = misses
+        }
+    }
+
+    companion object {
+        const val MAX_SIZE = 10000
+    }
+}
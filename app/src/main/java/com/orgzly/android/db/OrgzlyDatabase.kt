@@ -22,6 +22,7 @@ import java.util.*
 @Database(
         entities = [
             Book::class,
+            BookDataVersion::class,
             BookLink::class,
             BookSync::class,
             DbRepoBook::class,
@@ -29,6 +30,10 @@ import java.util.*
             NoteAncestor::class,
             NoteProperty::class,
             NoteEvent::class,
+            NotePath::class,
+            NoteRenderedText::class,
+            NoteTag::class,
+            NoteViewRow::class,
             OrgRange::class,
             OrgTimestamp::class,
             Repo::class,
@@ -39,12 +44,13 @@ import java.util.*
             AppLog::class
         ],
 
-        version = 156
+        version = 165
 )
 @TypeConverters(com.orgzly.android.db.TypeConverters::class)
 abstract class OrgzlyDatabase : RoomDatabase() {
 
     abstract fun book(): BookDao
+    abstract fun bookDataVersion(): BookDataVersionDao
     abstract fun bookLink(): BookLinkDao
     abstract fun bookView(): BookViewDao
     abstract fun bookSync(): BookSyncDao
@@ -53,6 +59,8 @@ abstract class OrgzlyDatabase : RoomDatabase() {
     abstract fun noteView(): NoteViewDao
     abstract fun noteProperty(): NotePropertyDao
     abstract fun noteEvent(): NoteEventDao
+    abstract fun notePath(): NotePathDao
+    abstract fun noteTag(): NoteTagDao
     abstract fun orgRange(): OrgRangeDao
     abstract fun reminderTime(): ReminderTimeDao
     abstract fun orgTimestamp(): OrgTimestampDao
@@ -78,6 +86,15 @@ abstract class OrgzlyDatabase : RoomDatabase() {
         fun forMemory(context: Context): OrgzlyDatabase {
             return Room.inMemoryDatabaseBuilder(context.applicationContext, OrgzlyDatabase::class.java)
                     .allowMainThreadQueries()
+                    .addCallback(object : Callback() {
+                        override fun onCreate(db: SupportSQLiteDatabase) {
+                            createNoteRenderedTextTriggers(db)
+                            createNotesFullTextIndex(db)
+                            createNoteTagTriggers(db)
+                            createNoteViewTriggers(db)
+                            createNotePathTriggers(db)
+                        }
+                    })
                     .build()
         }
 
@@ -113,12 +130,27 @@ abstract class OrgzlyDatabase : RoomDatabase() {
                             MIGRATION_152_153,
                             MIGRATION_153_154,
                             MIGRATION_154_155,
-                            MIGRATION_155_156
+                            MIGRATION_155_156,
+                            MIGRATION_156_157,
+                            MIGRATION_157_158,
+                            MIGRATION_158_159,
+                            MIGRATION_159_160,
+                            MIGRATION_160_161,
+                            MIGRATION_161_162,
+                            MIGRATION_162_163,
+                            MIGRATION_163_164,
+                            MIGRATION_164_165
                     )
                     .addCallback(object : Callback() {
                         override fun onCreate(db: SupportSQLiteDatabase) {
                             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Database created")
 
+                            createNoteRenderedTextTriggers(db)
+                            createNotesFullTextIndex(db)
+                            createNoteTagTriggers(db)
+                            createNoteViewTriggers(db)
+                            createNotePathTriggers(db)
+
                             insertDefaultSearches(db)
                         }
 
@@ -136,6 +168,264 @@ abstract class OrgzlyDatabase : RoomDatabase() {
             db.execSQL("INSERT INTO searches (`name`, `query`, `position`) VALUES (\"To Do\", \"i.todo\", 4)")
         }
 
+        /**
+         * Full-text index of notes' title, content and tags, used for text searches.
+         *
+         * Index is external-content (text itself is only stored in notes) and is kept
+         * in sync by triggers. Updates of other columns (moving notes, folding) skip it.
+         */
+        fun createNotesFullTextIndex(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE VIRTUAL TABLE IF NOT EXISTS notes_fts
+                USING fts4(content="notes", title, content, tags, tokenize=unicode61)
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_before_update
+                BEFORE UPDATE OF title, content, tags ON notes
+                BEGIN
+                    DELETE FROM notes_fts WHERE docid = OLD.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_update
+                AFTER UPDATE OF title, content, tags ON notes
+                BEGIN
+                    INSERT INTO notes_fts (docid, title, content, tags) VALUES (NEW.id, NEW.title, NEW.content, NEW.tags);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_before_delete
+                BEFORE DELETE ON notes
+                BEGIN
+                    DELETE FROM notes_fts WHERE docid = OLD.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS notes_fts_after_insert
+                AFTER INSERT ON notes
+                BEGIN
+                    INSERT INTO notes_fts (docid, title, content, tags) VALUES (NEW.id, NEW.title, NEW.content, NEW.tags);
+                END
+            """)
+        }
+
+        /**
+         * Keep inherited tags (rows with is_inherited = 1) equal to own tags of all ancestors.
+         * Own tags are written by the application, as they need to be split.
+         */
+        fun createNoteTagTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_tags_ancestor_insert
+                AFTER INSERT ON note_ancestors
+                BEGIN
+                    INSERT OR IGNORE INTO note_tags (note_id, is_inherited, tag)
+                    SELECT NEW.note_id, 1, tag FROM note_tags WHERE note_id = NEW.ancestor_note_id AND is_inherited = 0;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_tags_ancestor_delete
+                AFTER DELETE ON note_ancestors
+                BEGIN
+                    DELETE FROM note_tags
+                    WHERE note_id = OLD.note_id AND is_inherited = 1 AND tag IN (
+                        SELECT tag FROM note_tags WHERE note_id = OLD.ancestor_note_id AND is_inherited = 0
+                    ) AND tag NOT IN (
+                        SELECT t.tag
+                        FROM note_ancestors a
+                        JOIN note_tags t ON (t.note_id = a.ancestor_note_id AND t.is_inherited = 0)
+                        WHERE a.note_id = OLD.note_id
+                    );
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_tags_own_insert
+                AFTER INSERT ON note_tags
+                WHEN NEW.is_inherited = 0
+                BEGIN
+                    INSERT OR IGNORE INTO note_tags (note_id, is_inherited, tag)
+                    SELECT note_id, 1, NEW.tag FROM note_ancestors WHERE ancestor_note_id = NEW.note_id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_tags_own_delete
+                AFTER DELETE ON note_tags
+                WHEN OLD.is_inherited = 0
+                BEGIN
+                    DELETE FROM note_tags
+                    WHERE is_inherited = 1 AND tag = OLD.tag AND note_id IN (
+                        SELECT note_id FROM note_ancestors WHERE ancestor_note_id = OLD.note_id
+                    ) AND NOT EXISTS (
+                        SELECT 1
+                        FROM note_ancestors a
+                        JOIN note_tags t ON (t.note_id = a.ancestor_note_id AND t.is_inherited = 0)
+                        WHERE a.note_id = note_tags.note_id AND t.tag = OLD.tag
+                    );
+                END
+            """)
+        }
+
+        /**
+         * Keep note_view up to date with notes, their planning times, books and ancestors.
+         * Rows are deleted together with notes (foreign key).
+         *
+         * Inserted ancestors are an exception, as a note has many and they are written in bulk.
+         * Inherited tags are updated once per note after that (see [NoteViewDao.updateInheritedTags]).
+         */
+        fun createNoteViewTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_view_note_insert
+                AFTER INSERT ON notes
+                BEGIN
+                    INSERT INTO note_view (${NoteViewDao.NOTE_VIEW_COLUMNS})
+                    ${NoteViewDao.SELECT_NOTE_VIEW_ROWS} WHERE notes.id = NEW.id;
+                END
+            """)
+
+            /* Room updates using UPDATE OR ABORT, which would override INSERT OR REPLACE. */
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_view_note_update
+                AFTER UPDATE OF book_id, scheduled_range_id, deadline_range_id, closed_range_id, clock_range_id
+                ON notes
+                WHEN OLD.book_id IS NOT NEW.book_id
+                    OR OLD.scheduled_range_id IS NOT NEW.scheduled_range_id
+                    OR OLD.deadline_range_id IS NOT NEW.deadline_range_id
+                    OR OLD.closed_range_id IS NOT NEW.closed_range_id
+                    OR OLD.clock_range_id IS NOT NEW.clock_range_id
+                BEGIN
+                    DELETE FROM note_view WHERE note_id = NEW.id;
+                    INSERT INTO note_view (${NoteViewDao.NOTE_VIEW_COLUMNS})
+                    ${NoteViewDao.SELECT_NOTE_VIEW_ROWS} WHERE notes.id = NEW.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_view_note_tags_update
+                AFTER UPDATE OF tags ON notes
+                WHEN OLD.tags IS NOT NEW.tags
+                BEGIN
+                    UPDATE note_view
+                    SET inherited_tags = (${NoteViewDao.SELECT_INHERITED_TAGS} WHERE t_note_ancestors.note_id = note_view.note_id)
+                    WHERE note_id IN (SELECT note_id FROM note_ancestors WHERE ancestor_note_id = NEW.id);
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_view_ancestor_delete
+                AFTER DELETE ON note_ancestors
+                BEGIN
+                    UPDATE note_view
+                    SET inherited_tags = (${NoteViewDao.SELECT_INHERITED_TAGS} WHERE t_note_ancestors.note_id = OLD.note_id)
+                    WHERE note_id = OLD.note_id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_view_book_update
+                AFTER UPDATE OF name ON books
+                BEGIN
+                    UPDATE note_view SET book_name = NEW.name WHERE note_id IN (SELECT id FROM notes WHERE book_id = NEW.id);
+                END
+            """)
+        }
+
+        /**
+         * Keep note_paths equal to titles of ancestors and the note itself.
+         * Path of each note is computed once, from its parent's path, when the note is inserted
+         * and when its parent is (re)added as an ancestor. Notes and their ancestors are written
+         * parents first, except when importing, where paths are replaced afterwards.
+         * Rows are deleted together with notes (foreign key).
+         */
+        fun createNotePathTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_paths_note_insert
+                AFTER INSERT ON notes
+                WHEN NEW.level > 0
+                BEGIN
+                    INSERT INTO note_paths (note_id, path) VALUES (NEW.id, (${NotePathDao.selectPath("NEW.id")}));
+                END
+            """)
+
+            /* Descendants' paths start with the note's old path, replace it before the note's own. */
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_paths_note_title_update
+                AFTER UPDATE OF title ON notes
+                WHEN OLD.title IS NOT NEW.title
+                BEGIN
+                    UPDATE note_paths
+                    SET path = (${NotePathDao.selectPath("NEW.id")}) || substr(path, length((SELECT path FROM note_paths WHERE note_id = NEW.id)) + 1)
+                    WHERE note_id IN (SELECT note_id FROM note_ancestors WHERE ancestor_note_id = NEW.id);
+
+                    UPDATE note_paths SET path = (${NotePathDao.selectPath("NEW.id")}) WHERE note_id = NEW.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_paths_parent_insert
+                AFTER INSERT ON note_ancestors
+                WHEN NEW.ancestor_note_id = (SELECT parent_id FROM notes WHERE id = NEW.note_id)
+                BEGIN
+                    UPDATE note_paths SET path = (${NotePathDao.selectPath("NEW.note_id")}) WHERE note_id = NEW.note_id;
+                END
+            """)
+        }
+
+        /**
+         * Delete cached Org text of the note when anything written to the book file changes.
+         * Changes of lft and rgt only (moving notes around) do not affect the note's text.
+         */
+        fun createNoteRenderedTextTriggers(db: SupportSQLiteDatabase) {
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_rendered_texts_note_update
+                AFTER UPDATE OF title, tags, state, priority, content, level,
+                    scheduled_range_id, deadline_range_id, closed_range_id, clock_range_id
+                ON notes
+                WHEN OLD.title IS NOT NEW.title
+                    OR OLD.tags IS NOT NEW.tags
+                    OR OLD.state IS NOT NEW.state
+                    OR OLD.priority IS NOT NEW.priority
+                    OR OLD.content IS NOT NEW.content
+                    OR OLD.level IS NOT NEW.level
+                    OR OLD.scheduled_range_id IS NOT NEW.scheduled_range_id
+                    OR OLD.deadline_range_id IS NOT NEW.deadline_range_id
+                    OR OLD.closed_range_id IS NOT NEW.closed_range_id
+                    OR OLD.clock_range_id IS NOT NEW.clock_range_id
+                BEGIN
+                    DELETE FROM note_rendered_texts WHERE note_id = NEW.id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_rendered_texts_property_insert
+                AFTER INSERT ON note_properties
+                BEGIN
+                    DELETE FROM note_rendered_texts WHERE note_id = NEW.note_id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_rendered_texts_property_update
+                AFTER UPDATE ON note_properties
+                BEGIN
+                    DELETE FROM note_rendered_texts WHERE note_id = OLD.note_id OR note_id = NEW.note_id;
+                END
+            """)
+
+            db.execSQL("""
+                CREATE TRIGGER IF NOT EXISTS note_rendered_texts_property_delete
+                AFTER DELETE ON note_properties
+                BEGIN
+                    DELETE FROM note_rendered_texts WHERE note_id = OLD.note_id;
+                END
+            """)
+        }
+
         private val MIGRATION_149_150 = object : Migration(149, 150) {
             override fun migrate(db: SupportSQLiteDatabase) {
                 /*
@@ -564,5 +854,119 @@ abstract class OrgzlyDatabase : RoomDatabase() {
                 db.execSQL("CREATE INDEX IF NOT EXISTS `index_app_logs_name` ON `app_logs` (`name`)")
             }
         }
+
+        private val MIGRATION_156_157 = object : Migration(156, 157) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE versioned_rooks ADD COLUMN rook_content_hash TEXT")
+            }
+        }
+
+        private val MIGRATION_157_158 = object : Migration(157, 158) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `note_rendered_texts` (`note_id` INTEGER NOT NULL, `settings` TEXT NOT NULL, `text` TEXT NOT NULL, PRIMARY KEY(`note_id`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+
+                createNoteRenderedTextTriggers(db)
+            }
+        }
+
+        private val MIGRATION_158_159 = object : Migration(158, 159) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                createNotesFullTextIndex(db)
+
+                db.execSQL("INSERT INTO notes_fts (notes_fts) VALUES ('rebuild')")
+            }
+        }
+
+        private val MIGRATION_159_160 = object : Migration(159, 160) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `note_tags` (`note_id` INTEGER NOT NULL, `is_inherited` INTEGER NOT NULL, `tag` TEXT NOT NULL COLLATE NOCASE, PRIMARY KEY(`note_id`, `is_inherited`, `tag`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tags_tag` ON `note_tags` (`tag`)")
+
+                db.query("SELECT id, tags FROM notes WHERE tags IS NOT NULL AND tags != ''").use { cursor ->
+                    while (cursor.moveToNext()) {
+                        val noteId = cursor.getLong(0)
+
+                        Note.dbDeSerializeTags(cursor.getString(1)).forEach { tag ->
+                            val values = ContentValues()
+                            values.put("note_id", noteId)
+                            values.put("is_inherited", 0)
+                            values.put("tag", tag)
+                            db.insert("note_tags", SQLiteDatabase.CONFLICT_IGNORE, values)
+                        }
+                    }
+                }
+
+                db.execSQL("""
+                    INSERT OR IGNORE INTO note_tags (note_id, is_inherited, tag)
+                    SELECT a.note_id, 1, t.tag
+                    FROM note_ancestors a
+                    JOIN note_tags t ON (t.note_id = a.ancestor_note_id AND t.is_inherited = 0)
+                """)
+
+                createNoteTagTriggers(db)
+            }
+        }
+
+        private val MIGRATION_160_161 = object : Migration(160, 161) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `note_view` (`note_id` INTEGER NOT NULL, `book_name` TEXT NOT NULL, `inherited_tags` TEXT, `scheduled_range_string` TEXT, `scheduled_is_active` INTEGER, `scheduled_time_string` TEXT, `scheduled_time_end_string` TEXT, `scheduled_time_timestamp` INTEGER, `scheduled_time_hour` INTEGER, `deadline_range_string` TEXT, `deadline_is_active` INTEGER, `deadline_time_string` TEXT, `deadline_time_end_string` TEXT, `deadline_time_timestamp` INTEGER, `deadline_time_hour` INTEGER, `closed_range_string` TEXT, `closed_time_string` TEXT, `closed_time_end_string` TEXT, `closed_time_timestamp` INTEGER, `closed_time_hour` INTEGER, `clock_range_string` TEXT, `clock_time_string` TEXT, `clock_time_end_string` TEXT, PRIMARY KEY(`note_id`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_view_book_name` ON `note_view` (`book_name`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_view_scheduled_time_timestamp` ON `note_view` (`scheduled_time_timestamp`)")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_view_deadline_time_timestamp` ON `note_view` (`deadline_time_timestamp`)")
+
+                db.execSQL("INSERT INTO note_view (${NoteViewDao.NOTE_VIEW_COLUMNS}) ${NoteViewDao.SELECT_NOTE_VIEW_ROWS}")
+
+                createNoteViewTriggers(db)
+            }
+        }
+
+        /* Leave space between lft and rgt values of existing notes (see NotePositionAllocator). */
+        private val MIGRATION_161_162 = object : Migration(161, 162) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("UPDATE notes SET lft = lft * ${NotePositionAllocator.GAP}, rgt = rgt * ${NotePositionAllocator.GAP}")
+            }
+        }
+
+        private val MIGRATION_162_163 = object : Migration(162, 163) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `note_paths` (`note_id` INTEGER NOT NULL, `path` TEXT NOT NULL, PRIMARY KEY(`note_id`), FOREIGN KEY(`note_id`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_paths_path` ON `note_paths` (`path`)")
+
+                db.execSQL(NotePathDao.replacePaths("1"))
+
+                createNotePathTriggers(db)
+            }
+        }
+
+        /* Lower-case property names and values, computed like the app does (not ASCII-only LOWER). */
+        private val MIGRATION_163_164 = object : Migration(163, 164) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("ALTER TABLE note_properties ADD COLUMN name_lower TEXT NOT NULL DEFAULT ''")
+                db.execSQL("ALTER TABLE note_properties ADD COLUMN value_lower TEXT NOT NULL DEFAULT ''")
+
+                db.query("SELECT note_id, position, name, value FROM note_properties").use { cursor ->
+                    while (cursor.moveToNext()) {
+                        val values = ContentValues()
+                        values.put("name_lower", cursor.getString(2).lowercase())
+                        values.put("value_lower", cursor.getString(3).lowercase())
+
+                        db.update(
+                                "note_properties",
+                                SQLiteDatabase.CONFLICT_ABORT,
+                                values,
+                                "note_id = ? AND position = ?",
+                                arrayOf(cursor.getLong(0), cursor.getInt(1)))
+                    }
+                }
+
+                db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_properties_name_lower_value_lower` ON `note_properties` (`name_lower`, `value_lower`)")
+            }
+        }
+
+        private val MIGRATION_164_165 = object : Migration(164, 165) {
+            override fun migrate(db: SupportSQLiteDatabase) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `book_data_versions` (`book_id` INTEGER NOT NULL, `version` INTEGER NOT NULL, PRIMARY KEY(`book_id`), FOREIGN KEY(`book_id`) REFERENCES `books`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+            }
+        }
     }
 }
@@ -0,0 +1,126 @@
+package com.orgzly.android.db
+
+import android.util.LruCache
+import com.orgzly.android.db.dao.BookDataVersionDao
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+
+/**
+ * Results of recently executed queries, shared by everything running the same query
+ * (widgets bound to the same saved search, agenda, external searches).
+ *
+ * Each result is stored with data versions of books it depends on
+ * (see [com.orgzly.android.db.entity.BookDataVersion]) and is only used while they are unchanged.
+ * Concurrent requests for the same query, with the same versions, are executed only once.
+ *
+ * Size of the cache is the total number of rows of cached results (as counted by [rowCount]).
+ * Results with more than a quarter of [maxRows] are not cached, so they don't evict all others.
+ */
+class QueryResultCache<V>(private val maxRows: Int = MAX_ROWS, private val rowCount: (V) -> Int = { 1 }) {
+
+    /** Executed SQL and its arguments. */
+    data class Key(val sql: String, val args: List<Any?>)
+
+    /** Versions of books, read in the same transaction as [value]. */
+    class Result<V>(val versions: Set<BookDataVersionDao.NamedVersion>, val value: V)
+
+    data class Stats(val hits: Int, val coalesced: Int, val misses: Int, val size: Int) {
+        val requests: Int
+            get() = hits + coalesced + misses
+
+        val hitRate: Int
+            get() = if (requests > 0) (hits + coalesced) * 100 / requests else 0
+
+        override fun toString(): String {
+            return "$hits hits, $coalesced coalesced, $misses misses ($hitRate% hit rate), $size rows cached"
+        }
+    }
+
+    private val results = object : LruCache<Key, Result<V>>(maxRows) {
+        override fun sizeOf(key: Key, value: Result<V>): Int {
+            return maxOf(rowCount(value.value), 1)
+        }
+    }
+
+    private val loading = HashMap<Pair<Key, Set<BookDataVersionDao.NamedVersion>>, FutureTask<Result<V>>>()
+
+    /** Statistics since the last [takeStats] call. */
+    private var hits = 0
+    private var coalesced = 0
+    private var misses = 0
+
+    /**
+     * Returns the cached value if it was loaded with the same [versions] of books,
+     * otherwise waits for the same request already being loaded, or [load]s it.
+     */
+    fun get(key: Key, versions: Set<BookDataVersionDao.NamedVersion>, load: () -> Result<V>): V {
+        results.get(key)?.let { result ->
+            if (result.versions == versions) {
+                synchronized(this) { hits++ }
+                return result.value
+            }
+        }
+
+        var isLoader = false
+
+        val task = synchronized(this) {
+            loading.getOrPut(Pair(key, versions)) {
+                isLoader = true
+                FutureTask { load() }
+            }
+        }
+
+        if (isLoader) {
+            try {
+                task.run()
+            } finally {
+                synchronized(this) {
+                    loading.remove(Pair(key, versions))
+                }
+            }
+        }
+
+        val result = try {
+            task.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+
+        synchronized(this) {
+            if (isLoader) {
+                misses++
+                if (rowCount(result.value) <= maxRows / 4) {
+                    results.put(key, result)
+                }
+            } else {
+                coalesced++
+            }
+        }
+
+        return result.value
+    }
+
+    /** Number of requests since the last [takeStats] call. */
+    val requestsSinceStats: Int
+        @Synchronized get() = hits + coalesced + misses
+
+    fun clear() {
+        results.evictAll()
+    }
+
+    /**
+     * Returns statistics collected since the previous call.
+     */
+    @Synchronized
+    fun takeStats(): Stats {
+        return Stats(hits, coalesced, misses, results.size()).also {
+            hits = 0
+            coalesced = 0
+            misses = 0
+        }
+    }
+
+    companion object {
+        const val MAX_ROWS = 10_000
+    }
+}
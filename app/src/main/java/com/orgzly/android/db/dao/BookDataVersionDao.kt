@@ -0,0 +1,35 @@
+package com.orgzly.android.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import com.orgzly.android.db.entity.BookDataVersion
+
+@Dao
+abstract class BookDataVersionDao : BaseDao<BookDataVersion> {
+
+    @Query("""
+        INSERT OR REPLACE INTO book_data_versions (book_id, version)
+        SELECT id, COALESCE((SELECT version FROM book_data_versions WHERE book_id = books.id), 0) + 1
+        FROM books
+        WHERE id IN (:bookIds)
+    """)
+    abstract fun increment(bookIds: Set<Long>)
+
+    @Query("""
+        SELECT books.name, books.id AS bookId, COALESCE(book_data_versions.version, 0) AS version
+        FROM books
+        LEFT JOIN book_data_versions ON (book_data_versions.book_id = books.id)
+    """)
+    abstract fun getAll(): List<NamedVersion>
+
+    @Query("""
+        SELECT books.name, books.id AS bookId, COALESCE(book_data_versions.version, 0) AS version
+        FROM books
+        LEFT JOIN book_data_versions ON (book_data_versions.book_id = books.id)
+        WHERE books.name IN (:bookNames)
+    """)
+    abstract fun get(bookNames: Set<String>): List<NamedVersion>
+
+    /** Book's ID is included, as a book can be deleted and created again with the same name. */
+    data class NamedVersion(val name: String, val bookId: Long, val version: Long)
+}
@@ -44,7 +44,8 @@ abstract class BookViewDao {
             synced_repos.url as synced_to_repoUri,
             synced_rook_urls.url as synced_to_uri,
             synced_versioned_rooks.rook_revision as synced_to_revision,
-            synced_versioned_rooks.rook_mtime as synced_to_mtime
+            synced_versioned_rooks.rook_mtime as synced_to_mtime,
+            synced_versioned_rooks.rook_content_hash as synced_to_contentHash
 
             FROM books
 
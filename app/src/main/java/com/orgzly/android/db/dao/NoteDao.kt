@@ -1,9 +1,11 @@
 package com.orgzly.android.db.dao
 
-import androidx.lifecycle.LiveData
+import android.database.Cursor
 import androidx.room.Dao
+import androidx.room.Embedded
 import androidx.room.Query
 import androidx.room.Transaction
+import com.orgzly.android.db.NotePositionAllocator
 import com.orgzly.android.db.OrgzlyDatabase
 import com.orgzly.android.db.entity.Note
 import com.orgzly.android.db.entity.NotePosition
@@ -42,18 +44,53 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("SELECT * FROM notes WHERE parent_id = :id AND $WHERE_EXISTING_NOTES ORDER BY lft")
     abstract fun getChildren(id: Long): List<Note>
 
-    @Query("SELECT DISTINCT tags FROM notes WHERE tags IS NOT NULL AND tags != ''")
-    abstract fun getDistinctTagsLiveData(): LiveData<List<String>>
-
-    @Query("SELECT DISTINCT tags FROM notes WHERE tags IS NOT NULL AND tags != ''")
-    abstract fun getDistinctTags(): List<String>
-
     @Query("DELETE FROM notes WHERE id IN ($SELECT_SUBTREE_IDS_FOR_IDS)")
     abstract fun deleteById(ids: Set<Long>): Int
 
     @Query("DELETE FROM notes WHERE book_id = :bookId")
     abstract fun deleteByBookId(bookId: Long)
 
+    @Query("DELETE FROM notes WHERE book_id = :bookId AND is_cut != 0")
+    abstract fun deleteCutByBookId(bookId: Long)
+
+    /** Deletes only the notes specified, not their subtrees. */
+    @Transaction
+    open fun deleteByIds(ids: List<Long>) {
+        ids.chunked(OrgzlyDatabase.SQLITE_MAX_VARIABLE_NUMBER).forEach { chunk ->
+            deleteByIdsChunk(chunk)
+        }
+    }
+
+    @Query("DELETE FROM notes WHERE id IN (:ids)")
+    abstract fun deleteByIdsChunk(ids: List<Long>)
+
+    @Query("""
+        SELECT notes.*, sr.string AS scheduled, dr.string AS deadline, cr.string AS closed, kr.string AS clock
+        FROM notes
+        LEFT JOIN org_ranges sr ON (sr.id = notes.scheduled_range_id)
+        LEFT JOIN org_ranges dr ON (dr.id = notes.deadline_range_id)
+        LEFT JOIN org_ranges cr ON (cr.id = notes.closed_range_id)
+        LEFT JOIN org_ranges kr ON (kr.id = notes.clock_range_id)
+        WHERE notes.book_id = :bookId AND notes.is_cut = 0
+        ORDER BY notes.lft
+    """)
+    abstract fun getForReload(bookId: Long): List<NoteForReload>
+
+    @Query("""
+        SELECT notes.id, notes.level, notes.title, notes.tags, notes.state, notes.priority, notes.content,
+        sr.string AS scheduled, dr.string AS deadline, cr.string AS closed, kr.string AS clock,
+        rt.text AS rendered_text
+        FROM notes
+        LEFT JOIN org_ranges sr ON (sr.id = notes.scheduled_range_id)
+        LEFT JOIN org_ranges dr ON (dr.id = notes.deadline_range_id)
+        LEFT JOIN org_ranges cr ON (cr.id = notes.closed_range_id)
+        LEFT JOIN org_ranges kr ON (kr.id = notes.clock_range_id)
+        LEFT JOIN note_rendered_texts rt ON (rt.note_id = notes.id AND rt.settings = :settings)
+        WHERE notes.book_id = :bookId AND notes.level > 0 AND notes.is_cut = 0
+        ORDER BY notes.lft
+    """)
+    abstract fun getForExport(bookId: Long, settings: String): Cursor
+
     @Query(SELECT_NOTE_AND_ANCESTORS_IDS_FOR_IDS)
     abstract fun getNoteAndAncestorsIds(ids: List<Long>): List<Long>
 
@@ -119,15 +156,6 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun getNextSibling(bookId: Long, rgt: Long, parentId: Long): Note?
 
-    @Query("""
-        SELECT *
-        FROM notes
-        WHERE book_id = :bookId AND $WHERE_EXISTING_NOTES AND :lft < lft AND rgt < :rgt
-        ORDER BY level, lft DESC
-        LIMIT 1
-    """)
-    abstract fun getLastHighestLevelDescendant(bookId: Long, lft: Long, rgt: Long): Note?
-
     @Query("""
         UPDATE notes
         SET descendants_count = descendants_count + 1
@@ -135,9 +163,6 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun incrementDescendantsCountForAncestors(bookId: Long, lft: Long, rgt: Long): Int
 
-    @Query("UPDATE notes SET rgt = rgt + 2 WHERE book_id = :bookId AND level = 0")
-    abstract fun incrementRgtForRootNote(bookId: Long)
-
     @Query("SELECT id FROM notes WHERE book_id = :bookId AND level = 0")
     abstract fun getRootNodeId(bookId: Long): Long?
 
@@ -146,25 +171,31 @@ abstract class NoteDao : BaseDao<Note> {
 
     @Query("""
         UPDATE notes
-        SET descendants_count = (
-            SELECT count(*)
-            FROM notes d
-            WHERE (notes.book_id = d.book_id AND $WHERE_EXISTING_NOTES AND notes.lft < d.lft AND d.rgt < notes.rgt)
-        )
-        WHERE id IN ($SELECT_NOTE_AND_ANCESTORS_IDS_FOR_IDS)
+        SET descendants_count = descendants_count + :inc
+        WHERE id IN (:ids) AND level > 0
     """)
-    abstract fun updateDescendantsCountForNoteAndAncestors(ids: List<Long>)
+    abstract fun incrementDescendantsCount(ids: Collection<Long>, inc: Int)
 
     @Query("""
-        UPDATE notes
-        SET descendants_count = (
-            SELECT count(*)
-            FROM notes d
-            WHERE (notes.book_id = d.book_id AND $WHERE_EXISTING_NOTES AND notes.lft < d.lft AND d.rgt < notes.rgt AND d.id NOT IN (:ignoreIds))
-        )
-        WHERE id IN ($SELECT_ANCESTORS_IDS_FOR_IDS)
+        SELECT id, book_id AS bookId, parent_id AS parentId, lft, rgt, level, descendants_count AS descendantsCount
+        FROM notes
+        WHERE id IN (:ids) AND is_cut = 0
+    """)
+    abstract fun getTreeNodes(ids: List<Long>): List<NoteTreeNode>
+
+    @Query("""
+        SELECT id, book_id AS bookId, parent_id AS parentId, lft, rgt, level, descendants_count AS descendantsCount
+        FROM notes
+        WHERE book_id = :bookId AND is_cut = 0 AND :lft <= lft AND rgt <= :rgt
+        ORDER BY lft
     """)
-    abstract fun updateDescendantsCountForAncestors(ids: Set<Long>, ignoreIds: Set<Long> = emptySet())
+    abstract fun getSubtreeTreeNodes(bookId: Long, lft: Long, rgt: Long): List<NoteTreeNode>
+
+    @Query("SELECT count(*) FROM notes WHERE book_id = :bookId AND $WHERE_EXISTING_NOTES AND :lft <= lft AND rgt <= :rgt")
+    abstract fun getSubtreeCount(bookId: Long, lft: Long, rgt: Long): Int
+
+    @Query("SELECT content FROM notes WHERE id = :id")
+    abstract fun getContent(id: Long): String?
 
     @Query("UPDATE notes SET content = :content, content_line_count = :contentLineCount WHERE id = :id")
     abstract fun updateContent(id: Long, content: String?, contentLineCount: Int)
@@ -257,17 +288,40 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun unfoldDescendantsUnderId(bookId: Long, noteId: Long, lft: Long, rgt: Long)
 
-    @Query("UPDATE notes SET lft = lft + :inc WHERE (book_id = :bookId AND $WHERE_EXISTING_NOTES) AND lft >= :value")
-    abstract fun incrementLftForLftGe(bookId: Long, value: Long, inc: Int)
+    /** Largest lft or rgt in the book smaller than [value]. */
+    @Query("""
+        SELECT MAX(value) FROM (
+            SELECT MAX(lft) AS value FROM notes WHERE book_id = :bookId AND is_cut = 0 AND lft < :value
+            UNION ALL
+            SELECT MAX(rgt) AS value FROM notes WHERE book_id = :bookId AND is_cut = 0 AND rgt < :value)
+    """)
+    abstract fun getPositionValueBefore(bookId: Long, value: Long): Long?
+
+    /** Smallest lft or rgt in the book greater than [value]. */
+    @Query("""
+        SELECT MIN(value) FROM (
+            SELECT MIN(lft) AS value FROM notes WHERE book_id = :bookId AND is_cut = 0 AND lft > :value
+            UNION ALL
+            SELECT MIN(rgt) AS value FROM notes WHERE book_id = :bookId AND is_cut = 0 AND rgt > :value)
+    """)
+    abstract fun getPositionValueAfter(bookId: Long, value: Long): Long?
+
+    /** Notes containing [value] (including the root note), innermost first. */
+    @Query("""
+        SELECT id, lft, rgt, level FROM notes
+        WHERE book_id = :bookId AND is_cut = 0 AND lft <= :value AND :value < rgt
+        ORDER BY lft DESC
+    """)
+    abstract fun getIntervalsContaining(bookId: Long, value: Long): List<NoteInterval>
 
-    @Query("UPDATE notes SET lft = lft + :inc WHERE (book_id = :bookId AND $WHERE_EXISTING_NOTES) AND lft > :value")
-    abstract fun incrementLftForLftGt(bookId: Long, value: Long, inc: Int)
+    @Query("SELECT id, lft, rgt, level FROM notes WHERE book_id = :bookId AND is_cut = 0 AND :lft < lft AND rgt < :rgt")
+    abstract fun getIntervalsInside(bookId: Long, lft: Long, rgt: Long): List<NoteInterval>
 
-    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt > :value")
-    abstract fun incrementRgtForRgtGtOrRoot(bookId: Long, value: Long, inc: Int)
+    @Query("SELECT count(*) FROM notes WHERE book_id = :bookId AND is_cut = 0 AND :lft < lft AND rgt < :rgt")
+    abstract fun getCountInside(bookId: Long, lft: Long, rgt: Long): Int
 
-    @Query("UPDATE notes SET rgt = rgt + :inc WHERE book_id = :bookId AND is_cut = 0 AND rgt >= :value")
-    abstract fun incrementRgtForRgtGeOrRoot(bookId: Long, value: Long, inc: Int)
+    @Query("UPDATE notes SET lft = :lft, rgt = :rgt WHERE id = :id")
+    abstract fun updateLftRgt(id: Long, lft: Long, rgt: Long)
 
     @Transaction
     open fun unfoldNotesFoldedUnderOthers(ids: Set<Long>) {
@@ -300,11 +354,18 @@ abstract class NoteDao : BaseDao<Note> {
     """)
     abstract fun updateNote(noteId: Long, bookId: Long, level: Int, lft: Long, rgt: Long, parentId: Long)
 
+    @Query("""
+        UPDATE notes
+        SET lft = :lft, rgt = :rgt, level = :level, parent_id = :parentId, folded_under_id = :foldedUnderId, descendants_count = :descendantsCount
+        WHERE id = :noteId
+    """)
+    abstract fun updatePosition(noteId: Long, lft: Long, rgt: Long, level: Int, parentId: Long, foldedUnderId: Long, descendantsCount: Int)
+
     @Query("""
         SELECT notes.id as noteId, notes.book_id as bookId
         FROM note_properties
-        LEFT JOIN notes ON (notes.id = note_properties.note_id)
-        WHERE LOWER(note_properties.name) = :name AND LOWER(note_properties.value) = :value AND notes.id IS NOT NULL
+        JOIN notes ON (notes.id = note_properties.note_id)
+        WHERE note_properties.name_lower = :name AND note_properties.value_lower = :value
         ORDER BY notes.lft
         LIMIT 1
     """)
@@ -335,9 +396,6 @@ abstract class NoteDao : BaseDao<Note> {
     @Query("""SELECT DISTINCT book_id FROM notes WHERE id IN (:ids) AND COALESCE(state, "") != COALESCE(:state, "")""")
     abstract fun getBookIdsForNotesNotMatchingState(ids: Set<Long>, state: String?): List<Long>
 
-    @Query("SELECT MAX(rgt) FROM notes WHERE book_id = :bookId AND is_cut = 0")
-    abstract fun getMaxRgtForBook(bookId: Long): Long?
-
     @Query("SELECT * FROM notes WHERE book_id = :bookId AND level > 0 ORDER BY lft LIMIT 1")
     abstract fun getFirstNoteInBook(bookId: Long): Note?
 
@@ -348,18 +406,6 @@ abstract class NoteDao : BaseDao<Note> {
         /* Every book has a root note with level 0. */
         const val WHERE_EXISTING_NOTES = "(is_cut = 0 AND level > 0)"
 
-        @Language("RoomSql")
-        const val SELECT_ANCESTORS_IDS_FOR_IDS = """
-            SELECT DISTINCT a.id
-            FROM notes n, notes a
-            WHERE n.id IN (:ids)
-            AND n.book_id = a.book_id
-            AND a.is_cut = 0
-            AND a.level > 0
-            AND a.lft < n.lft
-            AND n.rgt < a.rgt
-            """
-
         @Language("RoomSql")
         const val SELECT_NOTE_AND_ANCESTORS_IDS_FOR_IDS = """
             SELECT DISTINCT a.id
@@ -410,12 +456,31 @@ abstract class NoteDao : BaseDao<Note> {
             """
 
         fun rootNote(bookId: Long): Note {
-            return Note(id = 0, position = NotePosition(bookId, lft = 1, rgt = 2, level = 0))
+            return Note(id = 0, position = NotePosition(
+                    bookId, lft = NotePositionAllocator.GAP, rgt = 2 * NotePositionAllocator.GAP, level = 0))
         }
     }
 
     data class NoteIdBookId(val noteId: Long, val bookId: Long)
 
+    data class NoteInterval(val id: Long, val lft: Long, val rgt: Long, val level: Int)
+
+    data class NoteTreeNode(
+            val id: Long,
+            val bookId: Long,
+            val parentId: Long,
+            val lft: Long,
+            val rgt: Long,
+            val level: Int,
+            val descendantsCount: Int)
+
+    data class NoteForReload(
+            @Embedded val note: Note,
+            val scheduled: String?,
+            val deadline: String?,
+            val closed: String?,
+            val clock: String?)
+
     data class NoteForStateUpdate(
             val noteId: Long,
             val state: String?,
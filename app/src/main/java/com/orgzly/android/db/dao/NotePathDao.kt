@@ -0,0 +1,58 @@
+package com.orgzly.android.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import com.orgzly.android.db.entity.NotePath
+
+@Dao
+abstract class NotePathDao : BaseDao<NotePath> {
+
+    @Query("SELECT path FROM note_paths WHERE note_id = :noteId")
+    abstract fun get(noteId: Long): String?
+
+    /**
+     * First note in the book (in book order) with the outline path, ignoring cut notes.
+     */
+    @Query("""
+        SELECT notes.id
+        FROM note_paths
+        JOIN notes ON (notes.id = note_paths.note_id)
+        JOIN books ON (books.id = notes.book_id)
+        WHERE note_paths.path = :path AND books.name = :bookName AND notes.is_cut = 0
+        ORDER BY notes.lft
+        LIMIT 1
+    """)
+    abstract fun getNoteId(bookName: String, path: String): Long?
+
+    companion object {
+        /**
+         * Resolves the outline path of the note [noteId] (SQL expression) from the path
+         * of its parent and its own title. Notes under the book's root note have no parent path.
+         */
+        fun selectPath(noteId: String) = """
+            SELECT COALESCE(t_parent_paths.path || '/', '') || notes.title
+            FROM notes
+            LEFT JOIN note_paths t_parent_paths ON (t_parent_paths.note_id = notes.parent_id)
+            WHERE notes.id = $noteId
+        """
+
+        /**
+         * Inserts or replaces paths of all notes matching [where] (SQL condition on notes),
+         * resolved from parent IDs, starting with notes under the book's root note.
+         * Used when notes are not inserted parents first (importing a book).
+         */
+        fun replacePaths(where: String) = """
+            WITH RECURSIVE t_paths (id, path) AS (
+                SELECT notes.id, notes.title
+                FROM notes
+                LEFT JOIN notes t_parents ON (t_parents.id = notes.parent_id)
+                WHERE $where AND notes.level > 0 AND (t_parents.id IS NULL OR t_parents.level = 0)
+                UNION ALL
+                SELECT notes.id, t_paths.path || '/' || notes.title
+                FROM notes
+                JOIN t_paths ON (notes.parent_id = t_paths.id)
+            )
+            INSERT OR REPLACE INTO note_paths (note_id, path) SELECT id, path FROM t_paths
+        """
+    }
+}
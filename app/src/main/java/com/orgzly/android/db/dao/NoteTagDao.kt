@@ -0,0 +1,40 @@
+package com.orgzly.android.db.dao
+
+import androidx.lifecycle.LiveData
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Transaction
+import com.orgzly.android.db.entity.Note
+import com.orgzly.android.db.entity.NoteTag
+
+@Dao
+abstract class NoteTagDao : BaseDao<NoteTag> {
+
+    @Query("SELECT * FROM note_tags WHERE note_id = :noteId ORDER BY is_inherited, tag")
+    abstract fun get(noteId: Long): List<NoteTag>
+
+    @Query("SELECT DISTINCT tag COLLATE BINARY FROM note_tags WHERE is_inherited = 0")
+    abstract fun getDistinctLiveData(): LiveData<List<String>>
+
+    @Query("SELECT DISTINCT tag COLLATE BINARY FROM note_tags WHERE is_inherited = 0")
+    abstract fun getDistinct(): List<String>
+
+    /**
+     * Replaces own tags of the note, using its serialized tags.
+     * Inherited tags of descendants are updated by triggers.
+     */
+    @Transaction
+    open fun replaceOwn(noteId: Long, tags: String?) {
+        deleteOwn(noteId)
+
+        Note.dbDeSerializeTags(tags).forEach { tag ->
+            insertOwn(noteId, tag)
+        }
+    }
+
+    @Query("INSERT OR IGNORE INTO note_tags (note_id, is_inherited, tag) VALUES (:noteId, 0, :tag)")
+    abstract fun insertOwn(noteId: Long, tag: String)
+
+    @Query("DELETE FROM note_tags WHERE note_id = :noteId AND is_inherited = 0")
+    abstract fun deleteOwn(noteId: Long)
+}
@@ -7,95 +7,194 @@ import androidx.room.RawQuery
 import androidx.sqlite.db.SupportSQLiteQuery
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.db.entity.Note
+import com.orgzly.android.db.entity.NotePageRow
 import com.orgzly.android.db.entity.NoteView
+import com.orgzly.android.db.entity.NoteViewRow
 import org.intellij.lang.annotations.Language
 
 @Dao
 abstract class NoteViewDao {
-    @Query("$QUERY WHERE notes.level > 0 GROUP BY notes.id")
+    @Query("$QUERY WHERE notes.level > 0")
     abstract fun getAll(): List<NoteView>
 
     @Query("""
-        $QUERY
-        WHERE notes.book_id = :bookId
-        AND notes.level > 0
-        AND notes.is_cut = 0
-        AND notes.folded_under_id = 0
-        GROUP BY notes.id
-        ORDER BY notes.lft
+        SELECT $LIST_COLUMNS FROM ($QUERY)
+        WHERE book_id = :bookId
+        AND level > 0
+        AND is_cut = 0
+        AND folded_under_id = 0
+        ORDER BY lft
     """)
     abstract fun getVisibleLiveData(bookId: Long): LiveData<List<NoteView>>
 
     @Query("""
-        $QUERY
-        WHERE notes.book_id = :bookId
-        AND notes.level > 0
-        AND notes.is_cut = 0
-        AND notes.folded_under_id = 0
-        AND :lft <= notes.lft
-        AND notes.rgt <= :rgt
-        GROUP BY notes.id
-        ORDER BY notes.lft
+        SELECT $LIST_COLUMNS FROM ($QUERY)
+        WHERE book_id = :bookId
+        AND level > 0
+        AND is_cut = 0
+        AND folded_under_id = 0
+        AND :lft <= lft
+        AND rgt <= :rgt
+        ORDER BY lft
     """)
     abstract fun getVisibleLiveData(bookId: Long, lft: Long, rgt: Long): LiveData<List<NoteView>>
 
-    @RawQuery(observedEntities = [ Note::class, Book::class ])
+    @Query("""
+        SELECT $LIST_PREVIEW_COLUMNS FROM ($QUERY)
+        WHERE book_id = :bookId
+        AND level > 0
+        AND is_cut = 0
+        AND folded_under_id = 0
+        ORDER BY lft
+    """)
+    abstract fun getVisiblePreviewLiveData(bookId: Long): LiveData<List<NoteView>>
+
+    @Query("""
+        SELECT $LIST_PREVIEW_COLUMNS FROM ($QUERY)
+        WHERE book_id = :bookId
+        AND level > 0
+        AND is_cut = 0
+        AND folded_under_id = 0
+        AND :lft <= lft
+        AND rgt <= :rgt
+        ORDER BY lft
+    """)
+    abstract fun getVisiblePreviewLiveData(bookId: Long, lft: Long, rgt: Long): LiveData<List<NoteView>>
+
+    @RawQuery(observedEntities = [ Note::class, NoteViewRow::class, Book::class ])
     abstract fun runQueryLiveData(query: SupportSQLiteQuery): LiveData<List<NoteView>>
 
-    @RawQuery(observedEntities = [ Note::class, Book::class ])
+    @RawQuery(observedEntities = [ Note::class, NoteViewRow::class, Book::class ])
     abstract fun runQuery(query: SupportSQLiteQuery): List<NoteView>
 
-    @Query("$QUERY WHERE notes.id = :id GROUP BY notes.id")
+    @RawQuery(observedEntities = [ Note::class, NoteViewRow::class, Book::class ])
+    abstract fun runPageQuery(query: SupportSQLiteQuery): List<NotePageRow>
+
+    @Query("$QUERY WHERE notes.id = :id")
     abstract fun get(id: Long): NoteView?
 
-    @Query("$QUERY WHERE notes.title = :title GROUP BY notes.id ORDER BY lft DESC LIMIT 1")
+    @Query("$QUERY WHERE notes.title = :title ORDER BY lft DESC LIMIT 1")
     abstract fun getLast(title: String): NoteView?
 
-    @Query("$QUERY WHERE book_name = :bookName AND notes.level > 0 AND notes.is_cut = 0 GROUP BY notes.id ORDER BY notes.lft")
+    @Query("$QUERY WHERE book_name = :bookName AND notes.level > 0 AND notes.is_cut = 0 ORDER BY notes.lft")
     abstract fun getBookNotes(bookName: String): List<NoteView>
 
+    /**
+     * Returns IDs of notes whose row in note_view is missing or different
+     * from the one resolved from notes, ranges, timestamps, books and ancestors.
+     */
+    @Query("""
+        SELECT r.note_id
+        FROM ($SELECT_NOTE_VIEW_ROWS) r
+        LEFT JOIN note_view v ON (v.note_id = r.note_id)
+        WHERE v.note_id IS NULL
+        OR r.book_name IS NOT v.book_name
+        OR r.inherited_tags IS NOT v.inherited_tags
+        OR r.scheduled_range_string IS NOT v.scheduled_range_string
+        OR r.scheduled_is_active IS NOT v.scheduled_is_active
+        OR r.scheduled_time_string IS NOT v.scheduled_time_string
+        OR r.scheduled_time_end_string IS NOT v.scheduled_time_end_string
+        OR r.scheduled_time_timestamp IS NOT v.scheduled_time_timestamp
+        OR r.scheduled_time_hour IS NOT v.scheduled_time_hour
+        OR r.deadline_range_string IS NOT v.deadline_range_string
+        OR r.deadline_is_active IS NOT v.deadline_is_active
+        OR r.deadline_time_string IS NOT v.deadline_time_string
+        OR r.deadline_time_end_string IS NOT v.deadline_time_end_string
+        OR r.deadline_time_timestamp IS NOT v.deadline_time_timestamp
+        OR r.deadline_time_hour IS NOT v.deadline_time_hour
+        OR r.closed_range_string IS NOT v.closed_range_string
+        OR r.closed_time_string IS NOT v.closed_time_string
+        OR r.closed_time_end_string IS NOT v.closed_time_end_string
+        OR r.closed_time_timestamp IS NOT v.closed_time_timestamp
+        OR r.closed_time_hour IS NOT v.closed_time_hour
+        OR r.clock_range_string IS NOT v.clock_range_string
+        OR r.clock_time_string IS NOT v.clock_time_string
+        OR r.clock_time_end_string IS NOT v.clock_time_end_string
+    """)
+    abstract fun getInconsistentNoteIds(): List<Long>
+
+    /**
+     * Updates inherited tags of notes whose ancestors were just inserted.
+     * Done once per note, after all of its ancestors are written, instead of on every inserted row.
+     */
+    @Query("""
+        UPDATE note_view
+        SET inherited_tags = ($SELECT_INHERITED_TAGS WHERE t_note_ancestors.note_id = note_view.note_id)
+        WHERE note_id IN (:noteIds)
+    """)
+    abstract fun updateInheritedTags(noteIds: List<Long>)
+
+    @Query("""
+        UPDATE note_view
+        SET inherited_tags = ($SELECT_INHERITED_TAGS WHERE t_note_ancestors.note_id = note_view.note_id)
+        WHERE note_id IN (SELECT id FROM notes WHERE book_id = :bookId AND :lft <= lft AND rgt <= :rgt)
+    """)
+    abstract fun updateInheritedTags(bookId: Long, lft: Long, rgt: Long)
+
+    @Query("""
+        UPDATE note_view
+        SET inherited_tags = ($SELECT_INHERITED_TAGS WHERE t_note_ancestors.note_id = note_view.note_id)
+        WHERE note_id IN (SELECT id FROM notes WHERE book_id = :bookId)
+    """)
+    abstract fun updateInheritedTagsForBook(bookId: Long)
+
 
     companion object {
+        const val NOTE_VIEW_COLUMNS = """
+            note_id, book_name, inherited_tags,
+            scheduled_range_string, scheduled_is_active, scheduled_time_string, scheduled_time_end_string, scheduled_time_timestamp, scheduled_time_hour,
+            deadline_range_string, deadline_is_active, deadline_time_string, deadline_time_end_string, deadline_time_timestamp, deadline_time_hour,
+            closed_range_string, closed_time_string, closed_time_end_string, closed_time_timestamp, closed_time_hour,
+            clock_range_string, clock_time_string, clock_time_end_string
+        """
+
+        /**
+         * Inherited tags of the note, in the order its ancestors were inserted.
+         * Used by [SELECT_NOTE_VIEW_ROWS] and by triggers updating note_view.
+         */
+        const val SELECT_INHERITED_TAGS = """
+            SELECT group_concat(t_ancestors.tags, ' ')
+            FROM note_ancestors t_note_ancestors
+            JOIN notes t_ancestors ON t_ancestors.id = t_note_ancestors.ancestor_note_id
+        """
+
+        /**
+         * Resolves rows of note_view (columns are in [NOTE_VIEW_COLUMNS] order).
+         * Condition on notes can be appended.
+         */
         @Language("RoomSql")
-        const val QUERY = """
+        const val SELECT_NOTE_VIEW_ROWS = """
             SELECT
 
-            notes.*,
+            notes.id AS note_id,
+
+            t_books.name AS book_name,
 
-            group_concat(t_notes_with_inherited_tags.tags, ' ') AS inherited_tags,
+            ($SELECT_INHERITED_TAGS WHERE t_note_ancestors.note_id = notes.id) AS inherited_tags,
 
             t_scheduled_range.string AS scheduled_range_string,
+            t_scheduled_timestamps_start.is_active AS scheduled_is_active,
             t_scheduled_timestamps_start.string AS scheduled_time_string,
             t_scheduled_timestamps_end.string AS scheduled_time_end_string,
             t_scheduled_timestamps_start.timestamp AS scheduled_time_timestamp,
-            datetime(t_scheduled_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
             t_scheduled_timestamps_start.hour AS scheduled_time_hour,
 
             t_deadline_range.string AS deadline_range_string,
+            t_deadline_timestamps_start.is_active AS deadline_is_active,
             t_deadline_timestamps_start.string AS deadline_time_string,
             t_deadline_timestamps_end.string AS deadline_time_end_string,
             t_deadline_timestamps_start.timestamp AS deadline_time_timestamp,
-            datetime(t_deadline_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
             t_deadline_timestamps_start.hour AS deadline_time_hour,
 
             t_closed_range.string AS closed_range_string,
             t_closed_timestamps_start.string AS closed_time_string,
             t_closed_timestamps_end.string AS closed_time_end_string,
-            t_closed_timestamps_start.string AS closed_time_timestamp,
-            datetime(t_closed_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
+            t_closed_timestamps_start.timestamp AS closed_time_timestamp,
             t_closed_timestamps_start.hour AS closed_time_hour,
 
             t_clock_range.string AS clock_range_string,
             t_clock_timestamps_start.string AS clock_time_string,
-            t_clock_timestamps_end.string AS clock_time_end_string,
-
-            NULL AS event_string,
-            NULL AS event_timestamp,
-            NULL AS event_end_timestamp,
-            NULL AS event_start_of_day,
-            NULL AS event_hour,
-
-            t_books.name AS book_name
+            t_clock_timestamps_end.string AS clock_time_end_string
 
             FROM notes
 
@@ -112,70 +211,122 @@ abstract class NoteViewDao {
             LEFT JOIN org_timestamps t_clock_timestamps_start ON t_clock_timestamps_start.id = t_clock_range.start_timestamp_id
             LEFT JOIN org_timestamps t_clock_timestamps_end ON t_clock_timestamps_end.id = t_clock_range.end_timestamp_id
             LEFT JOIN books t_books ON t_books.id = notes.book_id
-            LEFT JOIN note_ancestors t_note_ancestors ON t_note_ancestors.note_id = notes.id
-            LEFT JOIN notes t_notes_with_inherited_tags ON t_notes_with_inherited_tags.id = t_note_ancestors.ancestor_note_id
+        """
+
+        /** Columns of [NoteView] read from note_view, without events. */
+        private const val NOTE_VIEW_SELECTION = """
+            notes.*,
+
+            t_note_view.inherited_tags,
+
+            t_note_view.scheduled_range_string,
+            t_note_view.scheduled_is_active,
+            t_note_view.scheduled_time_string,
+            t_note_view.scheduled_time_end_string,
+            t_note_view.scheduled_time_timestamp,
+            datetime(t_note_view.scheduled_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
+            t_note_view.scheduled_time_hour,
+
+            t_note_view.deadline_range_string,
+            t_note_view.deadline_is_active,
+            t_note_view.deadline_time_string,
+            t_note_view.deadline_time_end_string,
+            t_note_view.deadline_time_timestamp,
+            datetime(t_note_view.deadline_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
+            t_note_view.deadline_time_hour,
+
+            t_note_view.closed_range_string,
+            t_note_view.closed_time_string,
+            t_note_view.closed_time_end_string,
+            t_note_view.closed_time_timestamp,
+            datetime(t_note_view.closed_time_timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
+            t_note_view.closed_time_hour,
+
+            t_note_view.clock_range_string,
+            t_note_view.clock_time_string,
+            t_note_view.clock_time_end_string,
+
+            0 AS is_content_preview,
+
+            t_note_view.book_name
+        """
+
+        /** Number of characters of content loaded for lists which do not display it. */
+        const val CONTENT_PREVIEW_LENGTH = 1000
+
+        /** Columns of [LIST_COLUMNS] and [LIST_PREVIEW_COLUMNS] after the content. */
+        private const val LIST_COLUMNS_AFTER_CONTENT = """
+            content_line_count,
+            scheduled_range_id, deadline_range_id, closed_range_id, clock_range_id,
+            book_id, lft, rgt, level, parent_id, folded_under_id, is_folded, descendants_count,
+
+            inherited_tags,
+            scheduled_range_string, scheduled_is_active, scheduled_time_string, scheduled_time_end_string,
+            scheduled_time_timestamp, scheduled_time_start_of_day, scheduled_time_hour,
+            deadline_range_string, deadline_is_active, deadline_time_string, deadline_time_end_string,
+            deadline_time_timestamp, deadline_time_start_of_day, deadline_time_hour,
+            closed_range_string, closed_time_string, closed_time_end_string,
+            closed_time_timestamp, closed_time_start_of_day, closed_time_hour,
+            clock_range_string, clock_time_string, clock_time_end_string,
+            event_string, event_timestamp, event_end_timestamp, event_start_of_day, event_hour,
+            book_name
+        """
+
+        /**
+         * Columns of [QUERY] and [QUERY_WITH_NOTE_EVENTS] results, for lists displaying content.
+         */
+        const val LIST_COLUMNS = """
+            id, is_cut, created_at, title, tags, state, priority,
+            content,
+            0 AS is_content_preview,
+            $LIST_COLUMNS_AFTER_CONTENT
+        """
+
+        /**
+         * Columns of [QUERY] and [QUERY_WITH_NOTE_EVENTS] results, for lists not displaying content
+         * (only its line count). Content is cut to [CONTENT_PREVIEW_LENGTH] characters
+         * (setting [NoteView.isContentPreview]). Conditions on content still apply
+         * to the full content, as it is the subquery's column.
+         */
+        const val LIST_PREVIEW_COLUMNS = """
+            id, is_cut, created_at, title, tags, state, priority,
+            substr(content, 1, $CONTENT_PREVIEW_LENGTH) AS content,
+            length(content) > $CONTENT_PREVIEW_LENGTH AS is_content_preview,
+            $LIST_COLUMNS_AFTER_CONTENT
         """
 
         @Language("RoomSql")
-        const val QUERY_WITH_NOTE_EVENTS = """
+        const val QUERY = """
             SELECT
 
-            notes.*,
+            $NOTE_VIEW_SELECTION,
 
-            group_concat(t_notes_with_inherited_tags.tags, ' ') AS inherited_tags,
+            NULL AS event_string,
+            NULL AS event_timestamp,
+            NULL AS event_end_timestamp,
+            NULL AS event_start_of_day,
+            NULL AS event_hour
 
-            t_scheduled_range.string AS scheduled_range_string,
-            t_scheduled_timestamps_start.is_active AS scheduled_is_active,
-            t_scheduled_timestamps_start.string AS scheduled_time_string,
-            t_scheduled_timestamps_end.string AS scheduled_time_end_string,
-            t_scheduled_timestamps_start.timestamp AS scheduled_time_timestamp,
-            datetime(t_scheduled_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS scheduled_time_start_of_day,
-            t_scheduled_timestamps_start.hour AS scheduled_time_hour,
+            FROM notes
 
-            t_deadline_range.string AS deadline_range_string,
-            t_deadline_timestamps_start.is_active AS deadline_is_active,
-            t_deadline_timestamps_start.string AS deadline_time_string,
-            t_deadline_timestamps_end.string AS deadline_time_end_string,
-            t_deadline_timestamps_start.timestamp AS deadline_time_timestamp,
-            datetime(t_deadline_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS deadline_time_start_of_day,
-            t_deadline_timestamps_start.hour AS deadline_time_hour,
+            JOIN note_view t_note_view ON t_note_view.note_id = notes.id
+        """
 
-            t_closed_range.string AS closed_range_string,
-            t_closed_timestamps_start.string AS closed_time_string,
-            t_closed_timestamps_end.string AS closed_time_end_string,
-            t_closed_timestamps_start.timestamp AS closed_time_timestamp,
-            datetime(t_closed_timestamps_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS closed_time_start_of_day,
-            t_closed_timestamps_start.hour AS closed_time_hour,
+        @Language("RoomSql")
+        const val QUERY_WITH_NOTE_EVENTS = """
+            SELECT
 
-            t_clock_range.string AS clock_range_string,
-            t_clock_timestamps_start.string AS clock_time_string,
-            t_clock_timestamps_end.string AS clock_time_end_string,
+            $NOTE_VIEW_SELECTION,
 
             t_note_events_range.string AS event_string,
             t_note_events_start.timestamp AS event_timestamp,
             COALESCE(t_note_events_start.end_timestamp, t_note_events_end.timestamp, t_note_events_start.timestamp) AS event_end_timestamp,
             datetime(t_note_events_start.timestamp/1000, 'unixepoch', 'localtime', 'start of day') AS event_start_of_day,
-            t_note_events_start.hour AS event_hour,
-
-            t_books.name AS book_name
+            t_note_events_start.hour AS event_hour
 
             FROM notes
 
-            LEFT JOIN org_ranges t_scheduled_range ON t_scheduled_range.id = notes.scheduled_range_id
-            LEFT JOIN org_timestamps t_scheduled_timestamps_start ON t_scheduled_timestamps_start.id = t_scheduled_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_scheduled_timestamps_end ON t_scheduled_timestamps_end.id = t_scheduled_range.end_timestamp_id
-            LEFT JOIN org_ranges t_deadline_range ON t_deadline_range.id = notes.deadline_range_id
-            LEFT JOIN org_timestamps t_deadline_timestamps_start ON t_deadline_timestamps_start.id = t_deadline_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_deadline_timestamps_end ON t_deadline_timestamps_end.id = t_deadline_range.end_timestamp_id
-            LEFT JOIN org_ranges t_closed_range ON t_closed_range.id = notes.closed_range_id
-            LEFT JOIN org_timestamps t_closed_timestamps_start ON t_closed_timestamps_start.id = t_closed_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_closed_timestamps_end ON t_closed_timestamps_end.id = t_closed_range.end_timestamp_id
-            LEFT JOIN org_ranges t_clock_range ON t_clock_range.id = notes.clock_range_id
-            LEFT JOIN org_timestamps t_clock_timestamps_start ON t_clock_timestamps_start.id = t_clock_range.start_timestamp_id
-            LEFT JOIN org_timestamps t_clock_timestamps_end ON t_clock_timestamps_end.id = t_clock_range.end_timestamp_id
-            LEFT JOIN books t_books ON t_books.id = notes.book_id
-            LEFT JOIN note_ancestors t_note_ancestors ON t_note_ancestors.note_id = notes.id
-            LEFT JOIN notes t_notes_with_inherited_tags ON t_notes_with_inherited_tags.id = t_note_ancestors.ancestor_note_id
+            JOIN note_view t_note_view ON t_note_view.note_id = notes.id
 
             LEFT JOIN note_events t_note_events ON t_note_events.note_id = notes.id
             LEFT JOIN org_ranges t_note_events_range ON t_note_events_range.id = t_note_events.org_range_id
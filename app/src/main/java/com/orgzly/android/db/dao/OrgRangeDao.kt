@@ -8,4 +8,7 @@ import com.orgzly.android.db.entity.OrgRange
 interface OrgRangeDao : BaseDao<OrgRange> {
     @Query("SELECT * FROM org_ranges WHERE string = :str")
     fun getByString(str: String): OrgRange?
+
+    @Query("SELECT * FROM org_ranges ORDER BY id DESC LIMIT :limit")
+    fun getLatest(limit: Int): List<OrgRange>
 }
@@ -11,4 +11,7 @@ interface OrgTimestampDao : BaseDao<OrgTimestamp> {
 
     @Query("SELECT * FROM org_timestamps WHERE string = :str")
     fun getByString(str: String): OrgTimestamp?
+
+    @Query("SELECT * FROM org_timestamps ORDER BY id DESC LIMIT :limit")
+    fun getLatest(limit: Int): List<OrgTimestamp>
 }
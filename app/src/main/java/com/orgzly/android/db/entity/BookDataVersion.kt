@@ -0,0 +1,28 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Incremented whenever book's notes are modified or the book is loaded or renamed
+ * (see [com.orgzly.android.data.DataRepository]), in the same transaction as the change.
+ *
+ * Used to tell whether cached results of queries are still valid.
+ */
+@Entity(
+        tableName = "book_data_versions",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Book::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("book_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ]
+)
+data class BookDataVersion(
+        @PrimaryKey
+        @ColumnInfo(name = "book_id")
+        val bookId: Long,
+
+        val version: Long
+)
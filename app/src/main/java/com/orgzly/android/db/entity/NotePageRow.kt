@@ -0,0 +1,16 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Embedded
+
+/**
+ * Note of a page of query results, with values of the query's sort keys.
+ */
+data class NotePageRow(
+        @Embedded
+        val noteView: NoteView,
+
+        /** Values of sort keys (followed by note's ID) as comma-separated SQL literals. */
+        @ColumnInfo(name = "sort_values")
+        val sortValues: String
+)
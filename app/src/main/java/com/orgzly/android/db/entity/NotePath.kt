@@ -0,0 +1,32 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Note's outline path: titles of its ancestors and of the note itself, joined with "/".
+ *
+ * Maintained by triggers (see [com.orgzly.android.db.OrgzlyDatabase.createNotePathTriggers])
+ * whenever a title or note_ancestors change, so it follows edits, moves, refiles and imports.
+ */
+@Entity(
+        tableName = "note_paths",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("path")
+        ]
+)
+data class NotePath(
+        @PrimaryKey
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        val path: String
+)
@@ -19,7 +19,8 @@ import androidx.room.*
             Index("note_id"),
             Index("position"),
             Index("name"),
-            Index("value")
+            Index("value"),
+            Index("name_lower", "value_lower")
         ]
 )
 data class NoteProperty(
@@ -31,4 +32,12 @@ data class NoteProperty(
         val name: String,
 
         val value: String
-)
+) {
+    /** Lower-case [name], for case-insensitive lookups using the index. */
+    @ColumnInfo(name = "name_lower")
+    var nameLower: String = name.lowercase()
+
+    /** Lower-case [value], for case-insensitive lookups using the index. */
+    @ColumnInfo(name = "value_lower")
+    var valueLower: String = value.lowercase()
+}
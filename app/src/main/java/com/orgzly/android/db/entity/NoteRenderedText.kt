@@ -0,0 +1,31 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Note's Org text, as last written to a book file.
+ *
+ * Deleted by triggers (see [com.orgzly.android.db.OrgzlyDatabase.createNoteRenderedTextTriggers])
+ * whenever the note's content, level or properties change.
+ */
+@Entity(
+        tableName = "note_rendered_texts",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ]
+)
+data class NoteRenderedText(
+        @PrimaryKey
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        /** Export settings the text was rendered with. */
+        val settings: String,
+
+        val text: String
+)
@@ -0,0 +1,39 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Note's tag, one row per tag.
+ *
+ * Own tags are written together with the note. Inherited tags (own tags of ancestors)
+ * are maintained by triggers (see [com.orgzly.android.db.OrgzlyDatabase.createNoteTagTriggers])
+ * whenever own tags or note_ancestors change.
+ */
+@Entity(
+        tableName = "note_tags",
+
+        primaryKeys = [ "note_id", "is_inherited", "tag" ],
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("tag")
+        ]
+)
+data class NoteTag(
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(name = "is_inherited")
+        val isInherited: Boolean,
+
+        /** Compared case-insensitively, as tags were when searched using LIKE. */
+        @ColumnInfo(collate = ColumnInfo.NOCASE)
+        val tag: String
+)
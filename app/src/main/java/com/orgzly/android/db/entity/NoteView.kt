@@ -13,6 +13,8 @@ data class NoteView(
 
         @ColumnInfo(name = "scheduled_range_string")
         val scheduledRangeString : String? = null,
+        @ColumnInfo(name = "scheduled_is_active")
+        val scheduledIsActive : Boolean? = null,
         @ColumnInfo(name = "scheduled_time_string")
         val scheduledTimeString : String? = null,
         @ColumnInfo(name = "scheduled_time_end_string")
@@ -26,6 +28,8 @@ data class NoteView(
 
         @ColumnInfo(name = "deadline_range_string")
         val deadlineRangeString : String? = null,
+        @ColumnInfo(name = "deadline_is_active")
+        val deadlineIsActive : Boolean? = null,
         @ColumnInfo(name = "deadline_time_string")
         val deadlineTimeString : String? = null,
         @ColumnInfo(name = "deadline_time_end_string")
@@ -68,6 +72,10 @@ data class NoteView(
         @ColumnInfo(name = "event_hour")
         val eventHour : Int? = null,
 
+        /** Content of [note] is only the beginning of it (as loaded for lists). */
+        @ColumnInfo(name = "is_content_preview")
+        val isContentPreview: Boolean = false,
+
         @ColumnInfo(name = "book_name")
         val bookName: String
 ) {
@@ -0,0 +1,84 @@
+package com.orgzly.android.db.entity
+
+import androidx.room.*
+
+/**
+ * Note's planning times, book name and inherited tags, resolved in advance.
+ * Read together with the note by [com.orgzly.android.db.dao.NoteViewDao].
+ *
+ * One row per note, maintained by triggers
+ * (see [com.orgzly.android.db.OrgzlyDatabase.createNoteViewTriggers]).
+ * Start of day is not stored, as it depends on the current time zone.
+ */
+@Entity(
+        tableName = "note_view",
+
+        foreignKeys = [
+            ForeignKey(
+                    entity = Note::class,
+                    parentColumns = arrayOf("id"),
+                    childColumns = arrayOf("note_id"),
+                    onDelete = ForeignKey.CASCADE)
+        ],
+
+        indices = [
+            Index("book_name"),
+            Index("scheduled_time_timestamp"),
+            Index("deadline_time_timestamp")
+        ]
+)
+data class NoteViewRow(
+        @PrimaryKey
+        @ColumnInfo(name = "note_id")
+        val noteId: Long,
+
+        @ColumnInfo(name = "book_name")
+        val bookName: String,
+
+        @ColumnInfo(name = "inherited_tags")
+        val inheritedTags: String?,
+
+        @ColumnInfo(name = "scheduled_range_string")
+        val scheduledRangeString: String?,
+        @ColumnInfo(name = "scheduled_is_active")
+        val scheduledIsActive: Boolean?,
+        @ColumnInfo(name = "scheduled_time_string")
+        val scheduledTimeString: String?,
+        @ColumnInfo(name = "scheduled_time_end_string")
+        val scheduledTimeEndString: String?,
+        @ColumnInfo(name = "scheduled_time_timestamp")
+        val scheduledTimeTimestamp: Long?,
+        @ColumnInfo(name = "scheduled_time_hour")
+        val scheduledTimeHour: Int?,
+
+        @ColumnInfo(name = "deadline_range_string")
+        val deadlineRangeString: String?,
+        @ColumnInfo(name = "deadline_is_active")
+        val deadlineIsActive: Boolean?,
+        @ColumnInfo(name = "deadline_time_string")
+        val deadlineTimeString: String?,
+        @ColumnInfo(name = "deadline_time_end_string")
+        val deadlineTimeEndString: String?,
+        @ColumnInfo(name = "deadline_time_timestamp")
+        val deadlineTimeTimestamp: Long?,
+        @ColumnInfo(name = "deadline_time_hour")
+        val deadlineTimeHour: Int?,
+
+        @ColumnInfo(name = "closed_range_string")
+        val closedRangeString: String?,
+        @ColumnInfo(name = "closed_time_string")
+        val closedTimeString: String?,
+        @ColumnInfo(name = "closed_time_end_string")
+        val closedTimeEndString: String?,
+        @ColumnInfo(name = "closed_time_timestamp")
+        val closedTimeTimestamp: Long?,
+        @ColumnInfo(name = "closed_time_hour")
+        val closedTimeHour: Int?,
+
+        @ColumnInfo(name = "clock_range_string")
+        val clockRangeString: String?,
+        @ColumnInfo(name = "clock_time_string")
+        val clockTimeString: String?,
+        @ColumnInfo(name = "clock_time_end_string")
+        val clockTimeEndString: String?
+)
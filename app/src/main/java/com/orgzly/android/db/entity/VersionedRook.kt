@@ -28,5 +28,8 @@ data class VersionedRook(
         val rookRevision: String,
 
         @ColumnInfo(name = "rook_mtime")
-        val rookMtime: Long
+        val rookMtime: Long,
+
+        @ColumnInfo(name = "rook_content_hash")
+        val rookContentHash: String? = null
 )
\ No newline at end of file
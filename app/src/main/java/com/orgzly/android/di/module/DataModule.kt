@@ -23,9 +23,10 @@ internal open class DataModule {
             database: OrgzlyDatabase,
             repoFactory: RepoFactory,
             resources: Resources,
-            localStorage: LocalStorage
+            localStorage: LocalStorage,
+            appLogs: AppLogsRepository
     ): DataRepository {
-        return DataRepository(app, database, repoFactory, resources, localStorage)
+        return DataRepository(app, database, repoFactory, resources, localStorage, appLogs)
     }
 
     @Provides
@@ -1,6 +1,7 @@
 package com.orgzly.android.external.actionhandlers
 
 import android.content.Intent
+import com.orgzly.android.db.NoteTreeMover
 import com.orgzly.android.external.types.ExternalHandlerFailure
 
 class EditNotes : ExternalAccessActionHandler() {
@@ -28,18 +29,40 @@ class EditNotes : ExternalAccessActionHandler() {
     private fun refileNote(intent: Intent) {
         val notes = intent.getNoteIds()
         val place = intent.getNotePlace()
-        dataRepository.refileNotes(notes, place)
+        withTargetChecked {
+            dataRepository.moveNotes(listOf(NoteTreeMover.Move(notes, place)))
+        }
     }
 
     private fun moveNote(intent: Intent) {
         val notes = intent.getNoteIds()
-        with(dataRepository) { when (intent.getStringExtra("DIRECTION")) {
-            "UP" -> moveNote(intent.getBook().id, notes, -1)
-            "DOWN" -> moveNote(intent.getBook().id, notes, 1)
-            "LEFT" -> promoteNotes(notes)
-            "RIGHT" -> demoteNotes(notes)
+        val direction = intent.getStringExtra("DIRECTION")
+        val bookId = when (direction) {
+            "UP", "DOWN" -> intent.getBook().id
+            "LEFT", "RIGHT" -> 0L
             else -> throw ExternalHandlerFailure("invalid direction")
-        } }
+        }
+        val moved = withTargetChecked {
+            // Target is resolved in the same transaction in which notes are moved
+            dataRepository.moveNotes(notes) { with(dataRepository) { when (direction) {
+                "UP" -> getMoveTarget(bookId, notes, -1)
+                "DOWN" -> getMoveTarget(bookId, notes, 1)
+                "LEFT" -> getPromoteTarget(notes)
+                else -> getDemoteTarget(notes)
+            } } }
+        }
+        if (moved == 0) {
+            throw ExternalHandlerFailure("cannot move notes $direction")
+        }
+    }
+
+    private fun withTargetChecked(move: () -> Int): Int {
+        return try {
+            move()
+        } catch (e: IllegalArgumentException) {
+            // Target note not found or inside the moved notes
+            throw ExternalHandlerFailure(e.message ?: "invalid target")
+        }
     }
 
     private fun deleteNote(intent: Intent) {
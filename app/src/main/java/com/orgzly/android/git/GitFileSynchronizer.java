@@ -5,6 +5,7 @@ import static com.orgzly.android.ui.AppSnackbarUtils.showSnackbar;
 import android.app.Activity;
 import android.content.Context;
 import android.net.Uri;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.orgzly.BuildConfig;
@@ -13,20 +14,30 @@ import com.orgzly.android.App;
 import com.orgzly.android.util.LogUtils;
 import com.orgzly.android.util.MiscUtils;
 
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.CheckoutCommand;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand;
 import org.eclipse.jgit.api.MergeResult;
 import org.eclipse.jgit.api.ResetCommand;
-import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.TransportCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.FetchResult;
 import org.eclipse.jgit.transport.PushResult;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -34,8 +45,15 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 public class GitFileSynchronizer {
@@ -44,20 +62,83 @@ public class GitFileSynchronizer {
 
     private final Git git;
     private final GitPreferences preferences;
+    private final WorkTreeTracker workTree;
     private final Context context;
     private final Activity currentActivity = App.getCurrentActivity();
 
+    /**
+     * Last commits of files, by Git directory. Kept across instances,
+     * as a new one is created for every sync.
+     */
+    private static final Map<File, LastCommits> lastCommitsByGitDir = new HashMap<>();
+
+    /** Last commits of files found for {@link #head}. */
+    private static class LastCommits {
+        final ObjectId head;
+        final Map<String, LastCommit> commits = new HashMap<>();
+
+        LastCommits(ObjectId head) {
+            this.head = head;
+        }
+    }
+
+    /**
+     * Last commit of a file. Only its ID and time are kept, as a parsed
+     * {@link RevCommit} references its parents and they their own.
+     */
+    public static class LastCommit {
+        public final ObjectId id;
+        public final int commitTime;
+
+        LastCommit(RevCommit commit) {
+            id = commit.copy();
+            commitTime = commit.getCommitTime();
+        }
+
+        public String name() {
+            return id.name();
+        }
+    }
 
     public GitFileSynchronizer(Git g, GitPreferences prefs) {
         git = g;
         preferences = prefs;
         context = App.getAppContext();
+        workTree = WorkTreeTracker.forRepository(g.getRepository());
     }
 
     private GitTransportSetter transportSetter() {
         return preferences.createTransportSetter();
     }
 
+    /** Creates a new command every time, as a command can only be called once. */
+    private interface TransportCommandFactory<T> {
+        TransportCommand<?, T> create();
+    }
+
+    /**
+     * Calls the command created by {@code factory} with the transport set. During sync,
+     * a reused SSH session could have been closed by the remote in the meantime, so
+     * the command is retried once with new transports (see {@link GitTransportPool}).
+     */
+    private <T> T callWithTransport(TransportCommandFactory<T> factory) throws GitAPIException {
+        TransportCommand<?, T> command = factory.create();
+        transportSetter().setTransport(command);
+        try {
+            return command.call();
+        } catch (TransportException e) {
+            GitTransportPool pool = GitTransportPool.current();
+            if (pool == null) {
+                throw e;
+            }
+            Log.w(TAG, "Retrying with new transports after: " + e.getMessage());
+            pool.closeTransports();
+            TransportCommand<?, T> retried = factory.create();
+            transportSetter().setTransport(retried);
+            return retried.call();
+        }
+    }
+
     public void retrieveLatestVersionOfFile(
             String repositoryPath, File destination) throws IOException {
         MiscUtils.copyFile(workTreeFile(repositoryPath), destination);
@@ -67,18 +148,37 @@ public class GitFileSynchronizer {
         return new FileInputStream(workTreeFile(repositoryPath));
     }
 
+    /**
+     * During sync, fetching again is skipped if remote refs didn't change (see {@link GitTransportPool}).
+     */
     private void fetch() throws IOException {
+        GitTransportPool pool = GitTransportPool.current();
+        File gitDir = git.getRepository().getDirectory();
         try {
+            if (pool != null && pool.hasFetched(gitDir)) {
+                Collection<Ref> remoteRefs = callWithTransport(() ->
+                        git.lsRemote().setRemote(preferences.remoteName()));
+                if (pool.isFetched(gitDir, remoteRefs)) {
+                    if (BuildConfig.LOG_DEBUG) {
+                        LogUtils.d(TAG, String.format("Remote refs of %s not changed, not fetching", preferences.remoteUri()));
+                    }
+                    return;
+                }
+            }
             if (BuildConfig.LOG_DEBUG) {
                 LogUtils.d(TAG, String.format("Fetching Git repo from %s", preferences.remoteUri()));
             }
-            transportSetter()
-                    .setTransport(git.fetch()
-                            .setRemote(preferences.remoteName())
-                            .setRemoveDeletedRefs(true))
-                    .call();
+            FetchResult result = callWithTransport(() -> git.fetch()
+                    .setRemote(preferences.remoteName())
+                    .setRemoveDeletedRefs(true));
+            if (pool != null) {
+                pool.fetched(gitDir, result.getAdvertisedRefs());
+            }
         } catch (GitAPIException e) {
             e.printStackTrace();
+            if (pool != null) {
+                pool.closeTransports();
+            }
             throw new IOException(e.getMessage());
         }
     }
@@ -97,6 +197,7 @@ public class GitFileSynchronizer {
             return doMerge(mergeTarget);
         } catch (GitAPIException e) {
             e.printStackTrace();
+            workTree.invalidate();
         }
         return false;
     }
@@ -174,6 +275,7 @@ public class GitFileSynchronizer {
             }
         } catch (GitAPIException e) {
             e.printStackTrace();
+            workTree.invalidate();
             throw new IOException("Failed to handle merge conflict: " + e.getMessage());
         } finally {
             if (mergeSucceeded) {
@@ -204,6 +306,9 @@ public class GitFileSynchronizer {
             gitResetMerge();
             return false;
         }
+        if (!result.getMergeStatus().isSuccessful()) {
+            workTree.invalidate();
+        }
         return true;
     }
 
@@ -239,8 +344,6 @@ public class GitFileSynchronizer {
     }
 
     public void tryPush() {
-        final var pushCommand = transportSetter().setTransport(
-                git.push().setRemote(preferences.remoteName()));
         final Object monitor = new Object();
 
         if (BuildConfig.LOG_DEBUG) {
@@ -252,7 +355,8 @@ public class GitFileSynchronizer {
         }
         App.EXECUTORS.diskIO().execute(() -> {
             try {
-                Iterable<PushResult> results = (Iterable<PushResult>) pushCommand.call();
+                Iterable<PushResult> results = callWithTransport(() ->
+                        git.push().setRemote(preferences.remoteName()));
                 // org.eclipse.jgit.api.PushCommand swallows some errors without throwing exceptions.
                 if (!results.iterator().next().getMessages().isEmpty()) {
                     if (currentActivity != null) {
@@ -263,6 +367,10 @@ public class GitFileSynchronizer {
                     monitor.notify();
                 }
             } catch (GitAPIException e) {
+                GitTransportPool pool = GitTransportPool.current();
+                if (pool != null) {
+                    pool.closeTransports();
+                }
                 if (currentActivity != null) {
                     showSnackbar(
                             currentActivity,
@@ -297,6 +405,76 @@ public class GitFileSynchronizer {
         return false;
     }
 
+    /**
+     * Update multiple files and commit them together, without merging. Files which are
+     * no longer at the expected revision in the current HEAD are not updated.
+     *
+     * @param sourceFiles New contents of files, by repository-relative path
+     * @param revisions Expected current revisions of files, by repository-relative path
+     * @return Paths of updated files
+     */
+    public Set<String> updateAndCommitFilesFromRevisions(
+            Map<String, File> sourceFiles, Map<String, ObjectId> revisions) throws IOException {
+        ensureRepoIsClean();
+        RevCommit head = currentHead();
+        Set<String> updated = new LinkedHashSet<>();
+        if (head == null) {
+            return updated;
+        }
+        Set<String> written = new LinkedHashSet<>();
+        try {
+            AddCommand add = git.add();
+            for (Map.Entry<String, File> entry : sourceFiles.entrySet()) {
+                String repoRelativePath = entry.getKey();
+                TreeWalk treeWalk = TreeWalk.forPath(git.getRepository(), repoRelativePath, head.getTree());
+                if (treeWalk == null || !treeWalk.getObjectId(0).equals(revisions.get(repoRelativePath))) {
+                    if (BuildConfig.LOG_DEBUG) {
+                        LogUtils.d(TAG, String.format("File '%s' changed in repository, not updating.", repoRelativePath));
+                    }
+                    continue;
+                }
+                workTree.written(repoRelativePath);
+                written.add(repoRelativePath);
+                MiscUtils.copyFile(entry.getValue(), workTreeFile(repoRelativePath));
+                add.addFilepattern(repoRelativePath);
+                updated.add(repoRelativePath);
+            }
+            if (updated.isEmpty()) {
+                return updated;
+            }
+            add.call();
+            if (!gitRepoIsClean())
+                commit(String.format("Orgzly update: %s", TextUtils.join(", ", updated)));
+        } catch (IOException e) {
+            restoreFiles(head, written);
+            throw e;
+        } catch (GitAPIException e) {
+            restoreFiles(head, written);
+            throw new IOException("Failed to commit changes.");
+        }
+        return updated;
+    }
+
+    /**
+     * Restore files to their content in the commit, after a failed update,
+     * so that the repository is clean for updating files one by one.
+     */
+    private void restoreFiles(RevCommit commit, Collection<String> repoRelativePaths) {
+        workTree.invalidate();
+        if (repoRelativePaths.isEmpty()) {
+            return;
+        }
+        try {
+            CheckoutCommand checkout = git.checkout().setStartPoint(commit);
+            for (String repoRelativePath : repoRelativePaths) {
+                checkout.addPath(repoRelativePath);
+            }
+            checkout.call();
+        } catch (GitAPIException e) {
+            Log.w(TAG, "Failed to restore files after failed update: " + e.getMessage());
+        }
+    }
+
     public void setBranchAndGetLatest() throws IOException {
         ensureRepoIsClean();
         try {
@@ -333,6 +511,7 @@ public class GitFileSynchronizer {
                 pushToRemoteIfEmpty();
             }
         } catch (GitAPIException e) {
+            workTree.invalidate();
             throw new IOException(e.getMessage());
         }
     }
@@ -363,6 +542,7 @@ public class GitFileSynchronizer {
             }
         } catch (Exception e) {
             e.printStackTrace();
+            workTree.invalidate();
         }
         if (!backOnMainBranch) {
             try {
@@ -413,12 +593,14 @@ public class GitFileSynchronizer {
     private void updateAndCommitFile(
             File sourceFile, String repoRelativePath) throws IOException {
         File destinationFile = workTreeFile(repoRelativePath);
+        workTree.written(repoRelativePath);
         MiscUtils.copyFile(sourceFile, destinationFile);
         try {
             git.add().addFilepattern(repoRelativePath).call();
             if (!gitRepoIsClean())
                 commit(String.format("Orgzly update: %s", repoRelativePath));
         } catch (GitAPIException e) {
+            workTree.invalidate();
             throw new IOException("Failed to commit changes.");
         }
     }
@@ -442,27 +624,188 @@ public class GitFileSynchronizer {
         return new RevWalk(git.getRepository()).parseCommit(target.getObjectId());
     }
 
-    public RevCommit getLastCommitOfFile(Uri uri) throws GitAPIException {
+    public LastCommit getLastCommitOfFile(Uri uri) throws IOException {
         String repoRelativePath = uri.toString().replaceFirst("^/", "");
-        return git.log().setMaxCount(1).addPath(repoRelativePath).call().iterator().next();
+        return getLastCommitsOfFiles(Collections.singleton(repoRelativePath)).get(repoRelativePath);
+    }
+
+    /**
+     * Find the last commit which modified each of the files. Files not found
+     * before are looked up together, with a single walk through the history.
+     * Results are cached for as long as HEAD stays the same.
+     *
+     * @param repoRelativePaths Paths of files
+     * @return Last commits by path. Files which don't exist in HEAD are not included.
+     */
+    public Map<String, LastCommit> getLastCommitsOfFiles(Collection<String> repoRelativePaths) throws IOException {
+        Map<String, LastCommit> result = new HashMap<>();
+
+        RevCommit head = currentHead();
+        if (head == null) {
+            return result;
+        }
+
+        File gitDir = git.getRepository().getDirectory();
+
+        synchronized (lastCommitsByGitDir) {
+            LastCommits lastCommits = lastCommitsByGitDir.get(gitDir);
+            if (lastCommits == null || !lastCommits.head.equals(head)) {
+                lastCommits = new LastCommits(head.copy());
+                lastCommitsByGitDir.put(gitDir, lastCommits);
+            }
+
+            List<String> notCached = new ArrayList<>();
+            for (String path : repoRelativePaths) {
+                LastCommit commit = lastCommits.commits.get(path);
+                if (commit != null) {
+                    result.put(path, commit);
+                } else {
+                    notCached.add(path);
+                }
+            }
+
+            if (!notCached.isEmpty()) {
+                Map<String, LastCommit> found = findLastCommitsOfFiles(head, notCached);
+                lastCommits.commits.putAll(found);
+                result.putAll(found);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The last commit of a file is the newest commit which has the file's current
+     * content, while none of its parents do. Commits are walked newest first, comparing
+     * only the files which are still not found, until there are none left.
+     *
+     * In a shallow clone, commits at which the history is cut off are treated as having
+     * no parents. If other parents are missing, the walk stops at them.
+     */
+    private Map<String, LastCommit> findLastCommitsOfFiles(
+            RevCommit head, Collection<String> repoRelativePaths) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        int walkedCommits = 0;
+
+        Map<String, LastCommit> found = new HashMap<>();
+
+        Repository repo = git.getRepository();
+
+        try (RevWalk revWalk = new RevWalk(repo); TreeWalk treeWalk = new TreeWalk(repo)) {
+            revWalk.setRetainBody(false);
+            treeWalk.setRecursive(true);
+
+            // Current content of each file
+            Map<String, ObjectId> notFound = new HashMap<>();
+            treeWalk.addTree(head.getTree());
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(repoRelativePaths));
+            while (treeWalk.next()) {
+                notFound.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+            }
+
+            TreeFilter filter = null;
+
+            revWalk.assumeShallow(getShallowCommits());
+            revWalk.markStart(revWalk.parseCommit(head));
+
+            RevCommit commit;
+            while (!notFound.isEmpty() && (commit = nextCommit(revWalk)) != null) {
+                walkedCommits++;
+
+                if (filter == null) {
+                    filter = AndTreeFilter.create(
+                            PathFilterGroup.createFromStrings(notFound.keySet()),
+                            TreeFilter.ANY_DIFF);
+                }
+
+                treeWalk.reset();
+                treeWalk.setFilter(filter);
+                treeWalk.addTree(commit.getTree());
+                // Parents are already parsed by the walk
+                for (RevCommit parent : commit.getParents()) {
+                    treeWalk.addTree(parent.getTree());
+                }
+
+                while (treeWalk.next()) {
+                    String path = treeWalk.getPathString();
+                    ObjectId content = notFound.get(path);
+
+                    if (content == null || !content.equals(treeWalk.getObjectId(0))) {
+                        continue;
+                    }
+
+                    boolean isInParent = false;
+                    for (int i = 1; i < treeWalk.getTreeCount(); i++) {
+                        if (content.equals(treeWalk.getObjectId(i))) {
+                            isInParent = true;
+                            break;
+                        }
+                    }
+
+                    if (!isInParent) {
+                        found.put(path, new LastCommit(commit));
+                        notFound.remove(path);
+                        filter = null;
+                    }
+                }
+            }
+        }
+
+        if (BuildConfig.LOG_DEBUG) {
+            LogUtils.d(TAG, String.format("Found last commits of %d/%d files in %d commits (%d ms)",
+                    found.size(), repoRelativePaths.size(), walkedCommits,
+                    System.currentTimeMillis() - startedAt));
+        }
+
+        return found;
+    }
+
+    /**
+     * Next commit of the walk, or null if the history is missing some of the commits.
+     */
+    private RevCommit nextCommit(RevWalk revWalk) throws IOException {
+        try {
+            return revWalk.next();
+        } catch (MissingObjectException e) {
+            Log.w(TAG, "Stopping at missing commit " + e.getObjectId().name(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Commits at which the history of a shallow clone is cut off (their parents are missing).
+     */
+    private Set<ObjectId> getShallowCommits() throws IOException {
+        ObjectDatabase objectDatabase = git.getRepository().getObjectDatabase();
+        if (objectDatabase instanceof ObjectDirectory) {
+            return ((ObjectDirectory) objectDatabase).getShallowCommits();
+        }
+        return Collections.emptySet();
     }
 
     public String workTreePath() {
         return git.getRepository().getWorkTree().getAbsolutePath();
     }
 
+    /**
+     * Only paths written by Orgzly are usually checked, see {@link WorkTreeTracker}.
+     */
     private boolean gitRepoIsClean() {
-        try {
-            Status status = git.status().call();
-            return !status.hasUncommittedChanges();
-        } catch (GitAPIException e) {
-            return false;
-        }
+        return workTree.isClean(git);
     }
 
     private void ensureRepoIsClean() throws IOException {
-        if (!gitRepoIsClean())
+        if (!gitRepoIsClean()) {
+            workTree.invalidate();
             throw new IOException("Refusing to update because there are uncommitted changes.");
+        }
+    }
+
+    /**
+     * Statistics of checks for uncommitted changes, since the previous call.
+     */
+    public WorkTreeTracker.Stats takeWorkTreeStats() {
+        return workTree.takeStats();
     }
 
     public File workTreeFile(String filePath) {
@@ -482,11 +825,13 @@ public class GitFileSynchronizer {
         if (mergeWithRemote()) {
             String repoRelativePath = uri.toString().replaceFirst("^/", "");
             try {
+                workTree.written(repoRelativePath);
                 git.rm().addFilepattern(repoRelativePath).call();
                 if (!gitRepoIsClean())
                     commit(String.format("Orgzly deletion: %s", repoRelativePath));
                 return true;
             } catch (GitAPIException e) {
+                workTree.invalidate();
                 throw new IOException(String.format("Failed to commit deletion of %s, %s", repoRelativePath, e.getMessage()));
             }
         } else {
@@ -505,6 +850,7 @@ public class GitFileSynchronizer {
             }
             ensureDirectoryHierarchy(newPath);
             // Copy the file contents and add it to the index
+            workTree.written(newPath, oldPath);
             MiscUtils.copyFile(oldFile, newFile);
             try {
                 git.add().addFilepattern(newPath).call();
@@ -515,6 +861,7 @@ public class GitFileSynchronizer {
                     return true;
                 }
             } catch (GitAPIException e) {
+                workTree.invalidate();
                 throw new IOException("Failed to rename file in repo, " + e.getMessage());
             }
         }
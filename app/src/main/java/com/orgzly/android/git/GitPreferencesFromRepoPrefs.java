@@ -13,8 +13,19 @@ public class GitPreferencesFromRepoPrefs implements GitPreferences {
         repoPreferences = prefs;
     }
 
+    /**
+     * During sync, transport setters are shared, see {@link GitTransportPool}.
+     */
     @Override
     public GitTransportSetter createTransportSetter() {
+        GitTransportPool pool = GitTransportPool.current();
+        if (pool != null) {
+            return pool.transportSetter(remoteUri(), () -> createTransportSetter(true));
+        }
+        return createTransportSetter(false);
+    }
+
+    private GitTransportSetter createTransportSetter(boolean reuseSessions) {
         String scheme = remoteUri().getScheme();
         switch (scheme) {
             case "https":
@@ -24,7 +35,7 @@ public class GitPreferencesFromRepoPrefs implements GitPreferences {
             case "file":
                 return tc -> tc;
             default:
-                return new GitSshKeyTransportSetter();
+                return new GitSshKeyTransportSetter(reuseSessions);
         }
     }
 
@@ -7,17 +7,25 @@ import org.eclipse.jgit.annotations.NonNull
 import org.eclipse.jgit.api.TransportCommand
 import org.eclipse.jgit.api.TransportConfigCallback
 import org.eclipse.jgit.internal.transport.sshd.OpenSshServerKeyDatabase
+import org.eclipse.jgit.transport.CredentialsProvider
+import org.eclipse.jgit.transport.RemoteSession
 import org.eclipse.jgit.transport.SshSessionFactory
 import org.eclipse.jgit.transport.SshTransport
 import org.eclipse.jgit.transport.Transport
+import org.eclipse.jgit.transport.URIish
 import org.eclipse.jgit.transport.sshd.ServerKeyDatabase
 import org.eclipse.jgit.transport.sshd.SshdSessionFactory
+import org.eclipse.jgit.util.FS
 import java.io.File
 import java.security.KeyPair
 
-class GitSshKeyTransportSetter: GitTransportSetter {
+/**
+ * @param reuseSessions keep SSH sessions open after commands, until [close]
+ */
+class GitSshKeyTransportSetter @JvmOverloads constructor(reuseSessions: Boolean = false) : GitTransportSetter {
     private val configCallback: TransportConfigCallback
     private val context = App.getAppContext()
+    private val reusedSessionFactory: ReusedSessionFactory?
 
     init {
         val factory: SshSessionFactory = object : SshdSessionFactory(null, null) {
@@ -53,9 +61,13 @@ class GitSshKeyTransportSetter: GitTransportSetter {
         // org.apache.sshd.common.config.keys.IdentityUtils freaks out if user.home is not set
         System.setProperty("user.home", context.filesDir.toString())
 
+        reusedSessionFactory = if (reuseSessions) ReusedSessionFactory(factory) else null
+
+        val transportFactory = reusedSessionFactory ?: factory
+
         configCallback = TransportConfigCallback { transport: Transport ->
             val sshTransport = transport as SshTransport
-            sshTransport.sshSessionFactory = factory
+            sshTransport.sshSessionFactory = transportFactory
         }
     }
 
@@ -65,4 +77,42 @@ class GitSshKeyTransportSetter: GitTransportSetter {
         return tc
     }
 
+    override fun close() {
+        reusedSessionFactory?.close()
+    }
+
+    /**
+     * Keeps sessions open when transports are closed, to reuse them (and the authentication)
+     * for following commands to the same remote.
+     */
+    private class ReusedSessionFactory(private val factory: SshSessionFactory) : SshSessionFactory() {
+        private val sessions = HashMap<String, RemoteSession>()
+
+        @Synchronized
+        override fun getSession(
+            uri: URIish,
+            credentialsProvider: CredentialsProvider?,
+            fs: FS,
+            tms: Int
+        ): RemoteSession {
+            return sessions.getOrPut(uri.toString()) {
+                factory.getSession(uri, credentialsProvider, fs, tms)
+            }
+        }
+
+        override fun releaseSession(session: RemoteSession) {
+            // Disconnected on close
+        }
+
+        override fun getType(): String {
+            return factory.type
+        }
+
+        @Synchronized
+        fun close() {
+            sessions.values.forEach { it.disconnect() }
+            sessions.clear()
+        }
+    }
+
 }
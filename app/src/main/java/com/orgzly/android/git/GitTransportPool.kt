@@ -0,0 +1,110 @@
+package com.orgzly.android.git
+
+import android.net.Uri
+import org.eclipse.jgit.lib.ObjectId
+import org.eclipse.jgit.lib.Ref
+import java.io.File
+
+/**
+ * Transports shared by all Git operations of a single sync (see [com.orgzly.android.sync.SyncWorker]).
+ *
+ * Transport setters are created once per remote, so SSH sessions are opened (and the key
+ * unlocked) once, then reused by every fetch and push. Fetching again during the same sync
+ * is skipped when remote refs are the same as when they were last fetched.
+ */
+class GitTransportPool private constructor() : AutoCloseable {
+
+    data class Stats(val fetches: Int, val skippedFetches: Int) {
+        override fun toString(): String {
+            return "$fetches fetches, $skippedFetches skipped"
+        }
+    }
+
+    private val transportSetters = HashMap<String, GitTransportSetter>()
+
+    /** Remote refs from the last fetch, by Git directory. */
+    private val fetchedRefs = HashMap<File, Map<String, ObjectId?>>()
+
+    private var fetches = 0
+    private var skippedFetches = 0
+
+    @Synchronized
+    fun transportSetter(remoteUri: Uri, create: () -> GitTransportSetter): GitTransportSetter {
+        return transportSetters.getOrPut(remoteUri.toString(), create)
+    }
+
+    /**
+     * Returns true if remote refs are the same as the ones last fetched for the repository.
+     */
+    @Synchronized
+    fun isFetched(gitDir: File, remoteRefs: Collection<Ref>): Boolean {
+        return (fetchedRefs[gitDir] == refIds(remoteRefs)).also { isFetched ->
+            if (isFetched) {
+                skippedFetches++
+            }
+        }
+    }
+
+    @Synchronized
+    fun hasFetched(gitDir: File): Boolean {
+        return fetchedRefs.containsKey(gitDir)
+    }
+
+    @Synchronized
+    fun fetched(gitDir: File, remoteRefs: Collection<Ref>) {
+        fetchedRefs[gitDir] = refIds(remoteRefs)
+        fetches++
+    }
+
+    /**
+     * Closes transports (after a failure, for example). New ones are created when needed.
+     */
+    @Synchronized
+    fun closeTransports() {
+        transportSetters.values.forEach { it.close() }
+        transportSetters.clear()
+        fetchedRefs.clear()
+    }
+
+    @Synchronized
+    fun stats(): Stats {
+        return Stats(fetches, skippedFetches)
+    }
+
+    override fun close() {
+        synchronized(Companion) {
+            if (current === this) {
+                current = null
+            }
+        }
+        closeTransports()
+    }
+
+    private fun refIds(refs: Collection<Ref>): Map<String, ObjectId?> {
+        return refs.associate { it.name to it.objectId }
+    }
+
+    companion object {
+        @Volatile
+        private var current: GitTransportPool? = null
+
+        /**
+         * Pool of the sync in progress, if any.
+         */
+        @JvmStatic
+        fun current(): GitTransportPool? {
+            return current
+        }
+
+        /**
+         * Opens the pool used until it is closed.
+         */
+        @JvmStatic
+        fun open(): GitTransportPool {
+            synchronized(Companion) {
+                current?.close()
+                return GitTransportPool().also { current = it }
+            }
+        }
+    }
+}
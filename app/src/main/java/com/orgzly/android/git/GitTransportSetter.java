@@ -2,6 +2,13 @@ package com.orgzly.android.git;
 
 import org.eclipse.jgit.api.TransportCommand;
 
-public interface GitTransportSetter {
+public interface GitTransportSetter extends AutoCloseable {
     public TransportCommand setTransport(TransportCommand tc);
+
+    /**
+     * Release anything kept open for reuse by following commands.
+     */
+    @Override
+    default void close() {
+    }
 }
@@ -0,0 +1,158 @@
+package com.orgzly.android.git;
+
+import android.util.Log;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of paths Orgzly wrote to the work tree (or index), so that checking for
+ * uncommitted changes only needs the status of those paths. Status of the whole work tree
+ * hashes every file in it.
+ *
+ * Full status is still used periodically, in case the work tree was modified by someone else,
+ * and after an unexpected failure (see {@link #invalidate()}).
+ */
+public class WorkTreeTracker {
+    private static final String TAG = WorkTreeTracker.class.getName();
+
+    private static final long FULL_CHECK_INTERVAL = 15 * 60 * 1000;
+
+    /** Trackers by Git directory, kept across synchronizers. */
+    private static final Map<File, WorkTreeTracker> trackers = new HashMap<>();
+
+    public static synchronized WorkTreeTracker forRepository(Repository repository) {
+        WorkTreeTracker tracker = trackers.get(repository.getDirectory());
+        if (tracker == null) {
+            tracker = new WorkTreeTracker();
+            trackers.put(repository.getDirectory(), tracker);
+        }
+        return tracker;
+    }
+
+    public static class Stats {
+        public final int fullChecks;
+        public final long fullChecksTime;
+        public final int pathChecks;
+        public final long pathChecksTime;
+        public final int skippedChecks;
+
+        Stats(int fullChecks, long fullChecksTime, int pathChecks, long pathChecksTime, int skippedChecks) {
+            this.fullChecks = fullChecks;
+            this.fullChecksTime = fullChecksTime;
+            this.pathChecks = pathChecks;
+            this.pathChecksTime = pathChecksTime;
+            this.skippedChecks = skippedChecks;
+        }
+
+        @Override
+        public String toString() {
+            return fullChecks + " full status (" + fullChecksTime + " ms), "
+                    + pathChecks + " status of written paths (" + pathChecksTime + " ms), "
+                    + skippedChecks + " skipped";
+        }
+    }
+
+    /** Time when full status last found no uncommitted changes, 0 if it should be checked. */
+    private long verifiedAt = 0;
+
+    /** Paths written since the work tree was last found clean. */
+    private final Set<String> writtenPaths = new HashSet<>();
+
+    /* Statistics since the last takeStats call. */
+    private int fullChecks;
+    private long fullChecksTime;
+    private int pathChecks;
+    private long pathChecksTime;
+    private int skippedChecks;
+
+    private WorkTreeTracker() {
+    }
+
+    public synchronized void written(String... repoRelativePaths) {
+        for (String path : repoRelativePaths) {
+            writtenPaths.add(path);
+        }
+    }
+
+    /**
+     * Something unexpected happened, check the status of the whole work tree next time.
+     */
+    public synchronized void invalidate() {
+        verifiedAt = 0;
+    }
+
+    /**
+     * @return true if there are no uncommitted changes
+     */
+    public synchronized boolean isClean(Git git) {
+        long startedAt = System.currentTimeMillis();
+
+        if (verifiedAt == 0 || startedAt - verifiedAt > FULL_CHECK_INTERVAL) {
+            boolean isClean = isClean(git.status());
+
+            fullChecks++;
+            fullChecksTime += System.currentTimeMillis() - startedAt;
+
+            if (isClean) {
+                verifiedAt = startedAt;
+                writtenPaths.clear();
+            } else {
+                verifiedAt = 0;
+            }
+
+            return isClean;
+        }
+
+        if (writtenPaths.isEmpty()) {
+            skippedChecks++;
+            return true;
+        }
+
+        StatusCommand status = git.status();
+        for (String path : writtenPaths) {
+            status.addPath(path);
+        }
+        boolean isClean = isClean(status);
+
+        pathChecks++;
+        pathChecksTime += System.currentTimeMillis() - startedAt;
+
+        if (isClean) {
+            writtenPaths.clear();
+        }
+
+        return isClean;
+    }
+
+    private boolean isClean(StatusCommand status) {
+        try {
+            return !status.call().hasUncommittedChanges();
+        } catch (GitAPIException e) {
+            Log.w(TAG, "Failed to get status: " + e.getMessage());
+            verifiedAt = 0;
+            return false;
+        }
+    }
+
+    /**
+     * Returns statistics collected since the previous call.
+     */
+    public synchronized Stats takeStats() {
+        Stats stats = new Stats(fullChecks, fullChecksTime, pathChecks, pathChecksTime, skippedChecks);
+        fullChecks = 0;
+        fullChecksTime = 0;
+        pathChecks = 0;
+        pathChecksTime = 0;
+        skippedChecks = 0;
+        return stats;
+    }
+}
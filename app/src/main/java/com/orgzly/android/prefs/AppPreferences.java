@@ -859,6 +859,12 @@ public class AppPreferences {
         return schemes[0];
     }
 
+    public static int syncParsingWorkers(Context context) {
+        return Integer.parseInt(getDefaultSharedPreferences(context).getString(
+                context.getResources().getString(R.string.pref_key_sync_parsing_workers),
+                context.getResources().getString(R.string.pref_default_sync_parsing_workers)));
+    }
+
     public static int widgetOpacity(Context context) {
         return Integer.parseInt(getDefaultSharedPreferences(context).getString(
                 context.getResources().getString(R.string.pref_key_widget_opacity),
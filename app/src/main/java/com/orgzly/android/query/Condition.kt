@@ -16,6 +16,9 @@ sealed class Condition {
     data class HasTag(val tag: String, val not: Boolean = false) : Condition()
     data class HasOwnTag(val tag: String, val not: Boolean = false) : Condition()
 
+    /** Property name and value are compared case-insensitively. */
+    data class HasProperty(val name: String, val value: String, val not: Boolean = false) : Condition()
+
     data class Event(val interval: QueryInterval, val relation: Relation) : Condition()
     data class Scheduled(val interval: QueryInterval, val relation: Relation) : Condition()
     data class Deadline(val interval: QueryInterval, val relation: Relation) : Condition()
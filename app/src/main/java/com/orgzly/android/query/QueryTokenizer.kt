@@ -18,7 +18,8 @@ class QueryTokenizer(val str: String, private val groupOpen: String, private val
 
         private const val char = """[^")(\s]"""
         private const val doubleQuoted = """"[^"\\]*(?:\\.[^"\\]*)*""""
-        private const val doubleQuotedWithPrefix = """$char*$doubleQuoted"""
+        /* Can have more than one quoted part, like a quoted name followed by a value. */
+        private const val doubleQuotedWithPrefix = """(?:$char*$doubleQuoted)+$char*"""
         private const val groupOpener = """\("""
         private const val groupCloser  = """\)"""
         private const val rest = """$char+"""
@@ -35,4 +35,33 @@ object QueryUtils {
 
         return null
     }
+
+    /**
+     * Names of books which all notes matching the condition must be in,
+     * or null if notes from any book can match.
+     */
+    @JvmStatic
+    fun requiredBookNames(condition: Condition?): Set<String>? {
+        return when (condition) {
+            is Condition.InBook ->
+                if (condition.not) null else setOf(condition.name)
+
+            is Condition.And ->
+                condition.operands
+                        .mapNotNull { requiredBookNames(it) }
+                        .reduceOrNull { names, other -> names.intersect(other) }
+
+            is Condition.Or -> {
+                val operandNames = condition.operands.map { requiredBookNames(it) }
+
+                if (operandNames.isEmpty() || operandNames.any { it == null }) {
+                    null
+                } else {
+                    operandNames.flatMapTo(mutableSetOf()) { it!! }
+                }
+            }
+
+            else -> null
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package com.orgzly.android.query.sql
+
+import android.content.Context
+import android.util.LruCache
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.query.Query
+import com.orgzly.android.query.user.InternalQueryParser
+
+/**
+ * Recently used query strings, parsed and built into SQL.
+ *
+ * Built SQL depends on states and default priority, so entries are only used
+ * while those preferences are unchanged. Times relative to now are not a part of
+ * the cached SQL, they are resolved when the query is executed (see [SqlQuery.selectionArgs]).
+ */
+class CompiledQueryCache(private val context: Context, maxSize: Int = MAX_SIZE) {
+
+    class CompiledQuery(val query: Query, val sqlQuery: SqlQuery)
+
+    /** Preferences used by [SqliteQueryBuilder]. Order of states is used for sorting. */
+    private data class Preferences(
+            val todoKeywords: List<String>,
+            val doneKeywords: List<String>,
+            val defaultPriority: String)
+
+    private val queries = LruCache<String, CompiledQuery>(maxSize)
+
+    private var preferences: Preferences? = null
+
+    fun get(queryString: String): CompiledQuery {
+        val current = Preferences(
+                AppPreferences.todoKeywordsSet(context).toList(),
+                AppPreferences.doneKeywordsSet(context).toList(),
+                AppPreferences.defaultPriority(context))
+
+        synchronized(this) {
+            if (current != preferences) {
+                preferences = current
+                queries.evictAll()
+            }
+        }
+
+        queries.get(queryString)?.let {
+            return it
+        }
+
+        val query = InternalQueryParser().parse(queryString)
+
+        val compiled = CompiledQuery(query, SqliteQueryBuilder(context).build(query))
+
+        synchronized(this) {
+            if (current == preferences) {
+                queries.put(queryString, compiled)
+            }
+        }
+
+        return compiled
+    }
+
+    companion object {
+        const val MAX_SIZE = 50
+    }
+}
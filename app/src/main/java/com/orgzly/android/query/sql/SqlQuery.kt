@@ -1,7 +1,37 @@
 package com.orgzly.android.query.sql
 
+import com.orgzly.android.query.TimeUtils
+
 data class SqlQuery(
         val selection: String,
-        val selectionArgs: List<String>,
+        /** Arguments of [selection]. */
+        val arguments: List<Argument>,
         val having: String,
-        val orderBy: String)
\ No newline at end of file
+        val orderBy: String,
+        /** Whether note events are used, requiring one row per note and event. */
+        val hasEvents: Boolean = false,
+        /** Terms of [orderBy], for continuing the sorted result after a known row. */
+        val sortKeys: List<SortKey> = emptyList()) {
+
+    /**
+     * Values of [arguments], with times relative to now resolved at the time of the call.
+     * The same query can be executed again later, without building it again.
+     */
+    val selectionArgs: List<Any>
+        get() = arguments.map { it.resolve() }
+
+    data class SortKey(val expression: String, val desc: Boolean)
+
+    sealed class Argument {
+        abstract fun resolve(): Any
+
+        data class Text(val value: String) : Argument() {
+            override fun resolve() = value
+        }
+
+        /** Time in milliseconds, see [TimeUtils.timeFromNow]. */
+        data class TimeFromNow(val field: Int, val amount: Int, val addOneMore: Boolean) : Argument() {
+            override fun resolve() = TimeUtils.timeFromNow(field, amount, addOneMore)
+        }
+    }
+}
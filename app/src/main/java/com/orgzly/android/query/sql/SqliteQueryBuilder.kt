@@ -10,26 +10,31 @@ import java.util.*
 
 class SqliteQueryBuilder(val context: Context) {
     private var where: String = ""
-    private val arguments: MutableList<String> = ArrayList()
+    private val arguments: MutableList<SqlQuery.Argument> = ArrayList()
 
     private var having: String = ""
 
     private var order: String = ""
 
+    private var sortKeys: List<SqlQuery.SortKey> = emptyList()
+
     private var hasScheduledCondition = false
     private var hasDeadlineCondition = false
     private var hasCreatedCondition = false
 
+    private var hasEvents = false
+
     fun build(query: Query): SqlQuery {
         hasScheduledCondition = false
         hasDeadlineCondition = false
         hasCreatedCondition = false
+        hasEvents = false
 
         where = toString(query.condition)
 
         order = buildOrderBy(query.sortOrders)
 
-        return SqlQuery(where, arguments, having, order)
+        return SqlQuery(where, arguments.toList(), having, order, hasEvents, sortKeys)
     }
 
     private fun buildOrderBy(sortOrders: List<SortOrder>): String {
@@ -100,6 +105,8 @@ class SqliteQueryBuilder(val context: Context) {
                     }
 
                     is SortOrder.Event -> {
+                        hasEvents = true
+
                         o.add("event_timestamp IS NULL")
 
                         if (order.desc) {
@@ -168,6 +175,8 @@ class SqliteQueryBuilder(val context: Context) {
         /* Always sort by position last. */
         o.add("lft")
 
+        sortKeys = o.map { SqlQuery.SortKey(it.removeSuffix(" DESC"), it.endsWith(" DESC")) }
+
         return o.joinToString(", ")
     }
 
@@ -182,12 +191,12 @@ class SqliteQueryBuilder(val context: Context) {
 
         return when (expr) {
             is Condition.InBook -> {
-                arguments.add(expr.name)
+                arguments.add(SqlQuery.Argument.Text(expr.name))
                 not(expr.not, "book_name = ?")
             }
 
             is Condition.HasState -> {
-                arguments.add(expr.state.uppercase())
+                arguments.add(SqlQuery.Argument.Text(expr.state.uppercase()))
                 not(expr.not, "COALESCE(state, '') = ?")
             }
 
@@ -195,12 +204,12 @@ class SqliteQueryBuilder(val context: Context) {
                 when (expr.type) {
                     StateType.TODO -> {
                         val states = AppPreferences.todoKeywordsSet(context)
-                        arguments.addAll(states)
+                        arguments.addAll(states.map { SqlQuery.Argument.Text(it) })
                         not(expr.not, "COALESCE(state, '') IN (" + Collections.nCopies(states.size, "?").joinToString() + ")")
                     }
                     StateType.DONE -> {
                         val states = AppPreferences.doneKeywordsSet(context)
-                        arguments.addAll(states)
+                        arguments.addAll(states.map { SqlQuery.Argument.Text(it) })
                         not(expr.not, "COALESCE(state, '') IN (" + Collections.nCopies(states.size, "?").joinToString() + ")")
 
                     }
@@ -209,27 +218,35 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasPriority -> {
-                arguments.add(AppPreferences.defaultPriority(context))
-                arguments.add(expr.priority)
+                arguments.add(SqlQuery.Argument.Text(AppPreferences.defaultPriority(context)))
+                arguments.add(SqlQuery.Argument.Text(expr.priority))
                 not(expr.not, "LOWER(COALESCE(NULLIF(priority, ''), ?)) = ?")
             }
 
             is Condition.HasSetPriority -> {
-                arguments.add(expr.priority)
+                arguments.add(SqlQuery.Argument.Text(expr.priority))
                 not(expr.not, "LOWER(COALESCE(priority, '')) = ?")
             }
 
             is Condition.HasTag -> {
-                repeat(2) { arguments.add("%${expr.tag}%") }
-                not(expr.not, "(COALESCE(tags, '') LIKE ? OR COALESCE(inherited_tags, '') LIKE ?)")
+                arguments.add(SqlQuery.Argument.Text(expr.tag))
+                not(expr.not, "id IN (SELECT note_id FROM note_tags WHERE tag = ?)")
             }
 
             is Condition.HasOwnTag -> {
-                arguments.add("%${expr.tag}%")
-                not(expr.not, "(COALESCE(tags, '') LIKE ?)")
+                arguments.add(SqlQuery.Argument.Text(expr.tag))
+                not(expr.not, "id IN (SELECT note_id FROM note_tags WHERE tag = ? AND is_inherited = 0)")
+            }
+
+            is Condition.HasProperty -> {
+                arguments.add(SqlQuery.Argument.Text(expr.name.lowercase()))
+                arguments.add(SqlQuery.Argument.Text(expr.value.lowercase()))
+                not(expr.not, "id IN (SELECT note_id FROM note_properties WHERE name_lower = ? AND value_lower = ?)")
             }
 
             is Condition.Event -> {
+                hasEvents = true
+
                 when (expr.relation) {
                     Relation.EQ -> "(${toInterval("event_timestamp", null, expr.interval, Relation.GE)} AND ${toInterval("event_end_timestamp", null, expr.interval, Relation.LE)})"
                     Relation.NE -> "(${toInterval("event_timestamp", null, expr.interval, Relation.LT)} AND ${toInterval("event_end_timestamp", null, expr.interval, Relation.GT)})"
@@ -260,8 +277,19 @@ class SqliteQueryBuilder(val context: Context) {
             }
 
             is Condition.HasText -> {
-                repeat(3) { arguments.add("%${expr.text}%") }
-                "(title LIKE ? OR content LIKE ? OR tags LIKE ?)"
+                val match = toFullTextMatch(expr.text)
+
+                if (match != null) {
+                    arguments.add(SqlQuery.Argument.Text(match))
+                }
+
+                repeat(3) { arguments.add(SqlQuery.Argument.Text("%${expr.text}%")) }
+
+                if (match != null) {
+                    "(id IN (SELECT docid FROM notes_fts WHERE notes_fts MATCH ?) AND (title LIKE ? OR content LIKE ? OR tags LIKE ?))"
+                } else {
+                    "(title LIKE ? OR content LIKE ? OR tags LIKE ?)"
+                }
             }
 
             is Condition.Or -> joinConditions(expr.operands, "OR")
@@ -271,6 +299,27 @@ class SqliteQueryBuilder(val context: Context) {
         }
     }
 
+    /**
+     * Phrase of all words in the text, with the last word as a prefix.
+     *
+     * Notes found by the full-text index are only candidates, which must also contain
+     * the text as a substring (LIKE). The index finds words by their beginning only,
+     * so text is not matched in the middle of a word.
+     *
+     * Returns null if text cannot be tokenized (it has no words or it is written in
+     * a script with no separators between words, CJK for example), in which case
+     * only LIKE is used.
+     */
+    private fun toFullTextMatch(text: String): String? {
+        val words = text.split(WORD_SEPARATORS).filter { it.isNotEmpty() }
+
+        if (words.isEmpty() || hasUnseparatedWords(text)) {
+            return null
+        }
+
+        return words.joinToString(" ", prefix = "\"", postfix = "*\"")
+    }
+
     private fun toInterval(column: String, isActiveColumn: String?, interval: QueryInterval, relation: Relation): String {
         if (interval.none) {
             return "$column IS NULL"
@@ -278,17 +327,37 @@ class SqliteQueryBuilder(val context: Context) {
 
         val (field, value) = getFieldAndValueFromInterval(interval)
 
-        val timeFromNow = TimeUtils.timeFromNow(field, value)
-        val timeFromNowPlusOne = TimeUtils.timeFromNow(field, value, true)
-
+        /* Resolved when the query is executed, so it can be reused. */
+        val timeFromNow = SqlQuery.Argument.TimeFromNow(field, value, false)
+        val timeFromNowPlusOne = SqlQuery.Argument.TimeFromNow(field, value, true)
 
         val cond = when (relation) {
-            Relation.EQ -> "$timeFromNow <= $column AND $column < $timeFromNowPlusOne"
-            Relation.NE -> "$column < $timeFromNow AND $timeFromNowPlusOne <= $column"
-            Relation.LT -> "$column < $timeFromNow"
-            Relation.LE -> "$column < $timeFromNowPlusOne"
-            Relation.GT -> "$timeFromNowPlusOne <= $column"
-            Relation.GE -> "$timeFromNow <= $column"
+            Relation.EQ -> {
+                arguments.add(timeFromNow)
+                arguments.add(timeFromNowPlusOne)
+                "? <= $column AND $column < ?"
+            }
+            Relation.NE -> {
+                arguments.add(timeFromNow)
+                arguments.add(timeFromNowPlusOne)
+                "$column < ? AND ? <= $column"
+            }
+            Relation.LT -> {
+                arguments.add(timeFromNow)
+                "$column < ?"
+            }
+            Relation.LE -> {
+                arguments.add(timeFromNowPlusOne)
+                "$column < ?"
+            }
+            Relation.GT -> {
+                arguments.add(timeFromNowPlusOne)
+                "? <= $column"
+            }
+            Relation.GE -> {
+                arguments.add(timeFromNow)
+                "? <= $column"
+            }
         }
 
         val activeOnly = if (isActiveColumn != null) {
@@ -325,4 +394,25 @@ class SqliteQueryBuilder(val context: Context) {
             Pair(unit, value)
         }
     }
+
+    private fun hasUnseparatedWords(text: String): Boolean {
+        return text.any { Character.UnicodeBlock.of(it) in UNSEPARATED_BLOCKS }
+    }
+
+    companion object {
+        /** Characters which are not a part of a word for the unicode61 tokenizer. */
+        private val WORD_SEPARATORS = Regex("[^\\p{L}\\p{N}\\p{M}]+")
+
+        /** Blocks of scripts written without separators, indexed by unicode61 as one long word. */
+        private val UNSEPARATED_BLOCKS = setOf(
+                Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS,
+                Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A,
+                Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS,
+                Character.UnicodeBlock.HIRAGANA,
+                Character.UnicodeBlock.KATAKANA,
+                Character.UnicodeBlock.THAI,
+                Character.UnicodeBlock.LAO,
+                Character.UnicodeBlock.KHMER,
+                Character.UnicodeBlock.MYANMAR)
+    }
 }
@@ -39,6 +39,10 @@ open class BasicQueryParser : QueryParser() {
                 Condition.HasOwnTag(unQuote(match.groupValues[2]), match.groupValues[1].isNotEmpty())
             },
 
+            ConditionMatch("""^(-)?property:([^:]+):(.+)""") { match ->
+                Condition.HasProperty(match.groupValues[2], unQuote(match.groupValues[3]), match.groupValues[1].isNotEmpty())
+            },
+
             ConditionMatch("""^(scheduled|deadline|closed|created):(?:(!=|<|<=|>|>=))?(.+)""") { match ->
                 val timeTypeMatch = match.groupValues[1]
                 val relationMatch = match.groupValues[2]
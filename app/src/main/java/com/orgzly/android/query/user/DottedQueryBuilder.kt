@@ -45,6 +45,9 @@ open class DottedQueryBuilder {
             is Condition.HasTag -> "${dot(expr.not)}t.${expr.tag}"
             is Condition.HasOwnTag -> "${dot(expr.not)}tn.${expr.tag}"
 
+            /* Name is followed by the value, so it is quoted if it contains a dot. */
+            is Condition.HasProperty -> "${dot(expr.not)}pr.${QueryTokenizer.quote(expr.name, " .()")}.${quote(expr.value)}"
+
             is Condition.Event -> {
                 val rel = expr.relation.toString().lowercase()
                 val relString = if (rel == "eq") "" else ".$rel"
@@ -40,6 +40,10 @@ open class DottedQueryParser : QueryParser() {
                 Condition.HasOwnTag(unQuote(match.groupValues[2]), match.groupValues[1].isNotEmpty())
             },
 
+            ConditionMatch("""^(\.)?pr\.("(?:[^"\\]|\\.)*"|[^.]+)\.(.+)""") { match ->
+                Condition.HasProperty(unQuote(match.groupValues[2]), unQuote(match.groupValues[3]), match.groupValues[1].isNotEmpty())
+            },
+
             ConditionMatch("""^(e|s|d|c|cr)(?:\.(eq|ne|lt|le|gt|ge))?\.(.+)""") { match ->
                 val timeTypeMatch = match.groupValues[1]
                 val relationMatch = match.groupValues[2]
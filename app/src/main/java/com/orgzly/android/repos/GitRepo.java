@@ -16,6 +16,7 @@ import com.orgzly.android.git.GitFileSynchronizer;
 import com.orgzly.android.git.GitPreferences;
 import com.orgzly.android.git.GitPreferencesFromRepoPrefs;
 import com.orgzly.android.git.GitTransportSetter;
+import com.orgzly.android.git.WorkTreeTracker;
 import com.orgzly.android.prefs.AppPreferences;
 import com.orgzly.android.prefs.RepoPreferences;
 import com.orgzly.android.util.LogUtils;
@@ -25,8 +26,10 @@ import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
 import org.eclipse.jgit.ignore.IgnoreNode;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
@@ -37,11 +40,16 @@ import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.FileUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class GitRepo implements SyncRepo, TwoWaySyncRepo {
     private final static String TAG = GitRepo.class.getName();
@@ -227,17 +235,38 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
         return synchronizer.openRepoFileInputStream(sourceUri.getPath());
     }
 
-    private VersionedRook currentVersionedRook(Uri uri) {
-        RevCommit commit = null;
+    private VersionedRook currentVersionedRook(Uri uri) throws IOException {
+        Uri decodedUri = Uri.parse(Uri.decode(uri.toString()));
+        GitFileSynchronizer.LastCommit commit = synchronizer.getLastCommitOfFile(decodedUri);
+        if (commit == null) {
+            throw new IOException("Failed to find last commit of " + decodedUri);
+        }
+        // Last commit has the current content of the file
+        ObjectId blobId = synchronizer.getFileRevision(
+                decodedUri.toString().replaceFirst("^/", ""), synchronizer.currentHead());
+        return versionedRook(uri, commit, blobId);
+    }
+
+    /**
+     * Blob ID of the file is used as the content hash, so that books with unchanged content
+     * can be recognized even when their last commit changes (after merges or rebases).
+     *
+     * @param uri Encoded URI of the file, decoded here
+     */
+    private VersionedRook versionedRook(Uri uri, GitFileSynchronizer.LastCommit commit, ObjectId blobId) {
         uri = Uri.parse(Uri.decode(uri.toString()));
-        try {
-            commit = synchronizer.getLastCommitOfFile(uri);
-        } catch (GitAPIException e) {
-            e.printStackTrace();
+        long mtime = (long)commit.commitTime*1000;
+        return new VersionedRook(repoId, RepoType.GIT, getUri(), uri, commit.name(), mtime, blobId.name());
+    }
+
+    /**
+     * Blob ID the file would have if it was added to the repository.
+     */
+    @Override
+    public String contentHash(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, file.length(), in).name();
         }
-        assert commit != null;
-        long mtime = (long)commit.getCommitTime()*1000;
-        return new VersionedRook(repoId, RepoType.GIT, getUri(), uri, commit.name(), mtime);
     }
 
     public boolean isUnchanged() throws IOException {
@@ -287,8 +316,21 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
                 return this;
             }
         });
+        Map<String, ObjectId> blobIds = new LinkedHashMap<>();
         while (walk.next()) {
-            result.add(currentVersionedRook(Uri.withAppendedPath(Uri.EMPTY, walk.getPathString())));
+            blobIds.put(walk.getPathString(), walk.getObjectId(0));
+        }
+
+        // Look up last commits of all books at once, instead of walking the history for each
+        Map<String, GitFileSynchronizer.LastCommit> lastCommits = synchronizer.getLastCommitsOfFiles(blobIds.keySet());
+
+        for (Map.Entry<String, ObjectId> entry : blobIds.entrySet()) {
+            String path = entry.getKey();
+            GitFileSynchronizer.LastCommit commit = lastCommits.get(path);
+            if (commit == null) {
+                throw new IOException("Failed to find last commit of " + path);
+            }
+            result.add(versionedRook(Uri.EMPTY.buildUpon().appendPath(path).build(), commit, entry.getValue()));
         }
         return result;
     }
@@ -347,10 +389,40 @@ public class GitRepo implements SyncRepo, TwoWaySyncRepo {
                 writeBackFile);
     }
 
+    @Override
+    public Map<VersionedRook, VersionedRook> storeBooks(Map<VersionedRook, File> books) throws IOException {
+        Map<String, File> files = new LinkedHashMap<>();
+        Map<String, ObjectId> revisions = new HashMap<>();
+        Map<String, VersionedRook> currentRooks = new HashMap<>();
+        for (Map.Entry<VersionedRook, File> entry : books.entrySet()) {
+            VersionedRook current = entry.getKey();
+            String repoRelativePath = current.getUri().getPath().replaceFirst("^/", "");
+            RevCommit rookCommit = getCommitFromRevisionString(current.getRevision());
+            files.put(repoRelativePath, entry.getValue());
+            revisions.put(repoRelativePath, synchronizer.getFileRevision(repoRelativePath, rookCommit));
+            currentRooks.put(repoRelativePath, current);
+        }
+
+        // Pushed once per sync, by tryPushIfHeadDiffersFromRemote
+        Set<String> updated = synchronizer.updateAndCommitFilesFromRevisions(files, revisions);
+
+        Map<VersionedRook, VersionedRook> result = new HashMap<>();
+        for (String repoRelativePath : updated) {
+            result.put(
+                    currentRooks.get(repoRelativePath),
+                    currentVersionedRook(Uri.EMPTY.buildUpon().appendPath(repoRelativePath).build()));
+        }
+        return result;
+    }
+
     public void tryPushIfHeadDiffersFromRemote() {
         synchronizer.tryPushIfHeadDiffersFromRemote();
     }
 
+    public WorkTreeTracker.Stats takeWorkTreeStats() {
+        return synchronizer.takeWorkTreeStats();
+    }
+
     public String getCurrentBranch() throws IOException {
         return git.getRepository().getBranch();
     }
@@ -8,7 +8,23 @@ interface TwoWaySyncRepo {
     @Throws(IOException::class)
     fun syncBook(uri: Uri, current: VersionedRook?, fromDB: File): TwoWaySyncResult
 
+    /**
+     * Stores multiple books at once, without merging. Books which were modified
+     * in the repository since they were last synced are not stored.
+     *
+     * @param books files with new content of books, by versioned rooks they were last synced with
+     * @return new versioned rooks of stored books, by versioned rooks they were last synced with
+     */
+    @Throws(IOException::class)
+    fun storeBooks(books: Map<VersionedRook, File>): Map<VersionedRook, VersionedRook>
+
     fun tryPushIfHeadDiffersFromRemote()
 
+    /**
+     * Digest of the file's content, comparable to [VersionedRook.contentHash] of this repository's books.
+     */
+    @Throws(IOException::class)
+    fun contentHash(file: File): String
+
     fun getUri(): Uri
 }
\ No newline at end of file
@@ -1,18 +1,30 @@
 package com.orgzly.android.repos
 
 import android.net.Uri
+import androidx.room.Ignore
 
+/**
+ * @property contentHash digest of the book's content, if known (see [com.orgzly.android.util.MiscUtils.sha1]).
+ * Repositories can provide their own digest ([GitRepo] uses blob IDs).
+ */
 class VersionedRook(
         repoId: Long,
         repoType: RepoType,
         repoUri: Uri,
         uri: Uri,
         val revision: String,
-        val mtime: Long
+        val mtime: Long,
+        val contentHash: String?
 ) : Rook(repoId, repoType, repoUri, uri) {
 
-    constructor(rook: Rook, revision: String, mtime: Long) :
-            this(rook.repoId, rook.repoType, rook.getRepoUri(), rook.getUri(), revision, mtime)
+    @Ignore
+    constructor(repoId: Long, repoType: RepoType, repoUri: Uri, uri: Uri, revision: String, mtime: Long) :
+            this(repoId, repoType, repoUri, uri, revision, mtime, null)
+
+    @Ignore
+    @JvmOverloads
+    constructor(rook: Rook, revision: String, mtime: Long, contentHash: String? = null) :
+            this(rook.repoId, rook.repoType, rook.getRepoUri(), rook.getUri(), revision, mtime, contentHash)
 
     override fun toString(): String {
         return uri.buildUpon()
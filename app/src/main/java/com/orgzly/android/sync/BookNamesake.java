@@ -198,9 +198,10 @@ public class BookNamesake {
                 return;
             }
 
-            /* Same revision, there was no remote change. */
-            if (book.getSyncedTo().getRevision().equals(latestLinkedRook.getRevision())) {
-                /* Revision did not change. */
+            /* Same revision or same content, there was no remote change. */
+            if (book.getSyncedTo().getRevision().equals(latestLinkedRook.getRevision())
+                    || isContentUnchanged(book.getSyncedTo(), latestLinkedRook)) {
+                /* Revision or content did not change. */
 
                 if (book.isOutOfSync()) { // Local change
                     status = BookSyncStatus.BOOK_WITH_LINK_LOCAL_MODIFIED;
@@ -231,6 +232,16 @@ public class BookNamesake {
         }
     }
 
+    /**
+     * Remote book was only committed again (after a merge, for example), with the same content.
+     * Requires the digest of content to be known for the remote book, which is the case
+     * for Git repositories.
+     */
+    private static boolean isContentUnchanged(VersionedRook syncedTo, VersionedRook latest) {
+        return latest.getContentHash() != null
+                && latest.getContentHash().equals(syncedTo.getContentHash());
+    }
+
     /** Find latest (current) remote book that local one links to. */
     private VersionedRook getLatestLinkedRookVersion(BookView bookView, List<VersionedRook> vrooks) {
         Repo linkRepo = bookView.getLinkRepo();
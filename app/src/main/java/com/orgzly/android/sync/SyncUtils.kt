@@ -6,9 +6,11 @@ import com.orgzly.android.BookFormat
 import com.orgzly.android.BookName
 import com.orgzly.android.NotesOrgExporter
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.data.ParsedBook
 import com.orgzly.android.db.entity.BookAction
 import com.orgzly.android.db.entity.Repo
 import com.orgzly.android.repos.GitRepo
+import com.orgzly.android.repos.RepoType
 import com.orgzly.android.repos.SyncRepo
 import com.orgzly.android.repos.TwoWaySyncRepo
 import com.orgzly.android.repos.VersionedRook
@@ -77,14 +79,100 @@ object SyncUtils {
         return namesakes
     }
 
+    /**
+     * Remote book which [syncNamesake] is going to load, if it can be downloaded
+     * and parsed ahead of time, using [DataRepository.parseBookFromRepo].
+     *
+     * Books from Git repositories are synced differently and are never returned.
+     */
+    @JvmStatic
+    fun rookToLoad(namesake: BookNamesake): VersionedRook? {
+        if (namesake.rooks.isNotEmpty() && namesake.rooks[0].repoType == RepoType.GIT) {
+            return null
+        }
+
+        return when (namesake.status) {
+            BookSyncStatus.NO_BOOK_ONE_ROOK, BookSyncStatus.DUMMY_WITHOUT_LINK_AND_ONE_ROOK ->
+                namesake.rooks[0]
+
+            BookSyncStatus.DUMMY_WITH_LINK, BookSyncStatus.BOOK_WITH_LINK_AND_ROOK_MODIFIED ->
+                namesake.latestLinkedRook
+
+            else -> null
+        }
+    }
+
+    /**
+     * Book is only modified locally and linked to a repository which can store it
+     * together with other such books (see [storeModifiedBooks]).
+     */
+    @JvmStatic
+    fun isStoredInBatch(namesake: BookNamesake): Boolean {
+        return namesake.status == BookSyncStatus.BOOK_WITH_LINK_LOCAL_MODIFIED
+                && namesake.rooks.isNotEmpty()
+                && namesake.rooks[0].repoType == RepoType.GIT
+    }
+
+    /**
+     * Stores all books which are only modified locally with a single commit per repository,
+     * instead of committing (and merging) them one by one. Books modified in the repository
+     * in the meantime are left out, to be synced by [syncNamesake].
+     *
+     * @return actions for stored books, by book name
+     */
+    @Throws(IOException::class)
+    @JvmStatic
+    fun storeModifiedBooks(dataRepository: DataRepository, namesakes: Collection<BookNamesake>): Map<String, BookAction> {
+        val actions = HashMap<String, BookAction>()
+
+        namesakes.filter { isStoredInBatch(it) }.groupBy { it.book.linkRepo!! }.forEach { (repoEntity, repoNamesakes) ->
+            val repo = dataRepository.getRepoInstance(repoEntity.id, repoEntity.type, repoEntity.url)
+
+            if (repo !is TwoWaySyncRepo) {
+                return@forEach
+            }
+
+            val namesakesByRook = repoNamesakes.associateBy { it.book.syncedTo!! }
+
+            val files = namesakesByRook.mapValues { dataRepository.getTempBookFile() }
+
+            val stored = try {
+                for ((rook, file) in files) {
+                    NotesOrgExporter(dataRepository).exportBook(namesakesByRook.getValue(rook).book.book, file)
+                }
+
+                repo.storeBooks(files)
+
+            } finally {
+                /* Delete temporary files. */
+                files.values.forEach { it.delete() }
+            }
+
+            for ((rook, newRook) in stored) {
+                val namesake = namesakesByRook.getValue(rook)
+
+                dataRepository.updateBookSyncedWithSameContent(namesake.book.book.id, newRook)
+
+                actions[namesake.name] = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg(repoEntity.url))
+            }
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Stored ${stored.size} of ${repoNamesakes.size} modified books to ${repoEntity.url}")
+        }
+
+        return actions
+    }
+
     /**
      * Passed [com.orgzly.android.sync.BookNamesake] is NOT updated after load or save.
      *
+     * @param parsedBook remote book already parsed, to be written instead of loading it from repo
+     *
      * FIXME: Hardcoded BookName.Format.ORG below
      */
     @Throws(Exception::class)
     @JvmStatic
-    fun syncNamesake(dataRepository: DataRepository, namesake: BookNamesake): BookAction {
+    @JvmOverloads
+    fun syncNamesake(dataRepository: DataRepository, namesake: BookNamesake, parsedBook: ParsedBook? = null): BookAction {
         val repoEntity: Repo?
         val repoUrl: String
         val repositoryPath: String
@@ -108,8 +196,14 @@ object SyncUtils {
         }
 
         when (namesake.status!!) {
-            BookSyncStatus.NO_CHANGE ->
+            BookSyncStatus.NO_CHANGE -> {
+                /* Remote book could have a new revision with the same content. */
+                val latestLinkedRook = namesake.latestLinkedRook
+                if (latestLinkedRook != null && latestLinkedRook.revision != namesake.book.syncedTo?.revision) {
+                    dataRepository.updateBookLinkAndSync(namesake.book.book.id, latestLinkedRook)
+                }
                 bookAction = BookAction.forNow(BookAction.Type.INFO, namesake.status.msg())
+            }
 
             /* Error states */
 
@@ -137,14 +231,14 @@ object SyncUtils {
             /* Load remote book. */
 
             BookSyncStatus.NO_BOOK_ONE_ROOK, BookSyncStatus.DUMMY_WITHOUT_LINK_AND_ONE_ROOK -> {
-                dataRepository.loadBookFromRepo(namesake.rooks[0])
+                loadBook(dataRepository, namesake.rooks[0], parsedBook)
                 bookAction = BookAction.forNow(
                     BookAction.Type.INFO,
                     namesake.status.msg(namesake.rooks[0].uri))
             }
 
             BookSyncStatus.DUMMY_WITH_LINK, BookSyncStatus.BOOK_WITH_LINK_AND_ROOK_MODIFIED -> {
-                dataRepository.loadBookFromRepo(namesake.latestLinkedRook)
+                loadBook(dataRepository, namesake.latestLinkedRook, parsedBook)
                 bookAction = BookAction.forNow(
                     BookAction.Type.INFO,
                     namesake.status.msg(namesake.latestLinkedRook.uri))
@@ -182,6 +276,15 @@ object SyncUtils {
         return bookAction
     }
 
+    @Throws(IOException::class)
+    private fun loadBook(dataRepository: DataRepository, rook: VersionedRook, parsedBook: ParsedBook?) {
+        if (parsedBook != null) {
+            dataRepository.loadParsedBook(parsedBook)
+        } else {
+            dataRepository.loadBookFromRepo(rook)
+        }
+    }
+
     @Throws(IOException::class)
     private fun handleTwoWaySync(dataRepository: DataRepository, repo: TwoWaySyncRepo, namesake: BookNamesake): Boolean {
         val (book, _, _, currentRook) = namesake.book
@@ -196,6 +299,15 @@ object SyncUtils {
             val dbFile = dataRepository.getTempBookFile()
             try {
                 NotesOrgExporter(dataRepository).exportBook(book, dbFile)
+
+                /* Remote book already has the same content, there is nothing to commit, merge or load. */
+                val remoteRook = namesake.rooks[0]
+                if (!book.isDummy && remoteRook.contentHash != null && remoteRook.contentHash == repo.contentHash(dbFile)) {
+                    if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Same content as ${remoteRook.uri}, skipping sync")
+                    dataRepository.updateBookSyncedWithSameContent(book.id, remoteRook)
+                    return true
+                }
+
                 val (newRook1, merged, loadFile) =
                     repo.syncBook(someRook.uri, currentRook, dbFile)
                 noNewMergeConflicts = merged
@@ -13,8 +13,10 @@ import com.orgzly.R
 import com.orgzly.android.App
 import com.orgzly.android.SharingShortcutsManager
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.data.ParsedBook
 import com.orgzly.android.data.logs.AppLogsRepository
 import com.orgzly.android.db.entity.BookAction
+import com.orgzly.android.git.GitTransportPool
 import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.reminders.RemindersScheduler
 import com.orgzly.android.repos.*
@@ -25,8 +27,14 @@ import com.orgzly.android.util.AppPermissions
 import com.orgzly.android.util.LogMajorEvents
 import com.orgzly.android.util.LogUtils
 import com.orgzly.android.widgets.ListWidgetProvider
+import kotlinx.coroutines.Deferred
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.supervisorScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
+import java.io.IOException
 import java.util.concurrent.CancellationException
 import javax.inject.Inject
 
@@ -98,7 +106,14 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
 
         val syncStartTime = System.currentTimeMillis()
 
-        syncRepos()?.let { return it }
+        /* Transports (and SSH sessions) are reused by all Git operations of this sync. */
+        GitTransportPool.open().use { transportPool ->
+            try {
+                syncRepos()?.let { return it }
+            } finally {
+                logTransportPoolStats(transportPool)
+            }
+        }
 
         RemindersScheduler.notifyDataSetChanged(App.getAppContext())
         ListWidgetProvider.notifyDataSetChanged(App.getAppContext())
@@ -259,23 +274,91 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
         /*
          * Start syncing name by name.
          */
-        for ((curr, namesake) in orderedNamesakes.values.withIndex()) {
+        syncNamesakes(orderedNamesakes.values.toList())
+
+        if (isStopped) {
+            return SyncState.getInstance(SyncState.Type.CANCELED)
+        }
+
+        val repos = dataRepository.getSyncRepos()
+
+        for (repo in repos) {
+            if (repo is TwoWaySyncRepo) {
+                repo.tryPushIfHeadDiffersFromRemote()
+            }
+            if (repo is GitRepo) {
+                logWorkTreeStats(repo)
+            }
+        }
+
+        return null
+    }
+
+    /**
+     * Syncs namesakes one by one, in order, on this coroutine, which is the only one writing.
+     *
+     * Remote books which only need to be loaded are downloaded and parsed ahead of time,
+     * by up to [AppPreferences.syncParsingWorkers] workers (not at all if set to one).
+     * To limit the memory used, parsing is started at most twice as many books ahead
+     * as there are workers.
+     */
+    private suspend fun syncNamesakes(namesakes: List<BookNamesake>) = supervisorScope {
+        val workers = AppPreferences.syncParsingWorkers(context)
+
+        val permits = Semaphore(workers.coerceAtLeast(1))
+
+        val parsedBooks = arrayOfNulls<Deferred<ParsedBook>>(namesakes.size)
+
+        var nextToParse = 0
+
+        /* Books stored with a single commit, once the first of them is reached. */
+        var storedBooks: Map<String, BookAction>? = null
+
+        fun parseAhead(until: Int) {
+            while (workers > 1 && nextToParse < minOf(until, namesakes.size)) {
+                val index = nextToParse++
+
+                SyncUtils.rookToLoad(namesakes[index])?.let { rook ->
+                    parsedBooks[index] = async(Dispatchers.IO) {
+                        permits.withPermit {
+                            dataRepository.parseBookFromRepo(rook)
+                        }
+                    }
+                }
+            }
+        }
+
+        for ((curr, namesake) in namesakes.withIndex()) {
             /* If task has been canceled, just mark the remaining books as such. */
             if (isStopped) {
+                parsedBooks[curr]?.cancel()
+
                 dataRepository.setBookLastActionAndSyncStatus(
                     namesake.book.book.id,
                     BookAction.forNow(BookAction.Type.INFO, context.getString(R.string.canceled)))
 
             } else {
+                parseAhead(curr + 2 * workers)
+
                 sendProgress(SyncState.getInstance(
                     SyncState.Type.BOOK_STARTED, namesake.name, curr, namesakes.size))
 
                 try {
-                    val action = SyncUtils.syncNamesake(dataRepository, namesake)
+                    val parsedBook = parsedBooks[curr]?.await()
+                    parsedBooks[curr] = null
+
+                    if (storedBooks == null && SyncUtils.isStoredInBatch(namesake)) {
+                        storedBooks = storeModifiedBooks(namesakes.subList(curr, namesakes.size))
+                    }
+
+                    val action = storedBooks?.get(namesake.name)
+                        ?: SyncUtils.syncNamesake(dataRepository, namesake, parsedBook)
                     dataRepository.setBookLastActionAndSyncStatus(
                         namesake.book.book.id,
                         action,
                         namesake.status.toString())
+                } catch (e: CancellationException) {
+                    throw e
                 } catch (e: Exception) {
                     e.printStackTrace()
                     dataRepository.setBookLastActionAndSyncStatus(
@@ -287,20 +370,49 @@ class SyncWorker(val context: Context, val params: WorkerParameters) :
                     SyncState.Type.BOOK_ENDED, namesake.name, curr + 1, namesakes.size))
             }
         }
+    }
 
-        if (isStopped) {
-            return SyncState.getInstance(SyncState.Type.CANCELED)
+    private fun logWorkTreeStats(repo: GitRepo) {
+        val stats = repo.takeWorkTreeStats()
+
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "${repo.uri}: Checks for uncommitted changes: $stats")
+
+        if (LogMajorEvents.isEnabled()) {
+            appLogs.log(LogMajorEvents.SYNC, "Checks for uncommitted changes in ${repo.uri}: $stats")
         }
+    }
 
-        val repos = dataRepository.getSyncRepos()
+    private fun logTransportPoolStats(transportPool: GitTransportPool) {
+        val stats = transportPool.stats()
 
-        for (repo in repos) {
-            if (repo is TwoWaySyncRepo) {
-                repo.tryPushIfHeadDiffersFromRemote()
-            }
+        if (stats.fetches + stats.skippedFetches == 0) {
+            return
         }
 
-        return null
+        if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Git remotes: $stats")
+
+        if (LogMajorEvents.isEnabled()) {
+            appLogs.log(LogMajorEvents.SYNC, "Git remotes: $stats")
+        }
+    }
+
+    /**
+     * If storing fails, books are synced one by one.
+     */
+    private fun storeModifiedBooks(namesakes: List<BookNamesake>): Map<String, BookAction> {
+        return try {
+            SyncUtils.storeModifiedBooks(dataRepository, namesakes)
+        } catch (e: IOException) {
+            val message = "Failed storing modified books, syncing them one by one: ${e.message}"
+
+            if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, message)
+
+            if (LogMajorEvents.isEnabled()) {
+                appLogs.log(LogMajorEvents.SYNC, message)
+            }
+
+            emptyMap()
+        }
     }
 
     // TODO: Remove or repo.requiresStoragePermission
@@ -9,6 +9,7 @@ import androidx.annotation.ColorInt
 import androidx.constraintlayout.widget.ConstraintLayout
 import com.orgzly.R
 import com.orgzly.android.App
+import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.Note
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.prefs.AppPreferences
@@ -23,7 +24,11 @@ import com.orgzly.android.util.UserTimeFormatter
 import com.orgzly.databinding.ItemAgendaDividerBinding
 import com.orgzly.databinding.ItemHeadBinding
 
-class NoteItemViewBinder(private val context: Context, private val inBook: Boolean) {
+class NoteItemViewBinder(
+        private val context: Context,
+        private val inBook: Boolean,
+        private val dataRepository: DataRepository) {
+
     private val attrs: Attrs = Attrs.obtain(context)
 
     private val titleGenerator: TitleGenerator
@@ -47,7 +52,7 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
         setupTitle(holder, noteView)
         setupBookName(holder, noteView)
         setupPlanningTimes(holder, noteView, agendaTimeType)
-        setupContent(holder, noteView.note)
+        setupContent(holder, noteView)
         setupIndent(holder, noteView.note)
         setupBullet(holder, noteView.note)
         setupFoldingButtons(holder, noteView.note)
@@ -96,7 +101,9 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
         return titleGenerator.generateTitle(noteView)
     }
 
-    private fun setupContent(holder: NoteItemViewHolder, note: Note) {
+    private fun setupContent(holder: NoteItemViewHolder, noteView: NoteView) {
+        val note = noteView.note
+
         if (note.hasContent() && titleGenerator.shouldDisplayContent(note)) {
             if (AppPreferences.isFontMonospaced(context)) {
                 holder.binding.itemHeadContent.setTypeface(Typeface.MONOSPACE)
@@ -106,10 +113,17 @@ class NoteItemViewBinder(private val context: Context, private val inBook: Boole
 
             /* If content changes (for example by toggling the checkbox), update the note. */
             holder.binding.itemHeadContent.setOnUserTextChangeListener { str ->
-                val useCase = NoteUpdateContent(note.position.bookId, note.id, str)
-
                 App.EXECUTORS.diskIO().execute {
-                    UseCaseRunner.run(useCase)
+                    /* List loaded while content was not displayed has only its beginning, keep the rest. */
+                    val content = if (noteView.isContentPreview) {
+                        dataRepository.getNoteContentWithPreviewReplaced(note.id, note.content!!, str)
+                    } else {
+                        str
+                    }
+
+                    if (content != null) {
+                        UseCaseRunner.run(NoteUpdateContent(note.position.bookId, note.id, content))
+                    }
                 }
             }
 
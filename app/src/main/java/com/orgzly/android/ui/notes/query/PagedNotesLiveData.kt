@@ -0,0 +1,115 @@
+package com.orgzly.android.ui.notes.query
+
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
+import androidx.room.InvalidationTracker
+import com.orgzly.BuildConfig
+import com.orgzly.android.App
+import com.orgzly.android.data.DataRepository
+import com.orgzly.android.data.NotesPage
+import com.orgzly.android.db.entity.NoteView
+import com.orgzly.android.util.LogUtils
+
+/**
+ * Notes matching the query, loaded a page at a time as the list is scrolled (see [loadMore]).
+ *
+ * When notes change, all notes loaded so far are reloaded (as a single page).
+ * Total number of matching notes is loaded separately, into [count].
+ */
+class PagedNotesLiveData(
+        private val dataRepository: DataRepository,
+        private val queryString: String,
+        private val pageSize: Int = PAGE_SIZE) : LiveData<List<NoteView>>() {
+
+    val count = MutableLiveData<Int>()
+
+    /* Modified while holding the lock, on the disk executor. */
+    private val lock = Any()
+    private val notes = ArrayList<NoteView>()
+
+    @Volatile
+    private var next: NotesPage.Key? = null
+
+    @Volatile
+    private var isLoadingMore = false
+
+    /* Changes are not observed while inactive. */
+    @Volatile
+    private var isInvalid = true
+
+    private val observer = object : InvalidationTracker.Observer(arrayOf("notes", "note_view", "books")) {
+        override fun onInvalidated(tables: Set<String>) {
+            reload()
+        }
+    }
+
+    override fun onActive() {
+        dataRepository.addNotesObserver(observer)
+
+        if (isInvalid) {
+            reload()
+        }
+    }
+
+    override fun onInactive() {
+        dataRepository.removeNotesObserver(observer)
+
+        isInvalid = true
+    }
+
+    /**
+     * Loads the next page, unless it is already being loaded or all notes have been loaded.
+     */
+    fun loadMore() {
+        if (isLoadingMore || next == null) {
+            return
+        }
+
+        isLoadingMore = true
+
+        App.EXECUTORS.diskIO().execute {
+            try {
+                synchronized(lock) {
+                    next?.let { key ->
+                        val page = dataRepository.selectNotesPageFromQuery(queryString, key, pageSize)
+
+                        notes.addAll(page.notes)
+                        next = page.next
+
+                        if (BuildConfig.LOG_DEBUG)
+                            LogUtils.d(TAG, "Loaded ${page.notes.size} more notes (${notes.size} total)")
+
+                        postValue(ArrayList(notes))
+                    }
+                }
+            } finally {
+                isLoadingMore = false
+            }
+        }
+    }
+
+    private fun reload() {
+        isInvalid = false
+
+        App.EXECUTORS.diskIO().execute {
+            synchronized(lock) {
+                val page = dataRepository.selectNotesPageFromQuery(
+                        queryString, null, maxOf(notes.size, pageSize))
+
+                notes.clear()
+                notes.addAll(page.notes)
+                next = page.next
+
+                postValue(ArrayList(notes))
+
+                count.postValue(dataRepository.countNotesFromQuery(queryString))
+            }
+        }
+    }
+
+    companion object {
+        private val TAG = PagedNotesLiveData::class.java.name
+
+        const val PAGE_SIZE = 100
+    }
+}
@@ -1,10 +1,12 @@
 package com.orgzly.android.ui.notes.query
 
+import androidx.lifecycle.MediatorLiveData
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.map
 import androidx.lifecycle.switchMap
 import com.orgzly.BuildConfig
 import com.orgzly.android.data.DataRepository
+import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.ui.AppBar
 import com.orgzly.android.ui.CommonViewModel
 import com.orgzly.android.util.LogUtils
@@ -40,6 +42,33 @@ class QueryViewModel(private val dataRepository: DataRepository) : CommonViewMod
         }
     }
 
+    private val pagedNotes = notesParams.map { params ->
+        params.query?.let { PagedNotesLiveData(dataRepository, it) }
+    }
+
+    /**
+     * Notes loaded so far, for lists which load more notes as they are scrolled (see [loadMore]).
+     * View state is set from the total number of notes.
+     */
+    val pagedData = pagedNotes.switchMap { notes ->
+        if (notes != null) {
+            MediatorLiveData<List<NoteView>>().apply {
+                addSource(notes) {
+                    value = it
+                }
+                addSource(notes.count) {
+                    viewState.value = if (it > 0) ViewState.LOADED else ViewState.EMPTY
+                }
+            }
+        } else {
+            MutableLiveData()
+        }
+    }
+
+    fun loadMore() {
+        pagedNotes.value?.loadMore()
+    }
+
     val appBar: AppBar = AppBar(mapOf(
         APP_BAR_DEFAULT_MODE to null,
         APP_BAR_SELECTION_MODE to APP_BAR_DEFAULT_MODE))
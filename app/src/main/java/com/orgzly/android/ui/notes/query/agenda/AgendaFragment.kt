@@ -73,7 +73,7 @@ class AgendaFragment : QueryFragment(), OnViewHolderClickListener<AgendaItem> {
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, savedInstanceState)
 
-        viewAdapter = AgendaAdapter(binding.root.context, this)
+        viewAdapter = AgendaAdapter(binding.root.context, this, dataRepository)
         viewAdapter.setHasStableIds(true)
 
         // Restores selection, requires adapter
@@ -230,7 +230,10 @@ class AgendaFragment : QueryFragment(), OnViewHolderClickListener<AgendaItem> {
             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Observed notes: ${notes.size}")
 
             val hideEmptyDaysInAgenda = AppPreferences.hideEmptyDaysInAgenda(context)
-            val items = AgendaItems(hideEmptyDaysInAgenda).getList(notes, currentQuery, item2databaseIds)
+            val items = currentQuery?.let { queryString ->
+                val query = dataRepository.parseQuery(queryString)
+                AgendaItems(hideEmptyDaysInAgenda).getList(notes, query, item2databaseIds)
+            } ?: emptyList()
 
             if (BuildConfig.LOG_DEBUG)
                 LogUtils.d(TAG, "Replacing data with ${items.size} agenda items")
@@ -2,7 +2,6 @@ package com.orgzly.android.ui.notes.query.agenda
 
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.query.Query
-import com.orgzly.android.query.user.InternalQueryParser
 import com.orgzly.android.ui.TimeType
 import com.orgzly.android.util.AgendaUtils
 import com.orgzly.org.datetime.OrgInterval
@@ -35,22 +34,6 @@ class AgendaItems(private val hideEmptyDaysInAgenda : Boolean) {
         }
     }
 
-    fun getList(
-            notes: List<NoteView>, queryString: String?, idMap: MutableMap<Long, Long>
-    ): List<AgendaItem> {
-
-        return if (queryString != null) {
-            val parser = InternalQueryParser()
-
-            val query = parser.parse(queryString)
-
-            getList(notes, query, idMap)
-
-        } else {
-            listOf()
-        }
-    }
-
     fun getList(
             notes: List<NoteView>, query: Query, item2databaseIds: MutableMap<Long, Long>
     ): List<AgendaItem> {
@@ -11,6 +11,7 @@ import androidx.lifecycle.Observer
 import androidx.lifecycle.ViewModelProvider
 import androidx.recyclerview.widget.DividerItemDecoration
 import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
 import com.orgzly.BuildConfig
 import com.orgzly.R
 import com.orgzly.android.db.entity.NoteView
@@ -74,7 +75,7 @@ class SearchFragment : QueryFragment(), OnViewHolderClickListener<NoteView> {
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
         if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, savedInstanceState)
 
-        viewAdapter = SearchAdapter(binding.root.context, this)
+        viewAdapter = SearchAdapter(binding.root.context, this, dataRepository)
         viewAdapter.setHasStableIds(true)
 
         // Restores selection, requires adapter
@@ -89,6 +90,15 @@ class SearchFragment : QueryFragment(), OnViewHolderClickListener<NoteView> {
             rv.adapter = viewAdapter
             rv.addItemDecoration(dividerItemDecoration)
 
+            /* Load more notes before the end of the list is reached. */
+            rv.addOnScrollListener(object : RecyclerView.OnScrollListener() {
+                override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                    if (layoutManager.findLastVisibleItemPosition() >= viewAdapter.itemCount - LOAD_MORE_THRESHOLD) {
+                        viewModel.loadMore()
+                    }
+                }
+            })
+
             rv.addOnItemTouchListener(ItemGestureDetector(rv.context, object: ItemGestureDetector.Listener {
                 override fun onSwipe(direction: Int, e1: MotionEvent, e2: MotionEvent) {
                     rv.findChildViewUnder(e1.x, e2.y)?.let { itemView ->
@@ -223,7 +233,7 @@ class SearchFragment : QueryFragment(), OnViewHolderClickListener<NoteView> {
             }
         })
 
-        viewModel.data.observe(viewLifecycleOwner, Observer { notes ->
+        viewModel.pagedData.observe(viewLifecycleOwner, Observer { notes ->
             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG, "Observed notes: ${notes.size}")
 
             viewAdapter.submitList(notes)
@@ -297,6 +307,9 @@ class SearchFragment : QueryFragment(), OnViewHolderClickListener<NoteView> {
     companion object {
         private val TAG = SearchFragment::class.java.name
 
+        /** Number of notes left below the last visible one when more are loaded. */
+        private const val LOAD_MORE_THRESHOLD = 20
+
         /** Name used for [android.app.FragmentManager].  */
         @JvmField
         val FRAGMENT_TAG: String = SearchFragment::class.java.name
@@ -9,20 +9,21 @@ import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.ListAdapter
 import androidx.recyclerview.widget.RecyclerView
 import com.orgzly.R
+import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.Book
 import com.orgzly.android.db.entity.Note
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.ui.notes.NoteItemViewBinder
 import com.orgzly.databinding.ItemRefileBinding
 
-class RefileAdapter(val context: Context, val listener: OnClickListener) :
+class RefileAdapter(val context: Context, val listener: OnClickListener, dataRepository: DataRepository) :
         ListAdapter<RefileViewModel.Item, RefileAdapter.RefileViewHolder>(DIFF_CALLBACK) {
 
     data class Icons(@DrawableRes val up: Int, @DrawableRes val book: Int)
 
     var icons: Icons? = null
 
-    private val noteItemViewBinder = NoteItemViewBinder(context, true)
+    private val noteItemViewBinder = NoteItemViewBinder(context, true, dataRepository)
 
     interface OnClickListener {
         fun onItem(item: RefileViewModel.Item)
@@ -90,7 +90,7 @@ class RefileFragment : DialogFragment() {
             override fun onButton(item: RefileViewModel.Item) {
                 viewModel.refile(item)
             }
-        })
+        }, dataRepository)
 
         binding.dialogRefileTargets.let {
             it.layoutManager = LinearLayoutManager(context)
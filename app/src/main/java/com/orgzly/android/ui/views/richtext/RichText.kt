@@ -37,7 +37,7 @@ class RichText(context: Context, attrs: AttributeSet?) :
 
     private val listeners = Listeners()
 
-    fun setOnUserTextChangeListener(listener: OnUserTextChangeListener) {
+    fun setOnUserTextChangeListener(listener: OnUserTextChangeListener?) {
         listeners.onUserTextChange = listener
     }
 
@@ -4,6 +4,13 @@ import android.util.Log
 import com.orgzly.BuildConfig
 import java.io.File
 import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.InputStreamReader
+import java.io.RandomAccessFile
+import java.io.Reader
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 
 data class Encoding(val used: String, val detected: String?, val selected: String?) {
     companion object {
@@ -40,8 +47,142 @@ data class Encoding(val used: String, val detected: String?, val selected: Strin
             return Encoding(usedEncoding, detectedEncoding, selectedEncoding)
         }
 
-        private const val DEFAULT_ENCODING = "UTF-8"
+        /**
+         * Opens the file once, determines its encoding and passes the decoding reader to [block].
+         *
+         * File is memory-mapped, so detection and decoding both read from the same mapping.
+         * Detection is skipped if encoding is selected or [knownEncoding] is passed
+         * (encoding already detected for the same content).
+         */
+        @Throws(IOException::class)
+        fun <T> read(
+                file: File,
+                selectedEncoding: String?,
+                knownEncoding: Encoding? = null,
+                block: (Encoding, Reader) -> T): T {
+
+            return RandomAccessFile(file, "r").use { raf ->
+                val buffer = raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+
+                val encoding = when {
+                    selectedEncoding != null ->
+                        Encoding(selectedEncoding, null, selectedEncoding)
+
+                    knownEncoding != null ->
+                        Encoding(knownEncoding.used, knownEncoding.detected, null)
+
+                    else -> {
+                        val startedAt = System.currentTimeMillis()
+
+                        val detectedEncoding = detect(buffer.duplicate())
+
+                        if (BuildConfig.LOG_DEBUG) {
+                            val ms = System.currentTimeMillis() - startedAt
+                            LogUtils.d(TAG, "Detected $file encoding in ${ms}ms: $detectedEncoding")
+                        }
+
+                        Encoding(detectedEncoding ?: DEFAULT_ENCODING, detectedEncoding, null)
+                    }
+                }
+
+                block(encoding, InputStreamReader(ByteBufferInputStream(buffer), encoding.used))
+            }
+        }
+
+        /**
+         * Detects encoding the same way [EncodingDetect] does, returning early for
+         * content starting with a BOM and for valid UTF-8 content (null if ASCII only),
+         * which is most of the files.
+         */
+        @JvmStatic
+        fun detect(buffer: ByteBuffer): String? {
+            detectBom(buffer)?.let {
+                return it
+            }
+
+            var hasNonAscii = false
+            var continuationBytes = 0
+
+            while (buffer.hasRemaining()) {
+                val b = buffer.get().toInt() and 0xff
+
+                if (continuationBytes > 0) {
+                    if (b and 0xc0 != 0x80) {
+                        return detectInvalidUtf8(buffer)
+                    }
+                    continuationBytes--
+
+                } else if (b >= 0x80) {
+                    hasNonAscii = true
+
+                    continuationBytes = when (b) {
+                        in 0xc2..0xdf -> 1
+                        in 0xe0..0xef -> 2
+                        in 0xf0..0xf4 -> 3
+                        else -> return detectInvalidUtf8(buffer)
+                    }
+                }
+            }
+
+            if (continuationBytes > 0) {
+                return detectInvalidUtf8(buffer)
+            }
+
+            return if (hasNonAscii) UTF_8 else null
+        }
+
+        private fun detectBom(buffer: ByteBuffer): String? {
+            fun startsWith(vararg bytes: Int): Boolean {
+                return buffer.remaining() >= bytes.size && bytes.indices.all {
+                    buffer.get(buffer.position() + it).toInt() and 0xff == bytes[it]
+                }
+            }
+
+            return when {
+                startsWith(0xef, 0xbb, 0xbf) -> UTF_8
+                startsWith(0x00, 0x00, 0xfe, 0xff) -> "UTF-32BE"
+                startsWith(0xff, 0xfe, 0x00, 0x00) -> "UTF-32LE"
+                startsWith(0xfe, 0xff) -> "UTF-16BE"
+                startsWith(0xff, 0xfe) -> "UTF-16LE"
+                else -> null
+            }
+        }
+
+        /** Not UTF-8 - let the detector go through the whole content. */
+        private fun detectInvalidUtf8(buffer: ByteBuffer): String? {
+            buffer.rewind()
+
+            return EncodingDetect.getInstance(ByteBufferInputStream(buffer)).encoding
+        }
+
+        private const val UTF_8 = "UTF-8"
+
+        private const val DEFAULT_ENCODING = UTF_8
 
         private val TAG = Encoding::class.java.name
     }
-}
\ No newline at end of file
+
+    private class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+        override fun read(): Int {
+            return if (buffer.hasRemaining()) buffer.get().toInt() and 0xff else -1
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) {
+                return 0
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1
+            }
+
+            val n = minOf(len, buffer.remaining())
+            buffer.get(b, off, n)
+            return n
+        }
+
+        override fun available(): Int {
+            return buffer.remaining()
+        }
+    }
+}
@@ -14,6 +14,7 @@ class LogMajorEvents {
 
         const val REMINDERS = "reminders"
         const val SYNC = "sync"
+        const val CACHE = "cache"
 
         fun isEnabled(): Boolean {
             return AppPreferences.logMajorEvents(App.getAppContext())
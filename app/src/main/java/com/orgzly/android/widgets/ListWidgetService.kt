@@ -13,8 +13,6 @@ import com.orgzly.android.AppIntent
 import com.orgzly.android.data.DataRepository
 import com.orgzly.android.db.entity.NoteView
 import com.orgzly.android.prefs.AppPreferences
-import com.orgzly.android.query.Query
-import com.orgzly.android.query.user.InternalQueryParser
 import com.orgzly.android.ui.TimeType
 import com.orgzly.android.ui.notes.query.agenda.AgendaItem
 import com.orgzly.android.ui.notes.query.agenda.AgendaItems
@@ -63,11 +61,6 @@ class ListWidgetService : RemoteViewsService() {
     inner class ListWidgetViewsFactory(
         val context: Context, private val queryString: String, private val searchId: Long
     ) : RemoteViewsFactory {
-        private val query: Query by lazy {
-            val parser = InternalQueryParser()
-            parser.parse(queryString)
-        }
-
         private val userTimeFormatter by lazy {
             UserTimeFormatter(context)
         }
@@ -89,7 +82,9 @@ class ListWidgetService : RemoteViewsService() {
         override fun onDataSetChanged() {
             if (BuildConfig.LOG_DEBUG) LogUtils.d(TAG)
 
-            val notes = dataRepository.selectNotesFromQuery(query)
+            val query = dataRepository.parseQuery(queryString)
+
+            val notes = dataRepository.selectNotesFromQuery(queryString, forList = true)
 
             if (query.isAgenda()) {
                 val idMap = mutableMapOf<Long, Long>()
@@ -0,0 +1,103 @@
+package com.orgzly.android.git
+
+import android.content.Context
+import androidx.core.net.toUri
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.orgzly.android.db.entity.Repo
+import com.orgzly.android.prefs.AppPreferences
+import com.orgzly.android.prefs.RepoPreferences
+import com.orgzly.android.repos.GitRepo
+import com.orgzly.android.repos.RepoType
+import org.eclipse.jgit.api.Git
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import kotlin.io.path.createTempDirectory
+
+@RunWith(AndroidJUnit4::class)
+class GitTransportPoolTest {
+
+    private lateinit var bareRepoDir: File
+    private lateinit var otherWorkTree: File
+    private lateinit var gitWorkingTree: File
+    private lateinit var gitPreferences: GitPreferences
+    private lateinit var synchronizer: GitFileSynchronizer
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @Before
+    fun setup() {
+        bareRepoDir = createTempDirectory().toFile()
+        Git.init().setBare(true).setDirectory(bareRepoDir).call()
+
+        // Another clone, for changing the remote
+        otherWorkTree = createTempDirectory().toFile()
+        Git.cloneRepository().setURI("file://$bareRepoDir").setDirectory(otherWorkTree).call().close()
+        pushFromOtherClone("book-a.org", "* Note A\n")
+
+        AppPreferences.gitIsEnabled(context, true)
+        val repo = Repo(0, RepoType.GIT, "file://$bareRepoDir")
+        gitPreferences = GitPreferencesFromRepoPrefs(RepoPreferences(context, repo.id, repo.url.toUri()))
+        gitWorkingTree = File(gitPreferences.repositoryFilepath())
+        gitWorkingTree.mkdirs()
+        val git = GitRepo.ensureRepositoryExists(gitPreferences, true, null)
+        synchronizer = GitFileSynchronizer(git, gitPreferences)
+    }
+
+    @After
+    fun tearDown() {
+        GitTransportPool.current()?.close()
+        gitWorkingTree.deleteRecursively()
+        otherWorkTree.deleteRecursively()
+        bareRepoDir.deleteRecursively()
+    }
+
+    @Test
+    fun testFetchSkippedWhileRemoteIsUnchanged() {
+        GitTransportPool.open().use { pool ->
+            assertTrue(synchronizer.mergeWithRemote())
+            assertTrue(synchronizer.mergeWithRemote())
+            assertTrue(synchronizer.mergeWithRemote())
+
+            assertEquals(GitTransportPool.Stats(1, 2), pool.stats())
+        }
+    }
+
+    @Test
+    fun testFetchedAfterRemoteChange() {
+        GitTransportPool.open().use { pool ->
+            assertTrue(synchronizer.mergeWithRemote())
+
+            pushFromOtherClone("book-b.org", "* Note B\n")
+
+            assertTrue(synchronizer.mergeWithRemote())
+            assertEquals("* Note B\n", File(gitWorkingTree, "book-b.org").readText())
+
+            assertEquals(GitTransportPool.Stats(2, 0), pool.stats())
+        }
+    }
+
+    @Test
+    fun testTransportSetterSharedDuringSync() {
+        GitTransportPool.open().use {
+            assertSame(gitPreferences.createTransportSetter(), gitPreferences.createTransportSetter())
+        }
+
+        assertNull(GitTransportPool.current())
+    }
+
+    private fun pushFromOtherClone(path: String, content: String) {
+        Git.open(otherWorkTree).use { git ->
+            File(otherWorkTree, path).writeText(content)
+            git.add().addFilepattern(path).call()
+            git.commit().setMessage("Update $path").call()
+            git.push().call()
+        }
+    }
+}
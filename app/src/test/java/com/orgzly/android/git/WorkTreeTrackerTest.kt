@@ -0,0 +1,78 @@
+package com.orgzly.android.git
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.eclipse.jgit.api.Git
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import kotlin.io.path.createTempDirectory
+
+@RunWith(AndroidJUnit4::class)
+class WorkTreeTrackerTest {
+
+    private lateinit var workTree: File
+    private lateinit var git: Git
+    private lateinit var tracker: WorkTreeTracker
+
+    @Before
+    fun setup() {
+        workTree = createTempDirectory().toFile()
+        git = Git.init().setDirectory(workTree).call()
+        commit("book-a.org", "* Note A\n")
+        commit("book-b.org", "* Note B\n")
+        tracker = WorkTreeTracker.forRepository(git.repository)
+        tracker.takeStats()
+    }
+
+    @After
+    fun tearDown() {
+        git.close()
+        workTree.deleteRecursively()
+    }
+
+    @Test
+    fun testOnlyWrittenPathsAreChecked() {
+        assertTrue(tracker.isClean(git))
+        assertTrue(tracker.isClean(git))
+
+        File(workTree, "book-a.org").writeText("* Note A (modified)\n")
+        tracker.written("book-a.org")
+        assertFalse(tracker.isClean(git))
+
+        commit("book-a.org", "* Note A (modified)\n")
+        assertTrue(tracker.isClean(git))
+        assertTrue(tracker.isClean(git))
+
+        tracker.takeStats().let { stats ->
+            assertEquals(1, stats.fullChecks)
+            assertEquals(2, stats.pathChecks)
+            assertEquals(2, stats.skippedChecks)
+        }
+    }
+
+    @Test
+    fun testFullStatusAfterInvalidate() {
+        assertTrue(tracker.isClean(git))
+
+        // Not written by Orgzly, not noticed until full status
+        File(workTree, "book-b.org").writeText("* Note B (modified)\n")
+        assertTrue(tracker.isClean(git))
+
+        tracker.invalidate()
+        assertFalse(tracker.isClean(git))
+        assertFalse(tracker.isClean(git))
+
+        assertEquals(3, tracker.takeStats().fullChecks)
+    }
+
+    private fun commit(path: String, content: String) {
+        File(workTree, path).writeText(content)
+        git.add().addFilepattern(path).call()
+        git.commit().setMessage("Update $path").call()
+    }
+}
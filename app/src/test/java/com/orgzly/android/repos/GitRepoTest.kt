@@ -11,6 +11,10 @@ import com.orgzly.android.prefs.AppPreferences
 import com.orgzly.android.prefs.RepoPreferences
 import org.eclipse.jgit.api.Git
 import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
@@ -154,4 +158,95 @@ class GitRepoTest : SyncRepoTest {
     override fun testRenameBook_sameSubfolderNewLeafName() {
         SyncRepoTest.testRenameBook_sameSubfolderNewLeafName(syncRepo)
     }
+
+    @Test
+    fun testGetBooks_contentHashIsBlobId() {
+        val fileA = tempFile("* Note A\n")
+        val fileB = tempFile("* Note B\n")
+
+        val storedA = syncRepo.storeBook(fileA, "book-a.org")
+        syncRepo.storeBook(fileB, "book-b.org")
+
+        val bookA = syncRepo.books.first { it.uri == storedA.uri }
+
+        assertEquals(storedA.revision, bookA.revision)
+        assertEquals((syncRepo as TwoWaySyncRepo).contentHash(fileA), bookA.contentHash)
+        assertEquals(
+            gitFileSynchronizer.getFileRevision("book-a.org", gitFileSynchronizer.currentHead()).name,
+            bookA.contentHash)
+
+        // Committing the same content again changes the revision, but not the content hash
+        fileA.appendText("* Note A-02\n")
+        syncRepo.storeBook(fileA, "book-a.org")
+        fileA.writeText("* Note A\n")
+        val restoredA = syncRepo.storeBook(fileA, "book-a.org")
+
+        assertNotEquals(storedA.revision, restoredA.revision)
+        assertEquals(storedA.contentHash, restoredA.contentHash)
+    }
+
+    @Test
+    fun testStoreBook_percentInFileName() {
+        val stored = syncRepo.storeBook(tempFile("* Note\n"), "100%25.org")
+
+        assertEquals("/100%25.org", stored.uri.toString())
+        assertEquals(stored.uri, syncRepo.books.single().uri)
+    }
+
+    @Test
+    fun testStoreBooks_singleCommitAndPush() {
+        val books = (1..3).map { i ->
+            syncRepo.storeBook(tempFile("* Note $i\n"), "book-$i.org")
+        }
+
+        // Modified in the repository since it was synced
+        syncRepo.storeBook(tempFile("* Note 3 (modified in repo)\n"), "book-3.org")
+
+        val commitsBefore = Git.open(gitWorkingTree).use { it.log().call().count() }
+
+        val stored = (syncRepo as TwoWaySyncRepo).storeBooks(
+            books.associateWith { tempFile("* Note (modified locally)\n") })
+
+        assertEquals(setOf(books[0], books[1]), stored.keys)
+        assertEquals(commitsBefore + 1, Git.open(gitWorkingTree).use { it.log().call().count() })
+        assertEquals("* Note (modified locally)\n", File(gitWorkingTree, "book-1.org").readText())
+        assertEquals("* Note 3 (modified in repo)\n", File(gitWorkingTree, "book-3.org").readText())
+        stored.values.forEach { newRook ->
+            assertEquals(gitFileSynchronizer.currentHead().name, newRook.revision)
+        }
+
+        (syncRepo as TwoWaySyncRepo).tryPushIfHeadDiffersFromRemote()
+
+        val branch = (syncRepo as GitRepo).currentBranch
+        Git.open(bareRepoDir).use { remote ->
+            assertEquals(gitFileSynchronizer.currentHead().id, remote.repository.resolve("refs/heads/$branch"))
+        }
+    }
+
+    @Test
+    fun testStoreBooks_failureLeavesRepoCleanForSyncingOneByOne() {
+        val books = (1..3).map { i ->
+            syncRepo.storeBook(tempFile("* Note $i\n"), "book-$i.org")
+        }
+
+        // Fails after the first book is copied to the work tree
+        val files = listOf(tempFile("* Note 1 (modified locally)\n"), File(gitWorkingTree, "missing.org"), tempFile("* Note 3\n"))
+
+        assertThrows(IOException::class.java) {
+            (syncRepo as TwoWaySyncRepo).storeBooks(books.zip(files).toMap())
+        }
+
+        assertEquals("* Note 1\n", File(gitWorkingTree, "book-1.org").readText())
+        assertTrue(Git.open(gitWorkingTree).use { it.status().call().isClean })
+
+        // Fallback, syncing books one by one
+        val result = (syncRepo as TwoWaySyncRepo).syncBook(books[0].uri, books[0], tempFile("* Note 1 (modified locally)\n"))
+
+        assertEquals("* Note 1 (modified locally)\n", File(gitWorkingTree, "book-1.org").readText())
+        assertEquals(gitFileSynchronizer.currentHead().name, result.newRook.revision)
+    }
+
+    private fun tempFile(content: String): File {
+        return kotlin.io.path.createTempFile().toFile().apply { writeText(content) }
+    }
 }
\ No newline at end of file